@@ -4,17 +4,33 @@ import lombok.RequiredArgsConstructor;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.tymi.ospflooding.backend.exceptions.InvalidFormatDataException;
+import org.tymi.ospflooding.backend.graph.DistanceMatrix;
+import org.tymi.ospflooding.backend.graph.Isochrone;
+import org.tymi.ospflooding.backend.graph.RoadNetworkSnapshot;
+import org.tymi.ospflooding.backend.graph.RoutingAlgorithm;
+import org.tymi.ospflooding.backend.graph.SnapResult;
+import org.tymi.ospflooding.backend.records.Bounds;
+import org.tymi.ospflooding.backend.records.DistanceMatrixRequest;
+import org.tymi.ospflooding.backend.records.ShelterAssignmentRequest;
 import org.tymi.ospflooding.backend.services.FloodService;
 import org.tymi.ospflooding.backend.services.RoadNetworkService;
-import org.tymi.ospflooding.backend.utilities.PathRecord;
+import org.tymi.ospflooding.backend.utilities.RouteResult;
+import org.tymi.ospflooding.backend.utilities.ShelterAssignment;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @RestController
@@ -23,11 +39,15 @@ import java.util.Map;
 public class EvacuationController {
      private RoadNetworkService service;
      private FloodService floodService;
+     // every origin runs its own search over the shared pool, and the response grows with every pair
+     private int maxPairs;
 
      @Autowired
-     public EvacuationController(RoadNetworkService service, FloodService floodService) {
+     public EvacuationController(RoadNetworkService service, FloodService floodService,
+                                 @Value("${routing.max-pairs:10000}") int maxPairs) {
           this.service = service;
           this.floodService = floodService;
+          this.maxPairs = maxPairs;
      }
 
      @GetMapping("/route")
@@ -35,7 +55,10 @@ public class EvacuationController {
              @RequestParam String start,  // "lat,lon"
              @RequestParam String end,     // "lat,lon"
              @RequestParam(defaultValue = "2024-01-01") String startDate, // TODO: Implement that
-             @RequestParam(defaultValue = "2024-12-31") String endDate // TODO: Implement that
+             @RequestParam(defaultValue = "2024-12-31") String endDate, // TODO: Implement that
+             @RequestParam(required = false) String algorithm, // dijkstra, astar, bidirectional or cch
+             // number of routes, including the best one; more than one are always found by via-node Dijkstra
+             @RequestParam(defaultValue = "1") int alternatives
      ) {
           String[] startParts = start.split(",");
           String[] endParts = end.split(",");
@@ -51,12 +74,168 @@ public class EvacuationController {
           double endLat = Double.parseDouble(endParts[0]);
           double endLon = Double.parseDouble(endParts[1]);
 
-          List<PathRecord> paths = service.findShortestPaths(startLat, startLon, endLat, endLon);
-          JSONObject geoJson = service.buildGeoJson(paths);
+          RoutingAlgorithm routingAlgorithm = service.getDefaultAlgorithm();
+          if (algorithm != null) {
+               try {
+                    routingAlgorithm = RoutingAlgorithm.fromName(algorithm);
+               } catch (IllegalArgumentException e) {
+                    throw new InvalidFormatDataException("Supported algorithms are dijkstra, astar, bidirectional and cch", "algorithm");
+               }
+          }
+
+          if (alternatives < 1 || alternatives > 5) {
+               throw new InvalidFormatDataException("Between 1 and 5 routes can be requested", "alternatives");
+          }
+          if (alternatives > 1 && algorithm != null && routingAlgorithm != RoutingAlgorithm.DIJKSTRA) {
+               throw new InvalidFormatDataException("Alternative routes are only found with dijkstra", "algorithm");
+          }
+
+          RouteResult route = alternatives == 1
+                  ? service.findRoute(startLat, startLon, endLat, endLon, routingAlgorithm)
+                  : service.findAlternativeRoutes(startLat, startLon, endLat, endLon, alternatives);
+          JSONObject geoJson = service.buildGeoJson(route.paths());
 
           return Map.of(
                   "geojson", geoJson.toMap(),
-                  "empty", paths.isEmpty()
+                  "empty", route.paths().isEmpty(),
+                  "algorithm", route.algorithm().name().toLowerCase(Locale.ROOT),
+                  "settledNodes", route.settledNodes(),
+                  "elapsedMicros", route.elapsedMicros()
+          );
+     }
+
+     /**
+      * Roads reachable from the start within the given distance without crossing flooded roads.
+      */
+     @GetMapping("/isochrone")
+     public Map<String, Object> getIsochrone(
+             @RequestParam String start, // "lat,lon"
+             @RequestParam double distance // metres
+     ) {
+          double[] origin = parseCoordinate(start, "start");
+          if (!(distance > 0) || distance > 100_000) {
+               throw new InvalidFormatDataException("The distance must be between 0 and 100000 metres", "distance");
+          }
+
+          long started = System.nanoTime();
+          Isochrone isochrone = service.findReachableArea(origin[0], origin[1], distance);
+          long elapsedMicros = (System.nanoTime() - started) / 1_000;
+          if (isochrone == null) return Map.of("empty", true);
+
+          return Map.of(
+                  "geojson", service.buildIsochroneGeoJson(isochrone).toMap(),
+                  "empty", isochrone.pieceCount() == 0,
+                  "reachedNodes", isochrone.reachedNodes(),
+                  "elapsedMicros", elapsedMicros
+          );
+     }
+
+     /**
+      * Flood-aware distances between every origin and every destination. Unreachable pairs are null.
+      */
+     @PostMapping("/matrix")
+     public Map<String, Object> getMatrix(@RequestBody DistanceMatrixRequest request) {
+          if (request.origins() == null || request.origins().isEmpty()) {
+               throw new InvalidFormatDataException("At least one origin is required", "origins");
+          }
+          if (request.destinations() == null || request.destinations().isEmpty()) {
+               throw new InvalidFormatDataException("At least one destination is required", "destinations");
+          }
+          if ((long) request.origins().size() * request.destinations().size() > maxPairs) {
+               throw new InvalidFormatDataException("At most " + maxPairs + " origin and destination pairs can be requested", "origins");
+          }
+
+          List<double[]> origins = new ArrayList<>(request.origins().size());
+          for (String origin : request.origins()) origins.add(parseCoordinate(origin, "origins"));
+          List<double[]> destinations = new ArrayList<>(request.destinations().size());
+          for (String destination : request.destinations()) destinations.add(parseCoordinate(destination, "destinations"));
+
+          long started = System.nanoTime();
+          DistanceMatrix matrix = service.computeMatrix(origins, destinations);
+          long elapsedMicros = (System.nanoTime() - started) / 1_000;
+
+          List<List<Double>> penalties = new ArrayList<>(matrix.rows());
+          List<List<Double>> lengths = new ArrayList<>(matrix.rows());
+          for (int i = 0; i < matrix.rows(); i++) {
+               Double[] penaltyRow = new Double[matrix.columns()];
+               Double[] lengthRow = new Double[matrix.columns()];
+               for (int j = 0; j < matrix.columns(); j++) {
+                    if (!matrix.isReachable(i, j)) continue;
+                    penaltyRow[j] = matrix.floodPenalty(i, j);
+                    lengthRow[j] = matrix.length(i, j);
+               }
+               penalties.add(Arrays.asList(penaltyRow));
+               lengths.add(Arrays.asList(lengthRow));
+          }
+
+          return Map.of(
+                  "floodPenalties", penalties,
+                  "lengths", lengths,
+                  "elapsedMicros", elapsedMicros
+          );
+     }
+
+     /**
+      * Assigns every origin to its nearest reachable shelter with a single search from all shelters.
+      */
+     @PostMapping("/shelters/assign")
+     public Map<String, Object> assignShelters(@RequestBody ShelterAssignmentRequest request) {
+          if (request.shelters() == null || request.shelters().isEmpty()) {
+               throw new InvalidFormatDataException("At least one shelter is required", "shelters");
+          }
+          if (request.origins() == null) {
+               throw new InvalidFormatDataException("The list of origins is required", "origins");
+          }
+          if (request.origins().size() > maxPairs) {
+               throw new InvalidFormatDataException("At most " + maxPairs + " origins can be assigned", "origins");
+          }
+
+          List<double[]> shelters = new ArrayList<>(request.shelters().size());
+          for (String shelter : request.shelters()) shelters.add(parseCoordinate(shelter, "shelters"));
+          List<double[]> origins = new ArrayList<>(request.origins().size());
+          for (String origin : request.origins()) origins.add(parseCoordinate(origin, "origins"));
+
+          List<ShelterAssignment> assignments = service.assignShelters(shelters, origins, request.includePaths());
+
+          List<Map<String, Object>> result = new ArrayList<>(assignments.size());
+          int assigned = 0;
+          for (ShelterAssignment assignment : assignments) {
+               Map<String, Object> entry = new HashMap<>();
+               if (assignment.shelter() == -1) {
+                    entry.put("empty", true);
+               } else {
+                    assigned++;
+                    entry.put("empty", false);
+                    entry.put("shelter", assignment.shelter());
+                    entry.put("totalLength", assignment.length());
+                    entry.put("flooded", assignment.flooded());
+                    if (assignment.path() != null) {
+                         entry.put("geojson", service.buildGeoJson(List.of(assignment.path())).toMap());
+                    }
+               }
+               result.add(entry);
+          }
+
+          return Map.of(
+                  "assignments", result,
+                  "assigned", assigned
+          );
+     }
+
+     @GetMapping("/snap")
+     public Map<String, Object> snap(@RequestParam String point /* "lat,lon" */) {
+          double[] coordinate = parseCoordinate(point, "point");
+
+          RoadNetworkSnapshot network = service.getSnapshot();
+          SnapResult snap = network.spatialIndex().nearest(coordinate[0], coordinate[1]);
+          if (snap == null) return Map.of("empty", true);
+
+          return Map.of(
+                  "empty", false,
+                  "roadId", network.graph().segmentId(snap.edge()),
+                  "fraction", snap.fraction(),
+                  "point", new double[]{snap.latitude(), snap.longitude()},
+                  "distance", snap.distance()
           );
      }
 
@@ -70,10 +249,11 @@ public class EvacuationController {
              @RequestParam(defaultValue = "2024-12-31") String endDate) {
 
           try {
-               double finalSouth = south != null ? south : 50.045;
-               double finalWest = west != null ? west : 19.900;
-               double finalNorth = north != null ? north : 50.070;
-               double finalEast = east != null ? east : 19.960;
+               Bounds bounds = service.getSnapshot().bounds();
+               double finalSouth = south != null ? south : bounds.south();
+               double finalWest = west != null ? west : bounds.west();
+               double finalNorth = north != null ? north : bounds.north();
+               double finalEast = east != null ? east : bounds.east();
 
                JSONObject geoJson = floodService.getFloodedPolygons(
                        finalSouth, finalWest, finalNorth, finalEast, startDate, endDate);
@@ -92,4 +272,16 @@ public class EvacuationController {
                return ResponseEntity.status(500).body("Error getting flood polygons: " + e.getMessage());
           }
      }
+
+     private static double[] parseCoordinate(String value, String parameter) {
+          String[] parts = value == null ? new String[0] : value.split(",");
+          if (parts.length != 2) {
+               throw new InvalidFormatDataException("The correct format for the coordinate is latitude,longitude", parameter);
+          }
+          try {
+               return new double[]{Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim())};
+          } catch (NumberFormatException e) {
+               throw new InvalidFormatDataException("The correct format for the coordinate is latitude,longitude", parameter);
+          }
+     }
 }
@@ -1,23 +1,39 @@
 package org.tymi.ospflooding.backend.controllers;
 
 import org.json.JSONObject;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.tymi.ospflooding.backend.records.Node;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.tymi.ospflooding.backend.records.Bounds;
 import org.tymi.ospflooding.backend.services.FloodService;
+import org.tymi.ospflooding.backend.services.FloodTileService;
 import org.tymi.ospflooding.backend.services.RoadNetworkService;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodTileCache;
+import org.tymi.ospflooding.backend.utilities.FloodTileRenderer;
 
 @RestController
 @RequestMapping("/api/flood")
 public class FloodController {
+     private static final MediaType VECTOR_TILE = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
      private final FloodService floodService;
      private final RoadNetworkService roadNetworkService;
+     private final FloodTileService floodTileService;
 
-     public FloodController(FloodService floodService, RoadNetworkService roadNetworkService) {
+     public FloodController(FloodService floodService, RoadNetworkService roadNetworkService,
+                            FloodTileService floodTileService) {
           this.floodService = floodService;
           this.roadNetworkService = roadNetworkService;
+          this.floodTileService = floodTileService;
      }
 
+     /**
+      * Get flooded areas as polygons, simplified for the zoom level if one is given
+      */
      @GetMapping("/polygons")
      public ResponseEntity<String> getFloodedPolygons(
              @RequestParam double south,
@@ -25,20 +41,18 @@ public class FloodController {
              @RequestParam double north,
              @RequestParam double east,
              @RequestParam String startDate,
-             @RequestParam String endDate) {
+             @RequestParam String endDate,
+             @RequestParam(required = false) Integer zoom) {
 
           try {
-               double maxSouth = roadNetworkService.nodes.values().stream().mapToDouble(Node::lat).min().orElse(50.045);
-               double maxWest  = roadNetworkService.nodes.values().stream().mapToDouble(Node::lon).min().orElse(19.900);
-               double maxNorth = roadNetworkService.nodes.values().stream().mapToDouble(Node::lat).max().orElse(50.070);
-               double maxEast  = roadNetworkService.nodes.values().stream().mapToDouble(Node::lon).max().orElse(19.960);
+               Bounds max = roadNetworkService.getSnapshot().bounds();
 
-               south = south == 0 ? maxSouth : Math.min(maxSouth, south);
-               west = west == 0 ? maxWest : Math.min(maxWest, west);
-               north = north == 0 ? maxNorth : Math.min(maxNorth, north);
-               east = east == 0 ? maxEast : Math.min(maxEast, east);
+               south = south == 0 ? max.south() : Math.min(max.south(), south);
+               west = west == 0 ? max.west() : Math.min(max.west(), west);
+               north = north == 0 ? max.north() : Math.min(max.north(), north);
+               east = east == 0 ? max.east() : Math.min(max.east(), east);
 
-               JSONObject geoJson = floodService.getFloodedPolygons(south, west, north, east, startDate, endDate);
+               JSONObject geoJson = floodService.getFloodedPolygons(south, west, north, east, startDate, endDate, zoom);
                return ResponseEntity.ok(geoJson.toString());
 
           } catch (Exception e) {
@@ -48,10 +62,10 @@ public class FloodController {
      }
 
      /**
-      * Get flooded areas as points for visualization
+      * Get flooded areas as points for visualization, streamed as they are written
       */
      @GetMapping("/points")
-     public ResponseEntity<String> getFloodedPoints(
+     public ResponseEntity<?> getFloodedPoints(
              @RequestParam double south,
              @RequestParam double west,
              @RequestParam double north,
@@ -60,18 +74,16 @@ public class FloodController {
              @RequestParam String endDate) {
 
           try {
-               double maxSouth = roadNetworkService.nodes.values().stream().mapToDouble(Node::lat).min().orElse(50.045);
-               double maxWest  = roadNetworkService.nodes.values().stream().mapToDouble(Node::lon).min().orElse(19.900);
-               double maxNorth = roadNetworkService.nodes.values().stream().mapToDouble(Node::lat).max().orElse(50.070);
-               double maxEast  = roadNetworkService.nodes.values().stream().mapToDouble(Node::lon).max().orElse(19.960);
+               Bounds max = roadNetworkService.getSnapshot().bounds();
 
-               south = south == 0 ? maxSouth : Math.min(maxSouth, south);
-               west = west == 0 ? maxWest : Math.min(maxWest, west);
-               north = north == 0 ? maxNorth : Math.min(maxNorth, north);
-               east = east == 0 ? maxEast : Math.min(maxEast, east);
+               south = south == 0 ? max.south() : Math.min(max.south(), south);
+               west = west == 0 ? max.west() : Math.min(max.west(), west);
+               north = north == 0 ? max.north() : Math.min(max.north(), north);
+               east = east == 0 ? max.east() : Math.min(max.east(), east);
 
-               JSONObject geoJson = floodService.getFloodedPoints(south, west, north, east, startDate, endDate);
-               return ResponseEntity.ok(geoJson.toString());
+               FloodMask mask = floodService.getFloodMask(south, west, north, east, startDate, endDate);
+               StreamingResponseBody body = out -> FloodService.writeFloodedPoints(mask, out);
+               return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
 
           } catch (Exception e) {
                e.printStackTrace();
@@ -79,6 +91,31 @@ public class FloodController {
           }
      }
 
+     /**
+      * Get flooded areas as a Mapbox Vector Tile, with an ETag to revalidate it against
+      */
+     @GetMapping("/tiles/{z}/{x}/{y}.mvt")
+     public ResponseEntity<byte[]> getFloodTile(@PathVariable int z, @PathVariable int x, @PathVariable int y,
+                                                WebRequest request) {
+          if (!FloodTileRenderer.isValidTile(z, x, y)) return ResponseEntity.badRequest().build();
+
+          try {
+               FloodTileCache.Tile tile = floodTileService.getTile(z, x, y);
+               // answered with 304 Not Modified
+               if (request.checkNotModified(tile.etag())) return null;
+
+               return ResponseEntity.ok()
+                       .eTag(tile.etag())
+                       .cacheControl(CacheControl.noCache())
+                       .contentType(VECTOR_TILE)
+                       .body(tile.data());
+
+          } catch (Exception e) {
+               e.printStackTrace();
+               return ResponseEntity.status(500).build();
+          }
+     }
+
      /**
       * Check if a specific point is flooded
       */
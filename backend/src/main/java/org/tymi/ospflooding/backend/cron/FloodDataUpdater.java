@@ -4,8 +4,9 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.tymi.ospflooding.backend.graph.RoadNetworkSnapshot;
+import org.tymi.ospflooding.backend.records.Bounds;
 import org.tymi.ospflooding.backend.services.FloodService;
-import org.tymi.ospflooding.backend.records.Node;
 import org.tymi.ospflooding.backend.services.RoadNetworkService;
 
 import java.io.IOException;
@@ -34,10 +35,8 @@ public class FloodDataUpdater {
 
      public void updateFloodData() {
           // TODO: Use the database
-          double south = roadNetworkService.nodes.values().stream().mapToDouble(Node::lat).min().orElse(50.045);
-          double west  = roadNetworkService.nodes.values().stream().mapToDouble(Node::lon).min().orElse(19.900);
-          double north = roadNetworkService.nodes.values().stream().mapToDouble(Node::lat).max().orElse(50.070);
-          double east  = roadNetworkService.nodes.values().stream().mapToDouble(Node::lon).max().orElse(19.960);
+          RoadNetworkSnapshot snapshot = roadNetworkService.getSnapshot();
+          Bounds bounds = snapshot.bounds();
 
           // fetch data for the last 24h
           LocalDate endDate = LocalDate.now();
@@ -47,9 +46,10 @@ public class FloodDataUpdater {
 
           try {
                floodService.downloadAndParseFloodZones(
-                       south, west, north, east,
+                       bounds.south(), bounds.west(), bounds.north(), bounds.east(),
                        startDate.format(formatter),
-                       endDate.format(formatter)
+                       endDate.format(formatter),
+                       snapshot.floodFlags().floodMask()
                );
                System.out.println("Flood data updated successfully");
           } catch (IOException | InterruptedException e) {
@@ -0,0 +1,257 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Alternative routes by the via-node method. A forward tree from the start and a backward tree from the
+ * destination are grown in parallel up to the stretch bound; every node settled by both gives the
+ * candidate route {@code start -> via -> destination}. Only the first node of each plateau, a stretch
+ * the two trees share, is kept, since all its nodes give the same route.
+ * <p>
+ * A candidate is admissible if it
+ * <ul>
+ *      <li>crosses no more flooded roads than the best route,</li>
+ *      <li>is at most {@link #MAX_STRETCH} times as long (bounded stretch),</li>
+ *      <li>shares at most {@link #MAX_SHARING} of the best route's length with any accepted route
+ *      (limited sharing),</li>
+ *      <li>passes the T-test: the stretch of {@link #LOCAL_OPTIMALITY} times the best length around the
+ *      via node is itself a shortest path (local optimality).</li>
+ * </ul>
+ * Candidates are checked in parallel, then accepted greedily by length.
+ */
+public final class AlternativeRoutes {
+     static final double MAX_STRETCH = 1.25;
+     static final double MAX_SHARING = 0.8;
+     static final double LOCAL_OPTIMALITY = 0.25;
+     private static final int MAX_CANDIDATES = 64;
+     private static final double EPSILON = 1e-6;
+
+     private AlternativeRoutes() {}
+
+     /**
+      * @param count number of routes wanted, including the best one
+      * @return the best route first, then up to {@code count - 1} alternatives; empty if unreachable
+      */
+     public static List<SearchResult> find(RoadGraph graph, EdgePenalty penalty, SearchWorkspacePool workspaces,
+                                           SnapResult source, SnapResult target, int count) {
+          Anchors sources = Anchors.departing(graph, penalty, source);
+          Anchors targets = Anchors.arriving(graph, penalty, target);
+          SearchWorkspace forward = workspaces.acquire(graph);
+          SearchWorkspace backward = workspaces.acquire(graph);
+          try {
+               IntStream.range(0, 2).parallel().forEach(side -> {
+                    if (side == 0) {
+                         grow(graph, penalty, forward, sources, targets, true);
+                    } else {
+                         grow(graph, penalty, backward, targets, sources, false);
+                    }
+               });
+
+               SearchResult shortest = best(graph, penalty, forward, sources, targets, source, target);
+               if (shortest == null) return List.of();
+               SearchResult best = new SearchResult(shortest.edges(), shortest.floodPenalty(), shortest.length(),
+                       forward.settledCount() + backward.settledCount());
+               List<SearchResult> routes = new ArrayList<>();
+               routes.add(best);
+               if (count <= 1 || best.edges().length == 0) return routes;
+
+               int[] candidates = candidates(graph, forward, backward, best);
+               BitSet bestEdges = edgeSet(best.edges());
+               Candidate[] checked = IntStream.range(0, candidates.length).parallel()
+                       .mapToObj(i -> check(graph, penalty, workspaces, forward, backward, sources, targets,
+                               candidates[i], best, bestEdges))
+                       .toArray(Candidate[]::new);
+
+               List<BitSet> accepted = new ArrayList<>();
+               accepted.add(bestEdges);
+               for (Candidate candidate : checked) {
+                    if (candidate == null) continue;
+                    boolean distinct = true;
+                    for (BitSet other : accepted) {
+                         if (sharedLength(graph, candidate.route.edges(), other) > MAX_SHARING * best.length()) {
+                              distinct = false;
+                              break;
+                         }
+                    }
+                    if (!distinct) continue;
+                    routes.add(candidate.route);
+                    accepted.add(candidate.edges);
+                    if (routes.size() == count) break;
+               }
+               return routes;
+          } finally {
+               workspaces.release(forward);
+               workspaces.release(backward);
+          }
+     }
+
+     /**
+      * Dijkstra that keeps going after the far anchors are settled, until nothing within the stretch
+      * bound of the best route is left in the queue.
+      */
+     private static void grow(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace, Anchors origins,
+                              Anchors goals, boolean forward) {
+          for (int i = 0; i < origins.count(); i++) {
+               workspace.relax(origins.node(i), origins.penalty(i), origins.length(i), -1);
+          }
+
+          double bestPenalty = Double.POSITIVE_INFINITY;
+          double bestLength = Double.POSITIVE_INFINITY;
+          while (workspace.hasQueued()) {
+               if (workspace.peekPenalty() > bestPenalty
+                       || (workspace.peekPenalty() == bestPenalty && workspace.peekKey() > MAX_STRETCH * bestLength)) {
+                    break;
+               }
+
+               int current = workspace.settleNext();
+               double currentPenalty = workspace.penalty(current);
+               double currentLength = workspace.length(current);
+               for (int i = 0; i < goals.count(); i++) {
+                    if (goals.node(i) != current) continue;
+                    double p = currentPenalty + goals.penalty(i);
+                    double l = currentLength + goals.length(i);
+                    if (ShortestPathSearch.less(p, l, bestPenalty, bestLength)) {
+                         bestPenalty = p;
+                         bestLength = l;
+                    }
+               }
+
+               if (forward) {
+                    for (int edge = graph.firstEdge(current); edge < graph.endEdge(current); edge++) {
+                         int to = graph.target(edge);
+                         if (workspace.isSettled(to)) continue;
+                         workspace.relax(to, currentPenalty + penalty.penalty(edge), currentLength + graph.length(edge), edge);
+                    }
+               } else {
+                    for (int slot = graph.firstIncoming(current); slot < graph.endIncoming(current); slot++) {
+                         int edge = graph.incomingEdge(slot);
+                         int from = graph.source(edge);
+                         if (workspace.isSettled(from)) continue;
+                         workspace.relax(from, currentPenalty + penalty.penalty(edge), currentLength + graph.length(edge), edge);
+                    }
+               }
+          }
+     }
+
+     private static SearchResult best(RoadGraph graph, EdgePenalty penalty, SearchWorkspace forward, Anchors sources,
+                                      Anchors targets, SnapResult source, SnapResult target) {
+          SearchResult best = Anchors.direct(graph, penalty, source, target);
+          for (int i = 0; i < targets.count(); i++) {
+               int node = targets.node(i);
+               if (!forward.isSettled(node)) continue;
+               double p = forward.penalty(node) + targets.penalty(i);
+               double l = forward.length(node) + targets.length(i);
+               if (best == null || ShortestPathSearch.less(p, l, best.floodPenalty(), best.length())) {
+                    int[] head = ShortestPathSearch.pathTo(graph, forward, node);
+                    int origin = head.length == 0 ? node : graph.source(head[0]);
+                    best = new SearchResult(Anchors.join(sources.edgeAt(origin), head, new int[0], targets.edgeAt(node)), p, l, 0);
+               }
+          }
+          return best;
+     }
+
+     /**
+      * @return plateau starts settled by both trees within the bounds, shortest first
+      */
+     private static int[] candidates(RoadGraph graph, SearchWorkspace forward, SearchWorkspace backward, SearchResult best) {
+          BitSet onBest = new BitSet(graph.nodeCount());
+          for (int edge : best.edges()) {
+               onBest.set(graph.source(edge));
+               onBest.set(graph.target(edge));
+          }
+
+          List<double[]> found = new ArrayList<>();
+          for (int v = 0; v < graph.nodeCount(); v++) {
+               if (onBest.get(v) || !forward.isSettled(v) || !backward.isSettled(v)) continue;
+               double p = forward.penalty(v) + backward.penalty(v);
+               double l = forward.length(v) + backward.length(v);
+               if (p != best.floodPenalty() || l > MAX_STRETCH * best.length()) continue;
+
+               // inside a plateau the forward tree edge into v is the backward tree edge out of its parent
+               int in = forward.prevEdge(v);
+               if (in != -1 && backward.prevEdge(graph.source(in)) == in) continue;
+               found.add(new double[]{l, v});
+          }
+          found.sort(Comparator.comparingDouble(c -> c[0]));
+
+          int[] result = new int[Math.min(found.size(), MAX_CANDIDATES)];
+          for (int i = 0; i < result.length; i++) result[i] = (int) found.get(i)[1];
+          return result;
+     }
+
+     private static Candidate check(RoadGraph graph, EdgePenalty penalty, SearchWorkspacePool workspaces,
+                                    SearchWorkspace forward, SearchWorkspace backward, Anchors sources, Anchors targets,
+                                    int viaNode, SearchResult best, BitSet bestEdges) {
+          int[] edges = via(graph, forward, backward, sources, targets, viaNode);
+          if (sharedLength(graph, edges, bestEdges) > MAX_SHARING * best.length()) return null;
+          if (!locallyOptimal(graph, penalty, workspaces, forward, edges, viaNode, best.length())) return null;
+
+          SearchResult route = new SearchResult(edges, forward.penalty(viaNode) + backward.penalty(viaNode),
+                  forward.length(viaNode) + backward.length(viaNode), 0);
+          return new Candidate(route, edgeSet(edges));
+     }
+
+     /**
+      * T-test: the part of the route within {@code LOCAL_OPTIMALITY * bestLength} either side of the via
+      * node must not have a shortcut.
+      */
+     private static boolean locallyOptimal(RoadGraph graph, EdgePenalty penalty, SearchWorkspacePool workspaces,
+                                           SearchWorkspace forward, int[] edges, int viaNode, double bestLength) {
+          int viaIndex = 0;
+          while (viaIndex < edges.length && graph.source(edges[viaIndex]) != viaNode) viaIndex++;
+          if (viaIndex == edges.length) return true;
+
+          double window = LOCAL_OPTIMALITY * bestLength;
+          int first = viaIndex;
+          double before = 0;
+          while (first > 0 && before < window) before += graph.length(edges[--first]);
+          int last = viaIndex;
+          double after = 0;
+          while (last < edges.length && after < window) after += graph.length(edges[last++]);
+
+          double sectionPenalty = 0;
+          double sectionLength = 0;
+          for (int i = first; i < last; i++) {
+               sectionPenalty += penalty.penalty(edges[i]);
+               sectionLength += graph.length(edges[i]);
+          }
+
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               SearchResult shortest = ShortestPathSearch.dijkstra(graph, penalty, workspace,
+                       graph.source(edges[first]), graph.target(edges[last - 1]));
+               return shortest.floodPenalty() == sectionPenalty && shortest.length() >= sectionLength - EPSILON;
+          } finally {
+               workspaces.release(workspace);
+          }
+     }
+
+     private static int[] via(RoadGraph graph, SearchWorkspace forward, SearchWorkspace backward, Anchors sources,
+                              Anchors targets, int node) {
+          int[] head = ShortestPathSearch.pathTo(graph, forward, node);
+          int[] tail = ShortestPathSearch.pathFrom(graph, backward, node);
+          int origin = head.length == 0 ? node : graph.source(head[0]);
+          int end = tail.length == 0 ? node : graph.target(tail[tail.length - 1]);
+          return Anchors.join(sources.edgeAt(origin), head, tail, targets.edgeAt(end));
+     }
+
+     private static BitSet edgeSet(int[] edges) {
+          BitSet set = new BitSet();
+          for (int edge : edges) set.set(edge);
+          return set;
+     }
+
+     private static double sharedLength(RoadGraph graph, int[] edges, BitSet other) {
+          double shared = 0;
+          for (int edge : edges) {
+               if (other.get(edge)) shared += graph.length(edge);
+          }
+          return shared;
+     }
+
+     private record Candidate(SearchResult route, BitSet edges) {}
+}
@@ -0,0 +1,131 @@
+package org.tymi.ospflooding.backend.graph;
+
+/**
+ * Graph nodes through which a route can leave or reach a point snapped onto an edge, each with the
+ * weight of the partial edge between the point and the node.
+ */
+final class Anchors {
+     private static final double NODE_EPSILON = 1e-9;
+
+     private final int[] nodes = new int[2];
+     private final double[] penalties = new double[2];
+     private final double[] lengths = new double[2];
+     private final int[] edges = new int[2];
+     private int count;
+
+     static Anchors atNode(int node) {
+          Anchors anchors = new Anchors();
+          anchors.add(node, 0.0, 0.0, -1);
+          return anchors;
+     }
+
+     /**
+      * Leaving a point on {@code u -> v} means driving on to {@code v}, or back to {@code u} if there is
+      * a road the other way.
+      */
+     static Anchors departing(RoadGraph graph, EdgePenalty penalty, SnapResult snap) {
+          int edge = snap.edge();
+          int from = graph.source(edge);
+          int to = graph.target(edge);
+          if (snap.fraction() <= NODE_EPSILON) return atNode(from);
+          if (snap.fraction() >= 1.0 - NODE_EPSILON) return atNode(to);
+
+          Anchors anchors = new Anchors();
+          anchors.add(to, penalty.penalty(edge), (1.0 - snap.fraction()) * graph.length(edge), edge);
+          int reverse = graph.findEdge(to, from);
+          if (reverse != -1) anchors.add(from, penalty.penalty(reverse), snap.fraction() * graph.length(reverse), reverse);
+          return anchors;
+     }
+
+     /**
+      * Reaching a point on {@code u -> v} means arriving at {@code u}, or at {@code v} if there is a road
+      * the other way.
+      */
+     static Anchors arriving(RoadGraph graph, EdgePenalty penalty, SnapResult snap) {
+          int edge = snap.edge();
+          int from = graph.source(edge);
+          int to = graph.target(edge);
+          if (snap.fraction() <= NODE_EPSILON) return atNode(from);
+          if (snap.fraction() >= 1.0 - NODE_EPSILON) return atNode(to);
+
+          Anchors anchors = new Anchors();
+          anchors.add(from, penalty.penalty(edge), snap.fraction() * graph.length(edge), edge);
+          int reverse = graph.findEdge(to, from);
+          if (reverse != -1) anchors.add(to, penalty.penalty(reverse), (1.0 - snap.fraction()) * graph.length(reverse), reverse);
+          return anchors;
+     }
+
+     /**
+      * Route that never leaves the snapped edge, when both points lie on the same road.
+      */
+     static SearchResult direct(RoadGraph graph, EdgePenalty penalty, SnapResult from, SnapResult to) {
+          if (from.edge() != to.edge()) return null;
+          int edge = from.edge();
+          if (from.fraction() <= to.fraction()) {
+               return new SearchResult(new int[]{edge}, penalty.penalty(edge),
+                       (to.fraction() - from.fraction()) * graph.length(edge), 0);
+          }
+          int reverse = graph.findEdge(graph.target(edge), graph.source(edge));
+          if (reverse == -1) return null;
+          return new SearchResult(new int[]{reverse}, penalty.penalty(reverse),
+                  (from.fraction() - to.fraction()) * graph.length(reverse), 0);
+     }
+
+     private void add(int node, double penalty, double length, int edge) {
+          nodes[count] = node;
+          penalties[count] = penalty;
+          lengths[count] = length;
+          edges[count] = edge;
+          count++;
+     }
+
+     int count() {
+          return count;
+     }
+
+     int node(int i) {
+          return nodes[i];
+     }
+
+     double penalty(int i) {
+          return penalties[i];
+     }
+
+     double length(int i) {
+          return lengths[i];
+     }
+
+     /**
+      * @return partial edge between the snapped point and the i-th node, -1 if the point is the node itself
+      */
+     int edge(int i) {
+          return edges[i];
+     }
+
+     /**
+      * @return partial edge between the snapped point and the node, -1 if the point is the node itself
+      * or the node is not an anchor
+      */
+     int edgeAt(int node) {
+          for (int i = 0; i < count; i++) {
+               if (nodes[i] == node) return edges[i];
+          }
+          return -1;
+     }
+
+     /**
+      * Wraps a node path with the partial edges at both ends.
+      */
+     static int[] join(int firstEdge, int[] head, int[] tail, int lastEdge) {
+          int size = (firstEdge != -1 ? 1 : 0) + head.length + tail.length + (lastEdge != -1 ? 1 : 0);
+          int[] edges = new int[size];
+          int i = 0;
+          if (firstEdge != -1) edges[i++] = firstEdge;
+          System.arraycopy(head, 0, edges, i, head.length);
+          i += head.length;
+          System.arraycopy(tail, 0, edges, i, tail.length);
+          i += tail.length;
+          if (lastEdge != -1) edges[i] = lastEdge;
+          return edges;
+     }
+}
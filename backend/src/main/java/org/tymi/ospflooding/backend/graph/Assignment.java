@@ -0,0 +1,15 @@
+package org.tymi.ospflooding.backend.graph;
+
+/**
+ * @param facility     index of the assigned facility, -1 if none is reachable
+ * @param floodPenalty number of flooded edges on the way
+ * @param length       metres
+ * @param edges        edge indices from the origin to the facility, null unless paths were requested
+ */
+public record Assignment(int facility, double floodPenalty, double length, int[] edges) {
+     public static final Assignment UNASSIGNED = new Assignment(-1, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, null);
+
+     public boolean isAssigned() {
+          return facility != -1;
+     }
+}
@@ -0,0 +1,209 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Metric-independent part of a customizable contraction hierarchy. Nodes are contracted in
+ * {@link NestedDissection} order on the undirected road topology; the result is a chordal graph whose
+ * arcs always point from a lower to a higher rank. Building it is the expensive step and only depends
+ * on the road network, the flood-dependent weights are applied later by {@link HierarchyMetric}.
+ * <p>
+ * Internally nodes are addressed by rank.
+ */
+public final class ContractionHierarchy {
+     private final RoadGraph graph;
+     private final int[] rankOfNode;
+     private final int[] nodeOfRank;
+     private final int[] arcOffsets;
+     private final int[] arcTails;
+     private final int[] arcHeads;
+     private final int[] parents;
+     private final int[] inputArcs;
+
+     private ContractionHierarchy(RoadGraph graph, int[] rankOfNode, int[] nodeOfRank, int[] arcOffsets,
+                                  int[] arcTails, int[] arcHeads, int[] parents, int[] inputArcs) {
+          this.graph = graph;
+          this.rankOfNode = rankOfNode;
+          this.nodeOfRank = nodeOfRank;
+          this.arcOffsets = arcOffsets;
+          this.arcTails = arcTails;
+          this.arcHeads = arcHeads;
+          this.parents = parents;
+          this.inputArcs = inputArcs;
+     }
+
+     public static ContractionHierarchy build(RoadGraph graph) {
+          return build(graph, NestedDissection.order(graph));
+     }
+
+     /**
+      * @param rankOfNode contraction order, a permutation of {@code 0..nodeCount-1}
+      */
+     public static ContractionHierarchy build(RoadGraph graph, int[] rankOfNode) {
+          int n = graph.nodeCount();
+          int[] nodeOfRank = new int[n];
+          for (int v = 0; v < n; v++) nodeOfRank[rankOfNode[v]] = v;
+
+          // upward neighbours of every rank, sorted and without duplicates
+          int[][] upward = new int[n][];
+          int[] buffer = new int[16];
+          for (int r = 0; r < n; r++) {
+               int v = nodeOfRank[r];
+               int count = 0;
+               for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    int other = rankOfNode[graph.target(e)];
+                    if (other > r) {
+                         if (count == buffer.length) buffer = Arrays.copyOf(buffer, count * 2);
+                         buffer[count++] = other;
+                    }
+               }
+               for (int slot = graph.firstIncoming(v); slot < graph.endIncoming(v); slot++) {
+                    int other = rankOfNode[graph.source(graph.incomingEdge(slot))];
+                    if (other > r) {
+                         if (count == buffer.length) buffer = Arrays.copyOf(buffer, count * 2);
+                         buffer[count++] = other;
+                    }
+               }
+               upward[r] = distinctSorted(buffer, count);
+          }
+
+          // contracting r connects all of its upward neighbours; passing them on to the lowest one
+          // is enough, it forwards them when it is contracted in turn
+          int[] parents = new int[n];
+          for (int r = 0; r < n; r++) {
+               int[] up = upward[r];
+               if (up.length == 0) {
+                    parents[r] = -1;
+                    continue;
+               }
+               int parent = up[0];
+               parents[r] = parent;
+               if (up.length > 1) upward[parent] = mergeSorted(upward[parent], up, 1);
+          }
+
+          int[] arcOffsets = new int[n + 1];
+          for (int r = 0; r < n; r++) arcOffsets[r + 1] = arcOffsets[r] + upward[r].length;
+          int[] arcTails = new int[arcOffsets[n]];
+          int[] arcHeads = new int[arcOffsets[n]];
+          for (int r = 0; r < n; r++) {
+               System.arraycopy(upward[r], 0, arcHeads, arcOffsets[r], upward[r].length);
+               Arrays.fill(arcTails, arcOffsets[r], arcOffsets[r + 1], r);
+               upward[r] = null;
+          }
+
+          ContractionHierarchy hierarchy = new ContractionHierarchy(graph, rankOfNode, nodeOfRank, arcOffsets,
+                  arcTails, arcHeads, parents, new int[graph.edgeCount()]);
+          for (int e = 0; e < graph.edgeCount(); e++) {
+               int from = rankOfNode[graph.source(e)];
+               int to = rankOfNode[graph.target(e)];
+               if (from == to) {
+                    hierarchy.inputArcs[e] = -1;
+               } else if (from < to) {
+                    hierarchy.inputArcs[e] = hierarchy.arc(from, to) << 1;
+               } else {
+                    hierarchy.inputArcs[e] = (hierarchy.arc(to, from) << 1) | 1;
+               }
+          }
+          return hierarchy;
+     }
+
+     void writeTo(GraphSnapshotFile.Output out) throws IOException {
+          out.putInts(rankOfNode);
+          out.putInts(nodeOfRank);
+          out.putInts(arcOffsets);
+          out.putInts(arcTails);
+          out.putInts(arcHeads);
+          out.putInts(parents);
+          out.putInts(inputArcs);
+     }
+
+     static ContractionHierarchy readFrom(RoadGraph graph, GraphSnapshotFile.Input in) {
+          return new ContractionHierarchy(graph, in.getInts(), in.getInts(), in.getInts(), in.getInts(), in.getInts(),
+                  in.getInts(), in.getInts());
+     }
+
+     public RoadGraph graph() {
+          return graph;
+     }
+
+     public int nodeCount() {
+          return nodeOfRank.length;
+     }
+
+     public int arcCount() {
+          return arcHeads.length;
+     }
+
+     public int rank(int node) {
+          return rankOfNode[node];
+     }
+
+     public int node(int rank) {
+          return nodeOfRank[rank];
+     }
+
+     int firstArc(int rank) {
+          return arcOffsets[rank];
+     }
+
+     int endArc(int rank) {
+          return arcOffsets[rank + 1];
+     }
+
+     int tail(int arc) {
+          return arcTails[arc];
+     }
+
+     int head(int arc) {
+          return arcHeads[arc];
+     }
+
+     /**
+      * @return lowest upward neighbour, which is the parent in the elimination tree, or -1 for a root
+      */
+     int parent(int rank) {
+          return parents[rank];
+     }
+
+     /**
+      * @return {@code arc << 1} if the road edge runs upward along the arc, {@code arc << 1 | 1} if it
+      * runs downward, -1 for a loop
+      */
+     int inputArc(int edge) {
+          return inputArcs[edge];
+     }
+
+     /**
+      * @return arc between two ranks with {@code lower < higher}, or -1 if there is none
+      */
+     int arc(int lower, int higher) {
+          int index = Arrays.binarySearch(arcHeads, arcOffsets[lower], arcOffsets[lower + 1], higher);
+          return index >= 0 ? index : -1;
+     }
+
+     private static int[] distinctSorted(int[] values, int count) {
+          int[] sorted = Arrays.copyOf(values, count);
+          Arrays.sort(sorted);
+          int unique = 0;
+          for (int i = 0; i < sorted.length; i++) {
+               if (i == 0 || sorted[i] != sorted[i - 1]) sorted[unique++] = sorted[i];
+          }
+          return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+     }
+
+     private static int[] mergeSorted(int[] a, int[] b, int bFrom) {
+          int[] merged = new int[a.length + b.length - bFrom];
+          int i = 0, j = bFrom, count = 0;
+          while (i < a.length || j < b.length) {
+               int next;
+               if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                    next = a[i++];
+               } else {
+                    next = b[j++];
+               }
+               if (count == 0 || merged[count - 1] != next) merged[count++] = next;
+          }
+          return count == merged.length ? merged : Arrays.copyOf(merged, count);
+     }
+}
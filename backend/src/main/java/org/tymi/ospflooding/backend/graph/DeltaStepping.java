@@ -0,0 +1,125 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel single-source shortest path lengths by delta-stepping. Nodes are kept in buckets of width
+ * {@code delta}; all nodes of the lowest non-empty bucket are relaxed in parallel, and the bucket is
+ * repeated until relaxing it adds nothing new to it. Tentative lengths are doubles stored as bits in an
+ * {@link AtomicLongArray} and only ever lowered with compare-and-set, so concurrent relaxations of the
+ * same node cannot lose the smaller value.
+ * <p>
+ * Only edges without a flood penalty are used, so the search is one-dimensional and needs no
+ * lexicographic order.
+ */
+final class DeltaStepping {
+     private static final int PARALLEL_FRONTIER = 256;
+
+     private DeltaStepping() {}
+
+     /**
+      * @return length of the shortest dry path to every node, infinite if it is unreachable within
+      * {@code maxLength}
+      */
+     static double[] lengths(RoadGraph graph, EdgePenalty penalty, Anchors sources, double maxLength, double delta) {
+          int n = graph.nodeCount();
+          AtomicLongArray tentative = new AtomicLongArray(n);
+          long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+          for (int v = 0; v < n; v++) tentative.set(v, infinity);
+
+          int bucketCount = (int) (maxLength / delta) + 1;
+          IntList[] buckets = new IntList[bucketCount];
+          for (int i = 0; i < bucketCount; i++) buckets[i] = new IntList();
+
+          for (int i = 0; i < sources.count(); i++) {
+               if (sources.penalty(i) > 0 || sources.length(i) > maxLength) continue;
+               if (lower(tentative, sources.node(i), sources.length(i))) {
+                    buckets[(int) (sources.length(i) / delta)].add(sources.node(i));
+               }
+          }
+
+          int[] stamps = new int[n];
+          int phase = 0;
+          for (int bucket = 0; bucket < bucketCount; bucket++) {
+               IntList current = buckets[bucket];
+               while (!current.isEmpty()) {
+                    // drop duplicates and nodes that have since moved to a lower bucket
+                    phase++;
+                    int[] frontier = new int[current.size()];
+                    int size = 0;
+                    for (int i = 0; i < current.size(); i++) {
+                         int v = current.get(i);
+                         if (stamps[v] == phase) continue;
+                         if ((int) (Double.longBitsToDouble(tentative.get(v)) / delta) != bucket) continue;
+                         stamps[v] = phase;
+                         frontier[size++] = v;
+                    }
+                    current.clear();
+
+                    IntStream nodes = Arrays.stream(frontier, 0, size);
+                    if (size >= PARALLEL_FRONTIER) nodes = nodes.parallel();
+                    int[] improved = nodes.flatMap(u -> relax(graph, penalty, tentative, u, maxLength)).toArray();
+
+                    for (int v : improved) {
+                         int target = (int) (Double.longBitsToDouble(tentative.get(v)) / delta);
+                         buckets[Math.max(target, bucket)].add(v);
+                    }
+               }
+               buckets[bucket] = null;
+          }
+
+          double[] lengths = new double[n];
+          for (int v = 0; v < n; v++) lengths[v] = Double.longBitsToDouble(tentative.get(v));
+          return lengths;
+     }
+
+     private static IntStream relax(RoadGraph graph, EdgePenalty penalty, AtomicLongArray tentative, int u, double maxLength) {
+          double length = Double.longBitsToDouble(tentative.get(u));
+          IntStream.Builder improved = IntStream.builder();
+          for (int edge = graph.firstEdge(u); edge < graph.endEdge(u); edge++) {
+               if (penalty.penalty(edge) > 0) continue;
+               double candidate = length + graph.length(edge);
+               if (candidate > maxLength) continue;
+               int v = graph.target(edge);
+               if (lower(tentative, v, candidate)) improved.add(v);
+          }
+          return improved.build();
+     }
+
+     private static boolean lower(AtomicLongArray tentative, int node, double length) {
+          long bits = tentative.get(node);
+          while (length < Double.longBitsToDouble(bits)) {
+               if (tentative.compareAndSet(node, bits, Double.doubleToLongBits(length))) return true;
+               bits = tentative.get(node);
+          }
+          return false;
+     }
+
+     private static final class IntList {
+          private int[] values = new int[16];
+          private int size;
+
+          void add(int value) {
+               if (size == values.length) values = Arrays.copyOf(values, size * 2);
+               values[size++] = value;
+          }
+
+          int get(int i) {
+               return values[i];
+          }
+
+          int size() {
+               return size;
+          }
+
+          boolean isEmpty() {
+               return size == 0;
+          }
+
+          void clear() {
+               size = 0;
+          }
+     }
+}
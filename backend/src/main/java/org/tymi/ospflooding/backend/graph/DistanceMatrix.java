@@ -0,0 +1,130 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Origin-destination table of lexicographic {@code (floodPenalty, length)} weights, stored row-major in
+ * two flat arrays. Rows are computed by independent one-to-many searches in parallel; each search stops
+ * as soon as every destination is settled.
+ */
+public final class DistanceMatrix {
+     private final int rows;
+     private final int columns;
+     private final double[] penalties;
+     private final double[] lengths;
+
+     private DistanceMatrix(int rows, int columns) {
+          this.rows = rows;
+          this.columns = columns;
+          this.penalties = new double[rows * columns];
+          this.lengths = new double[rows * columns];
+          Arrays.fill(penalties, Double.POSITIVE_INFINITY);
+          Arrays.fill(lengths, Double.POSITIVE_INFINITY);
+     }
+
+     /**
+      * Runs on the common fork-join pool, one row per task, with workspaces taken from the pool.
+      */
+     public static DistanceMatrix compute(RoadGraph graph, EdgePenalty penalty, SearchWorkspacePool workspaces,
+                                          SnapResult[] origins, SnapResult[] destinations) {
+          DistanceMatrix matrix = new DistanceMatrix(origins.length, destinations.length);
+          if (graph.isEmpty() || destinations.length == 0) return matrix;
+
+          Anchors[] arriving = new Anchors[destinations.length];
+          boolean[] destinationNode = new boolean[graph.nodeCount()];
+          int destinationNodes = 0;
+          for (int j = 0; j < destinations.length; j++) {
+               arriving[j] = Anchors.arriving(graph, penalty, destinations[j]);
+               for (int i = 0; i < arriving[j].count(); i++) {
+                    int node = arriving[j].node(i);
+                    if (!destinationNode[node]) {
+                         destinationNode[node] = true;
+                         destinationNodes++;
+                    }
+               }
+          }
+          int pending = destinationNodes;
+
+          IntStream.range(0, origins.length).parallel().forEach(row -> {
+               SearchWorkspace workspace = workspaces.acquire(graph);
+               try {
+                    matrix.fillRow(graph, penalty, workspace, row, origins[row], destinations, arriving, destinationNode, pending);
+               } finally {
+                    workspaces.release(workspace);
+               }
+          });
+          return matrix;
+     }
+
+     private void fillRow(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace, int row, SnapResult origin,
+                          SnapResult[] destinations, Anchors[] arriving, boolean[] destinationNode, int pending) {
+          Anchors departing = Anchors.departing(graph, penalty, origin);
+          for (int i = 0; i < departing.count(); i++) {
+               workspace.relax(departing.node(i), departing.penalty(i), departing.length(i), -1);
+          }
+
+          while (pending > 0 && workspace.hasQueued()) {
+               int current = workspace.settleNext();
+               if (destinationNode[current]) pending--;
+
+               double currentPenalty = workspace.penalty(current);
+               double currentLength = workspace.length(current);
+               for (int edge = graph.firstEdge(current); edge < graph.endEdge(current); edge++) {
+                    int to = graph.target(edge);
+                    if (workspace.isSettled(to)) continue;
+                    workspace.relax(to, currentPenalty + penalty.penalty(edge), currentLength + graph.length(edge), edge);
+               }
+          }
+
+          int base = row * columns;
+          for (int j = 0; j < destinations.length; j++) {
+               double bestPenalty = Double.POSITIVE_INFINITY;
+               double bestLength = Double.POSITIVE_INFINITY;
+               Anchors anchors = arriving[j];
+               for (int i = 0; i < anchors.count(); i++) {
+                    int node = anchors.node(i);
+                    if (!workspace.isReached(node)) continue;
+                    double p = workspace.penalty(node) + anchors.penalty(i);
+                    double l = workspace.length(node) + anchors.length(i);
+                    if (ShortestPathSearch.less(p, l, bestPenalty, bestLength)) {
+                         bestPenalty = p;
+                         bestLength = l;
+                    }
+               }
+               SearchResult direct = Anchors.direct(graph, penalty, origin, destinations[j]);
+               if (direct != null && ShortestPathSearch.less(direct.floodPenalty(), direct.length(), bestPenalty, bestLength)) {
+                    bestPenalty = direct.floodPenalty();
+                    bestLength = direct.length();
+               }
+               penalties[base + j] = bestPenalty;
+               lengths[base + j] = bestLength;
+          }
+     }
+
+     public int rows() {
+          return rows;
+     }
+
+     public int columns() {
+          return columns;
+     }
+
+     public boolean isReachable(int row, int column) {
+          return penalties[row * columns + column] != Double.POSITIVE_INFINITY;
+     }
+
+     /**
+      * @return number of flooded edges on the route, infinite if unreachable
+      */
+     public double floodPenalty(int row, int column) {
+          return penalties[row * columns + column];
+     }
+
+     /**
+      * @return metres, infinite if unreachable
+      */
+     public double length(int row, int column) {
+          return lengths[row * columns + column];
+     }
+}
@@ -0,0 +1,151 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodMaskDelta;
+
+import java.util.stream.IntStream;
+
+/**
+ * One flooded bit per edge of a {@link RoadGraph}, computed once per flood refresh so searches read a
+ * single bit per relaxation instead of probing the flood mask.
+ * <p>
+ * An edge is flooded if the segment passes within the snapping tolerance of a flooded sample, tested
+ * exactly against the samples around its bounding box, which also catches floods between the two ends of
+ * a long segment. As the test only looks at nearby samples, a change of the flood data can be applied by
+ * testing just the edges near the changed cells again.
+ */
+public final class EdgeFloodFlags implements EdgePenalty {
+     private static final double LAT_TOL = 0.000030;   // ~3m
+     private static final double LON_TOL = 0.000045;   // ~3m
+
+     private final RoadGraph graph;
+     private final FloodMask floodMask;
+     private final long[] bits;
+     private final int floodedCount;
+
+     private EdgeFloodFlags(RoadGraph graph, FloodMask floodMask, long[] bits) {
+          this.graph = graph;
+          this.floodMask = floodMask;
+          this.bits = bits;
+          int count = 0;
+          for (long word : bits) count += Long.bitCount(word);
+          this.floodedCount = count;
+     }
+
+     public static EdgeFloodFlags none(RoadGraph graph) {
+          return new EdgeFloodFlags(graph, FloodMask.empty(), new long[(graph.edgeCount() + 63) >>> 6]);
+     }
+
+     public static EdgeFloodFlags compute(RoadGraph graph, FloodMask floodMask) {
+          long[] bits = new long[(graph.edgeCount() + 63) >>> 6];
+          if (graph.isEmpty() || floodMask.isEmpty()) return new EdgeFloodFlags(graph, floodMask, bits);
+
+          // one task per 64-edge word, so no two threads ever write the same word
+          IntStream.range(0, bits.length).parallel().forEach(word -> {
+               long value = 0;
+               int end = Math.min(graph.edgeCount(), (word + 1) << 6);
+               for (int edge = word << 6; edge < end; edge++) {
+                    if (crossesFlood(graph, floodMask, edge)) value |= 1L << (edge & 63);
+               }
+               bits[word] = value;
+          });
+          return new EdgeFloodFlags(graph, floodMask, bits);
+     }
+
+     /**
+      * Applies a change of the flood data to these flags, which must have been computed from
+      * {@code delta.previous()}. Only the edges near a changed cell are tested again.
+      */
+     public EdgeFloodFlags update(SpatialIndex spatialIndex, FloodMaskDelta delta) {
+          if (delta.previous() != floodMask) throw new IllegalArgumentException("Flags were computed from another flood mask");
+          if (spatialIndex.graph() != graph) throw new IllegalArgumentException("Spatial index of another graph");
+
+          FloodMask mask = delta.current();
+          long[] updated = bits.clone();
+          long[] tested = new long[bits.length];
+          delta.forEachChanged((row, column) -> {
+               double lat = mask.latitude(row);
+               double lon = mask.longitude(column);
+               spatialIndex.forEachEdgeWithin(lat - LAT_TOL, lon - LON_TOL, lat + LAT_TOL, lon + LON_TOL, edge -> {
+                    long bit = 1L << (edge & 63);
+                    if ((tested[edge >>> 6] & bit) != 0) return;
+                    tested[edge >>> 6] |= bit;
+                    if (crossesFlood(graph, mask, edge)) {
+                         updated[edge >>> 6] |= bit;
+                    } else {
+                         updated[edge >>> 6] &= ~bit;
+                    }
+               });
+          });
+          return new EdgeFloodFlags(graph, mask, updated);
+     }
+
+     /**
+      * @return flood data the flags were computed from
+      */
+     public FloodMask floodMask() {
+          return floodMask;
+     }
+
+     public RoadGraph graph() {
+          return graph;
+     }
+
+     public boolean isFlooded(int edge) {
+          return (bits[edge >>> 6] & (1L << (edge & 63))) != 0;
+     }
+
+     public int floodedCount() {
+          return floodedCount;
+     }
+
+     /**
+      * @return true if every edge flooded in {@code previous} is flooded here as well, i.e. no road dried up
+      */
+     public boolean isSupersetOf(EdgeFloodFlags previous) {
+          if (previous.bits.length != bits.length) return false;
+          for (int i = 0; i < bits.length; i++) {
+               if ((previous.bits[i] & ~bits[i]) != 0) return false;
+          }
+          return true;
+     }
+
+     @Override
+     public double penalty(int edge) {
+          return isFlooded(edge) ? 1.0 : 0.0;
+     }
+
+     private static boolean crossesFlood(RoadGraph graph, FloodMask mask, int edge) {
+          double lat1 = graph.latitude(graph.source(edge));
+          double lon1 = graph.longitude(graph.source(edge));
+          double lat2 = graph.latitude(graph.target(edge));
+          double lon2 = graph.longitude(graph.target(edge));
+          return mask.anyFloodedWithin(Math.min(lat1, lat2) - LAT_TOL, Math.min(lon1, lon2) - LON_TOL,
+                  Math.max(lat1, lat2) + LAT_TOL, Math.max(lon1, lon2) + LON_TOL,
+                  (row, column) -> meetsTolerance(lat1, lon1, lat2, lon2, mask.latitude(row), mask.longitude(column)));
+     }
+
+     /**
+      * Clips the segment against the tolerance box around a sample, one axis at a time.
+      */
+     private static boolean meetsTolerance(double lat1, double lon1, double lat2, double lon2, double lat, double lon) {
+          double enter = 0, exit = 1;
+          double dLat = lat2 - lat1;
+          if (dLat == 0) {
+               if (Math.abs(lat1 - lat) > LAT_TOL) return false;
+          } else {
+               double a = (lat - LAT_TOL - lat1) / dLat, b = (lat + LAT_TOL - lat1) / dLat;
+               enter = Math.max(enter, Math.min(a, b));
+               exit = Math.min(exit, Math.max(a, b));
+          }
+          double dLon = lon2 - lon1;
+          if (dLon == 0) {
+               if (Math.abs(lon1 - lon) > LON_TOL) return false;
+          } else {
+               double a = (lon - LON_TOL - lon1) / dLon, b = (lon + LON_TOL - lon1) / dLon;
+               enter = Math.max(enter, Math.min(a, b));
+               exit = Math.min(exit, Math.max(a, b));
+          }
+          return enter <= exit;
+     }
+}
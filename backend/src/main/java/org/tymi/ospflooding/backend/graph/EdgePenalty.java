@@ -0,0 +1,12 @@
+package org.tymi.ospflooding.backend.graph;
+
+/**
+ * Flood penalty of traversing an edge, the first component of the lexicographic
+ * {@code (floodPenalty, length)} route weight.
+ */
+@FunctionalInterface
+public interface EdgePenalty {
+     EdgePenalty NONE = edge -> 0.0;
+
+     double penalty(int edge);
+}
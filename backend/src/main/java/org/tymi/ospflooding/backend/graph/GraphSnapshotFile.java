@@ -0,0 +1,209 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.tymi.ospflooding.backend.records.SegmentFingerprint;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file holding everything metric-independent about a road network: the graph, its contraction
+ * hierarchy and its spatial index. Loading it skips both the per-segment JSON parsing and the
+ * preprocessing, so a restart only has to apply the flood data.
+ * <p>
+ * The file is a header followed by little-endian arrays, each prefixed by its length and aligned to 8
+ * bytes, and is read through a memory mapping with bulk copies. The header holds the fingerprint of the
+ * road segments the network was built from, so a file left from another import is not mistaken for the
+ * current one. Any change to the layout must bump {@link #FORMAT_VERSION}; files of another version are
+ * rejected and rebuilt.
+ */
+public final class GraphSnapshotFile {
+     static final int FORMAT_VERSION = 2;
+     private static final long MAGIC = 0x4850_4152_4750_534FL; // "OSPGRAPH" read as little-endian
+     private static final long END = ~MAGIC;
+
+     public record Contents(RoadGraph graph, ContractionHierarchy hierarchy, SpatialIndex spatialIndex) {}
+
+     private GraphSnapshotFile() {}
+
+     /**
+      * Writes to a temporary file first and moves it into place, so readers never see a partial file.
+      *
+      * @param segments fingerprint of the road segments the network was built from
+      */
+     public static void write(Path path, RoadNetworkSnapshot snapshot, SegmentFingerprint segments) throws IOException {
+          Path parent = path.toAbsolutePath().getParent();
+          if (parent != null) Files.createDirectories(parent);
+          Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+          try (Output out = new Output(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                  StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+               out.putLong(MAGIC);
+               out.putInt(FORMAT_VERSION);
+               out.putLong(segments.count());
+               out.putInt(segments.maxId());
+               out.putLong(segments.checksum());
+               snapshot.graph().writeTo(out);
+               snapshot.hierarchy().writeTo(out);
+               snapshot.spatialIndex().writeTo(out);
+               out.putLong(END);
+          }
+          Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+     }
+
+     /**
+      * @param segments fingerprint of the road segments stored now
+      * @return null if the network was built from other road segments
+      */
+     public static Contents read(Path path, SegmentFingerprint segments) throws IOException {
+          try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+               if (channel.size() > Integer.MAX_VALUE) throw new IOException("Graph snapshot too large: " + path);
+               Input in = new Input(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+
+               if (in.getLong() != MAGIC) throw new IOException("Not a graph snapshot: " + path);
+               int version = in.getInt();
+               if (version != FORMAT_VERSION) {
+                    throw new IOException("Graph snapshot format " + version + " is not supported, expected " + FORMAT_VERSION);
+               }
+               SegmentFingerprint built = new SegmentFingerprint(in.getLong(), in.getInt(), in.getLong());
+               if (!built.equals(segments)) return null;
+
+               RoadGraph graph = RoadGraph.readFrom(in);
+               ContractionHierarchy hierarchy = ContractionHierarchy.readFrom(graph, in);
+               SpatialIndex spatialIndex = SpatialIndex.readFrom(graph, in);
+               if (in.getLong() != END) throw new IOException("Graph snapshot is corrupt: " + path);
+               return new Contents(graph, hierarchy, spatialIndex);
+          } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+               throw new IOException("Graph snapshot is truncated or corrupt: " + path, e);
+          }
+     }
+
+     static final class Output implements AutoCloseable {
+          private final FileChannel channel;
+          private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+          private Output(FileChannel channel) {
+               this.channel = channel;
+          }
+
+          void putInt(int value) throws IOException {
+               ensure(Integer.BYTES);
+               buffer.putInt(value);
+          }
+
+          void putLong(long value) throws IOException {
+               ensure(Long.BYTES);
+               buffer.putLong(value);
+          }
+
+          void putDouble(double value) throws IOException {
+               ensure(Double.BYTES);
+               buffer.putDouble(value);
+          }
+
+          void putInts(int[] values) throws IOException {
+               putInt(values.length);
+               align();
+               for (int i = 0; i < values.length; ) {
+                    ensure(Integer.BYTES);
+                    int count = Math.min(values.length - i, buffer.remaining() / Integer.BYTES);
+                    buffer.asIntBuffer().put(values, i, count);
+                    buffer.position(buffer.position() + count * Integer.BYTES);
+                    i += count;
+               }
+               align();
+          }
+
+          void putDoubles(double[] values) throws IOException {
+               putInt(values.length);
+               align();
+               for (int i = 0; i < values.length; ) {
+                    ensure(Double.BYTES);
+                    int count = Math.min(values.length - i, buffer.remaining() / Double.BYTES);
+                    buffer.asDoubleBuffer().put(values, i, count);
+                    buffer.position(buffer.position() + count * Double.BYTES);
+                    i += count;
+               }
+               align();
+          }
+
+          @Override
+          public void close() throws IOException {
+               try (channel) {
+                    flush();
+                    channel.force(false);
+               }
+          }
+
+          // the buffer is a multiple of 8 bytes, so its position is the file offset modulo 8
+          private void align() throws IOException {
+               while ((buffer.position() & 7) != 0) {
+                    ensure(1);
+                    buffer.put((byte) 0);
+               }
+          }
+
+          private void ensure(int bytes) throws IOException {
+               if (buffer.remaining() < bytes) flush();
+          }
+
+          private void flush() throws IOException {
+               buffer.flip();
+               while (buffer.hasRemaining()) channel.write(buffer);
+               buffer.clear();
+          }
+     }
+
+     static final class Input {
+          private final ByteBuffer buffer;
+
+          private Input(ByteBuffer buffer) {
+               this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+          }
+
+          int getInt() {
+               return buffer.getInt();
+          }
+
+          long getLong() {
+               return buffer.getLong();
+          }
+
+          double getDouble() {
+               return buffer.getDouble();
+          }
+
+          int[] getInts() {
+               int[] values = new int[length(Integer.BYTES)];
+               buffer.asIntBuffer().get(values);
+               buffer.position(buffer.position() + values.length * Integer.BYTES);
+               align();
+               return values;
+          }
+
+          double[] getDoubles() {
+               double[] values = new double[length(Double.BYTES)];
+               buffer.asDoubleBuffer().get(values);
+               buffer.position(buffer.position() + values.length * Double.BYTES);
+               align();
+               return values;
+          }
+
+          private int length(int elementBytes) {
+               int length = buffer.getInt();
+               align();
+               if (length < 0 || (long) length * elementBytes > buffer.remaining()) throw new BufferUnderflowException();
+               return length;
+          }
+
+          private void align() {
+               buffer.position((buffer.position() + 7) & ~7);
+          }
+     }
+}
@@ -0,0 +1,278 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+
+/**
+ * Flood-dependent weights of a {@link ContractionHierarchy}. Customization seeds every arc with the
+ * best road edge it stands for and then relaxes the lower triangles of each arc bottom-up, which is a
+ * linear pass over the hierarchy and cheap enough to repeat on every flood refresh.
+ * <p>
+ * Every arc {@code lower -> higher} carries an upward weight for travelling from the lower to the higher
+ * rank and a downward weight for the opposite direction, both lexicographic {@code (floodPenalty, length)}.
+ */
+public final class HierarchyMetric {
+     private final ContractionHierarchy hierarchy;
+     private final double[] upPenalties;
+     private final double[] upLengths;
+     private final double[] downPenalties;
+     private final double[] downLengths;
+     // road edge index if >= 0, otherwise -(middle rank + 1) of the shortcut
+     private final int[] upUnpack;
+     private final int[] downUnpack;
+
+     private HierarchyMetric(ContractionHierarchy hierarchy) {
+          int arcs = hierarchy.arcCount();
+          this.hierarchy = hierarchy;
+          this.upPenalties = new double[arcs];
+          this.upLengths = new double[arcs];
+          this.downPenalties = new double[arcs];
+          this.downLengths = new double[arcs];
+          this.upUnpack = new int[arcs];
+          this.downUnpack = new int[arcs];
+     }
+
+     public static HierarchyMetric customize(ContractionHierarchy hierarchy, EdgePenalty penalty) {
+          HierarchyMetric metric = new HierarchyMetric(hierarchy);
+          RoadGraph graph = hierarchy.graph();
+
+          Arrays.fill(metric.upPenalties, Double.POSITIVE_INFINITY);
+          Arrays.fill(metric.upLengths, Double.POSITIVE_INFINITY);
+          Arrays.fill(metric.downPenalties, Double.POSITIVE_INFINITY);
+          Arrays.fill(metric.downLengths, Double.POSITIVE_INFINITY);
+          Arrays.fill(metric.upUnpack, -1);
+          Arrays.fill(metric.downUnpack, -1);
+
+          for (int e = 0; e < graph.edgeCount(); e++) {
+               int input = hierarchy.inputArc(e);
+               if (input == -1) continue;
+               int arc = input >>> 1;
+               double p = penalty.penalty(e);
+               double l = graph.length(e);
+               if ((input & 1) == 0) {
+                    if (less(p, l, metric.upPenalties[arc], metric.upLengths[arc])) {
+                         metric.upPenalties[arc] = p;
+                         metric.upLengths[arc] = l;
+                         metric.upUnpack[arc] = e;
+                    }
+               } else if (less(p, l, metric.downPenalties[arc], metric.downLengths[arc])) {
+                    metric.downPenalties[arc] = p;
+                    metric.downLengths[arc] = l;
+                    metric.downUnpack[arc] = e;
+               }
+          }
+
+          // arcs leaving w are final once every lower triangle below w has been relaxed
+          for (int w = 0; w < hierarchy.nodeCount(); w++) {
+               int first = hierarchy.firstArc(w);
+               int end = hierarchy.endArc(w);
+               for (int i = first; i < end; i++) {
+                    int u = hierarchy.head(i);
+                    // the upward neighbours of w above u are a subset of u's, both lists are sorted
+                    int arc = hierarchy.firstArc(u);
+                    for (int j = i + 1; j < end; j++) {
+                         int v = hierarchy.head(j);
+                         while (hierarchy.head(arc) != v) arc++;
+
+                         // u -> w -> v
+                         double p = metric.downPenalties[i] + metric.upPenalties[j];
+                         double l = metric.downLengths[i] + metric.upLengths[j];
+                         if (less(p, l, metric.upPenalties[arc], metric.upLengths[arc])) {
+                              metric.upPenalties[arc] = p;
+                              metric.upLengths[arc] = l;
+                              metric.upUnpack[arc] = -(w + 1);
+                         }
+
+                         // v -> w -> u
+                         p = metric.downPenalties[j] + metric.upPenalties[i];
+                         l = metric.downLengths[j] + metric.upLengths[i];
+                         if (less(p, l, metric.downPenalties[arc], metric.downLengths[arc])) {
+                              metric.downPenalties[arc] = p;
+                              metric.downLengths[arc] = l;
+                              metric.downUnpack[arc] = -(w + 1);
+                         }
+                    }
+               }
+          }
+          return metric;
+     }
+
+     public ContractionHierarchy hierarchy() {
+          return hierarchy;
+     }
+
+     /**
+      * Elimination tree query: every node an upward search can reach is an ancestor of its origin, so
+      * both searches simply walk their ancestor chains without a priority queue.
+      *
+      * @param forward  workspace sized for the hierarchy, indexed by rank
+      * @param backward workspace sized for the hierarchy, indexed by rank
+      */
+     public SearchResult query(SearchWorkspace forward, SearchWorkspace backward, int sourceNode, int targetNode) {
+          return query(forward, backward, Anchors.atNode(sourceNode), Anchors.atNode(targetNode), null);
+     }
+
+     public SearchResult query(SearchWorkspace forward, SearchWorkspace backward, EdgePenalty penalty,
+                               SnapResult source, SnapResult target) {
+          RoadGraph graph = hierarchy.graph();
+          return query(forward, backward, Anchors.departing(graph, penalty, source), Anchors.arriving(graph, penalty, target),
+                  Anchors.direct(graph, penalty, source, target));
+     }
+
+     private SearchResult query(SearchWorkspace forward, SearchWorkspace backward, Anchors sources, Anchors targets,
+                                SearchResult direct) {
+          int visited = 0;
+
+          int[] chains = seed(forward, sources);
+          for (int r = next(chains); r != -1; r = next(chains)) {
+               visited++;
+               if (!forward.isReached(r)) continue;
+               double p = forward.penalty(r);
+               double l = forward.length(r);
+               for (int arc = hierarchy.firstArc(r); arc < hierarchy.endArc(r); arc++) {
+                    forward.record(hierarchy.head(arc), p + upPenalties[arc], l + upLengths[arc], arc);
+               }
+          }
+
+          double bestPenalty = direct != null ? direct.floodPenalty() : Double.POSITIVE_INFINITY;
+          double bestLength = direct != null ? direct.length() : Double.POSITIVE_INFINITY;
+          int meeting = -1;
+
+          chains = seed(backward, targets);
+          for (int r = next(chains); r != -1; r = next(chains)) {
+               visited++;
+               if (!backward.isReached(r)) continue;
+               double p = backward.penalty(r);
+               double l = backward.length(r);
+
+               if (forward.isReached(r)) {
+                    double mp = p + forward.penalty(r);
+                    double ml = l + forward.length(r);
+                    if (less(mp, ml, bestPenalty, bestLength)) {
+                         bestPenalty = mp;
+                         bestLength = ml;
+                         meeting = r;
+                    }
+               }
+
+               for (int arc = hierarchy.firstArc(r); arc < hierarchy.endArc(r); arc++) {
+                    backward.record(hierarchy.head(arc), p + downPenalties[arc], l + downLengths[arc], arc);
+               }
+          }
+
+          if (meeting == -1) {
+               return direct != null ? new SearchResult(direct.edges(), bestPenalty, bestLength, visited)
+                       : SearchResult.unreachable(visited);
+          }
+          if (bestPenalty == Double.POSITIVE_INFINITY) return SearchResult.unreachable(visited);
+
+          EdgeList edges = new EdgeList();
+          int[] upArcs = chain(forward, meeting);
+          int origin = upArcs.length == 0 ? meeting : hierarchy.tail(upArcs[upArcs.length - 1]);
+          int firstEdge = sources.edgeAt(hierarchy.node(origin));
+          if (firstEdge != -1) edges.add(firstEdge);
+          for (int i = upArcs.length - 1; i >= 0; i--) unpack(upArcs[i], true, edges);
+
+          int[] downArcs = chain(backward, meeting);
+          for (int arc : downArcs) unpack(arc, false, edges);
+          int end = downArcs.length == 0 ? meeting : hierarchy.tail(downArcs[downArcs.length - 1]);
+          int lastEdge = targets.edgeAt(hierarchy.node(end));
+          if (lastEdge != -1) edges.add(lastEdge);
+
+          return new SearchResult(edges.toArray(), bestPenalty, bestLength, visited);
+     }
+
+     /**
+      * Records the anchors as search origins.
+      *
+      * @return ranks the ancestor chains start from
+      */
+     private int[] seed(SearchWorkspace workspace, Anchors anchors) {
+          int[] chains = new int[anchors.count()];
+          for (int i = 0; i < anchors.count(); i++) {
+               chains[i] = hierarchy.rank(anchors.node(i));
+               workspace.record(chains[i], anchors.penalty(i), anchors.length(i), -1);
+          }
+          return chains;
+     }
+
+     /**
+      * Advances the ancestor chains of several origins together, visiting shared ancestors once and
+      * always in increasing rank order.
+      *
+      * @return next rank, or -1 once every chain has passed its root
+      */
+     private int next(int[] chains) {
+          int lowest = -1;
+          for (int r : chains) {
+               if (r != -1 && (lowest == -1 || r < lowest)) lowest = r;
+          }
+          if (lowest == -1) return -1;
+          for (int i = 0; i < chains.length; i++) {
+               if (chains[i] == lowest) chains[i] = hierarchy.parent(lowest);
+          }
+          return lowest;
+     }
+
+     /**
+      * @return arcs on the way from the search origin to the rank, last arc first
+      */
+     private int[] chain(SearchWorkspace workspace, int rank) {
+          int count = 0;
+          for (int r = rank, arc; (arc = workspace.prevEdge(r)) != -1; r = hierarchy.tail(arc)) count++;
+          int[] arcs = new int[count];
+          int i = 0;
+          for (int r = rank, arc; (arc = workspace.prevEdge(r)) != -1; r = hierarchy.tail(arc)) arcs[i++] = arc;
+          return arcs;
+     }
+
+     /**
+      * Expands an arc into road edges in travel order, {@code upward} meaning from its tail to its head.
+      */
+     private void unpack(int rootArc, boolean rootUpward, EdgeList out) {
+          int[] stack = new int[64];
+          int size = 0;
+          stack[size++] = rootArc << 1 | (rootUpward ? 0 : 1);
+
+          while (size > 0) {
+               int entry = stack[--size];
+               int arc = entry >>> 1;
+               boolean upward = (entry & 1) == 0;
+               int unpack = upward ? upUnpack[arc] : downUnpack[arc];
+               if (unpack >= 0) {
+                    out.add(unpack);
+                    continue;
+               }
+
+               int middle = -unpack - 1;
+               int lowArc = hierarchy.arc(middle, hierarchy.tail(arc));
+               int highArc = hierarchy.arc(middle, hierarchy.head(arc));
+               if (size + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+               // tail -> middle -> head, or head -> middle -> tail; pushed in reverse travel order
+               if (upward) {
+                    stack[size++] = highArc << 1;
+                    stack[size++] = lowArc << 1 | 1;
+               } else {
+                    stack[size++] = lowArc << 1;
+                    stack[size++] = highArc << 1 | 1;
+               }
+          }
+     }
+
+     private static boolean less(double p1, double l1, double p2, double l2) {
+          return p1 < p2 || (p1 == p2 && l1 < l2);
+     }
+
+     private static final class EdgeList {
+          private int[] edges = new int[64];
+          private int size;
+
+          void add(int edge) {
+               if (size == edges.length) edges = Arrays.copyOf(edges, size * 2);
+               edges[size++] = edge;
+          }
+
+          int[] toArray() {
+               return Arrays.copyOf(edges, size);
+          }
+     }
+}
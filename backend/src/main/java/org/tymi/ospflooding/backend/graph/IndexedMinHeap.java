@@ -0,0 +1,131 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over node indices with decrease-key, ordered lexicographically by
+ * {@code (primary, secondary)} - the same order as {@code (floodPenalty, length)}.
+ */
+public final class IndexedMinHeap {
+     private final int[] nodes;
+     private final double[] primary;
+     private final double[] secondary;
+     private final int[] positions;
+     private int size;
+
+     public IndexedMinHeap(int capacity) {
+          nodes = new int[capacity];
+          primary = new double[capacity];
+          secondary = new double[capacity];
+          positions = new int[capacity];
+          Arrays.fill(positions, -1);
+     }
+
+     public boolean isEmpty() {
+          return size == 0;
+     }
+
+     public int size() {
+          return size;
+     }
+
+     public boolean contains(int node) {
+          return positions[node] != -1;
+     }
+
+     public int peek() {
+          return nodes[0];
+     }
+
+     public double peekPrimary() {
+          return primary[0];
+     }
+
+     public double peekSecondary() {
+          return secondary[0];
+     }
+
+     /**
+      * Inserts the node, or lowers its key if it is already queued with a larger one.
+      */
+     public void push(int node, double primaryKey, double secondaryKey) {
+          int pos = positions[node];
+          if (pos == -1) {
+               pos = size++;
+               nodes[pos] = node;
+          } else if (!less(primaryKey, secondaryKey, primary[pos], secondary[pos])) {
+               return;
+          }
+          primary[pos] = primaryKey;
+          secondary[pos] = secondaryKey;
+          positions[node] = pos;
+          siftUp(pos);
+     }
+
+     public int poll() {
+          int top = nodes[0];
+          positions[top] = -1;
+          size--;
+          if (size > 0) {
+               move(size, 0);
+               siftDown(0);
+          }
+          return top;
+     }
+
+     /**
+      * Empties the heap in time proportional to the number of queued nodes.
+      */
+     public void clear() {
+          for (int i = 0; i < size; i++) positions[nodes[i]] = -1;
+          size = 0;
+     }
+
+     private void siftUp(int pos) {
+          int node = nodes[pos];
+          double p = primary[pos];
+          double s = secondary[pos];
+          while (pos > 0) {
+               int parent = (pos - 1) >>> 1;
+               if (!less(p, s, primary[parent], secondary[parent])) break;
+               move(parent, pos);
+               pos = parent;
+          }
+          nodes[pos] = node;
+          primary[pos] = p;
+          secondary[pos] = s;
+          positions[node] = pos;
+     }
+
+     private void siftDown(int pos) {
+          int node = nodes[pos];
+          double p = primary[pos];
+          double s = secondary[pos];
+          int half = size >>> 1;
+          while (pos < half) {
+               int child = 2 * pos + 1;
+               int right = child + 1;
+               if (right < size && less(primary[right], secondary[right], primary[child], secondary[child])) {
+                    child = right;
+               }
+               if (!less(primary[child], secondary[child], p, s)) break;
+               move(child, pos);
+               pos = child;
+          }
+          nodes[pos] = node;
+          primary[pos] = p;
+          secondary[pos] = s;
+          positions[node] = pos;
+     }
+
+     private void move(int from, int to) {
+          nodes[to] = nodes[from];
+          primary[to] = primary[from];
+          secondary[to] = secondary[from];
+          positions[nodes[to]] = to;
+     }
+
+     private static boolean less(double p1, double s1, double p2, double s2) {
+          return p1 < p2 || (p1 == p2 && s1 < s2);
+     }
+}
@@ -0,0 +1,230 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.tymi.ospflooding.backend.utilities.Algorithm.EarthRadiusMetres;
+
+/**
+ * Part of the road network reachable from a point within a distance limit without driving on a flooded
+ * road. The result is a set of edge pieces, {@code [from, to]} fractions along each edge, plus a
+ * polygon around them.
+ * <p>
+ * Small limits use a bounded Dijkstra that stops at the limit; large ones use parallel
+ * {@link DeltaStepping}.
+ */
+public final class Isochrone {
+     private static final int HULL_SECTORS = 72;
+
+     private final RoadGraph graph;
+     private final double originLat;
+     private final double originLon;
+     private final int[] edges;
+     private final double[] fromFractions;
+     private final double[] toFractions;
+     private final int reachedNodes;
+
+     private Isochrone(RoadGraph graph, double originLat, double originLon, int[] edges, double[] fromFractions,
+                       double[] toFractions, int reachedNodes) {
+          this.graph = graph;
+          this.originLat = originLat;
+          this.originLon = originLon;
+          this.edges = edges;
+          this.fromFractions = fromFractions;
+          this.toFractions = toFractions;
+          this.reachedNodes = reachedNodes;
+     }
+
+     /**
+      * Bounded Dijkstra over dry edges, stopping as soon as the queue minimum exceeds the limit.
+      */
+     public static Isochrone compute(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace,
+                                     SnapResult start, double maxLength) {
+          Anchors sources = Anchors.departing(graph, penalty, start);
+          for (int i = 0; i < sources.count(); i++) {
+               if (sources.penalty(i) == 0 && sources.length(i) <= maxLength) {
+                    workspace.relax(sources.node(i), 0.0, sources.length(i), -1);
+               }
+          }
+
+          int[] nodes = new int[64];
+          double[] lengths = new double[64];
+          int count = 0;
+          while (workspace.hasQueued() && workspace.peekKey() <= maxLength) {
+               int current = workspace.settleNext();
+               double currentLength = workspace.length(current);
+               if (count == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+               }
+               nodes[count] = current;
+               lengths[count++] = currentLength;
+
+               for (int edge = graph.firstEdge(current); edge < graph.endEdge(current); edge++) {
+                    if (penalty.penalty(edge) > 0) continue;
+                    int to = graph.target(edge);
+                    if (workspace.isSettled(to)) continue;
+                    workspace.relax(to, 0.0, currentLength + graph.length(edge), edge);
+               }
+          }
+          return collect(graph, penalty, start, sources, maxLength, nodes, lengths, count);
+     }
+
+     /**
+      * Same area computed with parallel delta-stepping, worthwhile once the limit covers a large part of
+      * the network.
+      *
+      * @param delta bucket width in metres
+      */
+     public static Isochrone computeParallel(RoadGraph graph, EdgePenalty penalty, SnapResult start,
+                                             double maxLength, double delta) {
+          Anchors sources = Anchors.departing(graph, penalty, start);
+          double[] all = DeltaStepping.lengths(graph, penalty, sources, maxLength, delta);
+
+          int count = 0;
+          for (double length : all) {
+               if (length <= maxLength) count++;
+          }
+          int[] nodes = new int[count];
+          double[] lengths = new double[count];
+          count = 0;
+          for (int v = 0; v < all.length; v++) {
+               if (all[v] > maxLength) continue;
+               nodes[count] = v;
+               lengths[count++] = all[v];
+          }
+          return collect(graph, penalty, start, sources, maxLength, nodes, lengths, count);
+     }
+
+     private static Isochrone collect(RoadGraph graph, EdgePenalty penalty, SnapResult start, Anchors sources,
+                                      double maxLength, int[] nodes, double[] lengths, int count) {
+          EdgePieces pieces = new EdgePieces();
+
+          // the snapped edge itself, from the start point on
+          for (int i = 0; i < sources.count(); i++) {
+               int edge = sources.edge(i);
+               if (edge == -1 || sources.penalty(i) > 0) continue;
+               double position = edge == start.edge() ? start.fraction() : 1.0 - start.fraction();
+               double length = graph.length(edge);
+               double reach = length > 0 ? maxLength / length : 1.0;
+               pieces.add(edge, position, Math.min(1.0, position + reach));
+          }
+
+          for (int i = 0; i < count; i++) {
+               int node = nodes[i];
+               double left = maxLength - lengths[i];
+               for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                    if (penalty.penalty(edge) > 0) continue;
+                    double length = graph.length(edge);
+                    double reach = length > 0 ? left / length : 1.0;
+                    if (reach > 0) pieces.add(edge, 0.0, Math.min(1.0, reach));
+               }
+          }
+
+          return new Isochrone(graph, start.latitude(), start.longitude(), pieces.edges(), pieces.from(), pieces.to(), count);
+     }
+
+     public int pieceCount() {
+          return edges.length;
+     }
+
+     public int edge(int piece) {
+          return edges[piece];
+     }
+
+     public double fromFraction(int piece) {
+          return fromFractions[piece];
+     }
+
+     public double toFraction(int piece) {
+          return toFractions[piece];
+     }
+
+     public int reachedNodes() {
+          return reachedNodes;
+     }
+
+     /**
+      * @return {@code [lat, lon]} of the piece's start and end
+      */
+     public double[][] piece(int piece) {
+          return new double[][]{point(edges[piece], fromFractions[piece]), point(edges[piece], toFractions[piece])};
+     }
+
+     /**
+      * Concave outline of the reachable area: the farthest reachable point in each of a fixed number
+      * of angular sectors around the start, joined in angular order. The polygon is star-shaped as
+      * seen from the start, so it follows inlets that a convex hull would cover.
+      *
+      * @return closed ring of {@code [lat, lon]}, empty if fewer than three sectors are reached
+      */
+     public List<double[]> hull() {
+          double lonScale = Math.cos(Math.toRadians(originLat));
+          double[] farthest = new double[HULL_SECTORS];
+          double[][] points = new double[HULL_SECTORS][];
+          Arrays.fill(farthest, -1.0);
+
+          for (int piece = 0; piece < edges.length; piece++) {
+               double[] end = point(edges[piece], toFractions[piece]);
+               double dx = Math.toRadians(end[1] - originLon) * EarthRadiusMetres * lonScale;
+               double dy = Math.toRadians(end[0] - originLat) * EarthRadiusMetres;
+               double distance = Math.hypot(dx, dy);
+               if (distance == 0) continue;
+
+               double angle = Math.atan2(dy, dx) + Math.PI;
+               int sector = Math.min(HULL_SECTORS - 1, (int) (angle / (2 * Math.PI) * HULL_SECTORS));
+               if (distance > farthest[sector]) {
+                    farthest[sector] = distance;
+                    points[sector] = end;
+               }
+          }
+
+          List<double[]> ring = new ArrayList<>();
+          for (double[] point : points) {
+               if (point != null) ring.add(point);
+          }
+          if (ring.size() < 3) return List.of();
+          ring.add(ring.getFirst());
+          return ring;
+     }
+
+     private double[] point(int edge, double fraction) {
+          int from = graph.source(edge);
+          int to = graph.target(edge);
+          return new double[]{
+                  graph.latitude(from) + (graph.latitude(to) - graph.latitude(from)) * fraction,
+                  graph.longitude(from) + (graph.longitude(to) - graph.longitude(from)) * fraction
+          };
+     }
+
+     private static final class EdgePieces {
+          private int[] edges = new int[64];
+          private double[] from = new double[64];
+          private double[] to = new double[64];
+          private int size;
+
+          void add(int edge, double fromFraction, double toFraction) {
+               if (size == edges.length) {
+                    edges = Arrays.copyOf(edges, size * 2);
+                    from = Arrays.copyOf(from, size * 2);
+                    to = Arrays.copyOf(to, size * 2);
+               }
+               edges[size] = edge;
+               from[size] = fromFraction;
+               to[size++] = toFraction;
+          }
+
+          int[] edges() {
+               return Arrays.copyOf(edges, size);
+          }
+
+          double[] from() {
+               return Arrays.copyOf(from, size);
+          }
+
+          double[] to() {
+               return Arrays.copyOf(to, size);
+          }
+     }
+}
@@ -0,0 +1,128 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns many origins to their nearest facility (shelter) with one reverse Dijkstra seeded from every
+ * facility at once. Each node inherits the facility its label came from, so once all origins are
+ * settled the whole batch is answered, however many origins and facilities there are.
+ */
+public final class NearestFacilitySearch {
+     private NearestFacilitySearch() {}
+
+     /**
+      * @param workspace sized for the graph, used for the backward search
+      * @param paths     whether to reconstruct the edges of every assignment
+      */
+     public static Assignment[] assign(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace,
+                                       SnapResult[] facilities, SnapResult[] origins, boolean paths) {
+          Assignment[] result = new Assignment[origins.length];
+          if (facilities.length == 0 || graph.isEmpty()) {
+               Arrays.fill(result, Assignment.UNASSIGNED);
+               return result;
+          }
+
+          int[] facilityOf = new int[graph.nodeCount()];
+          Anchors[] arriving = new Anchors[facilities.length];
+          Map<Integer, int[]> facilitiesByEdge = new HashMap<>();
+          for (int f = 0; f < facilities.length; f++) {
+               arriving[f] = Anchors.arriving(graph, penalty, facilities[f]);
+               for (int i = 0; i < arriving[f].count(); i++) {
+                    int node = arriving[f].node(i);
+                    if (workspace.relax(node, arriving[f].penalty(i), arriving[f].length(i), -1)) facilityOf[node] = f;
+               }
+               facilitiesByEdge.merge(facilities[f].edge(), new int[]{f}, NearestFacilitySearch::concat);
+          }
+
+          // every departure node of every origin must be settled before the batch is answered
+          Anchors[] departing = new Anchors[origins.length];
+          boolean[] pending = new boolean[graph.nodeCount()];
+          int pendingCount = 0;
+          for (int o = 0; o < origins.length; o++) {
+               departing[o] = Anchors.departing(graph, penalty, origins[o]);
+               for (int i = 0; i < departing[o].count(); i++) {
+                    int node = departing[o].node(i);
+                    if (!pending[node]) {
+                         pending[node] = true;
+                         pendingCount++;
+                    }
+               }
+          }
+
+          while (pendingCount > 0 && workspace.hasQueued()) {
+               int current = workspace.settleNext();
+               if (pending[current]) pendingCount--;
+
+               double currentPenalty = workspace.penalty(current);
+               double currentLength = workspace.length(current);
+               for (int slot = graph.firstIncoming(current); slot < graph.endIncoming(current); slot++) {
+                    int edge = graph.incomingEdge(slot);
+                    int from = graph.source(edge);
+                    if (workspace.isSettled(from)) continue;
+                    if (workspace.relax(from, currentPenalty + penalty.penalty(edge), currentLength + graph.length(edge), edge)) {
+                         facilityOf[from] = facilityOf[current];
+                    }
+               }
+          }
+
+          for (int o = 0; o < origins.length; o++) {
+               Anchors anchors = departing[o];
+               double bestPenalty = Double.POSITIVE_INFINITY;
+               double bestLength = Double.POSITIVE_INFINITY;
+               int bestNode = -1;
+               int bestFacility = -1;
+               int[] direct = null;
+
+               for (int i = 0; i < anchors.count(); i++) {
+                    int node = anchors.node(i);
+                    if (!workspace.isReached(node)) continue;
+                    double p = anchors.penalty(i) + workspace.penalty(node);
+                    double l = anchors.length(i) + workspace.length(node);
+                    if (ShortestPathSearch.less(p, l, bestPenalty, bestLength)) {
+                         bestPenalty = p;
+                         bestLength = l;
+                         bestNode = node;
+                         bestFacility = facilityOf[node];
+                    }
+               }
+
+               // a facility further along the same road is reached without passing any node
+               int[] sameEdge = facilitiesByEdge.get(origins[o].edge());
+               if (sameEdge != null) {
+                    for (int f : sameEdge) {
+                         SearchResult route = Anchors.direct(graph, penalty, origins[o], facilities[f]);
+                         if (route != null && ShortestPathSearch.less(route.floodPenalty(), route.length(), bestPenalty, bestLength)) {
+                              bestPenalty = route.floodPenalty();
+                              bestLength = route.length();
+                              bestFacility = f;
+                              direct = route.edges();
+                         }
+                    }
+               }
+
+               if (bestFacility == -1) {
+                    result[o] = Assignment.UNASSIGNED;
+                    continue;
+               }
+
+               int[] edges = null;
+               if (paths && direct != null) {
+                    edges = direct;
+               } else if (paths) {
+                    int[] tail = ShortestPathSearch.pathFrom(graph, workspace, bestNode);
+                    int end = tail.length == 0 ? bestNode : graph.target(tail[tail.length - 1]);
+                    edges = Anchors.join(anchors.edgeAt(bestNode), new int[0], tail, arriving[bestFacility].edgeAt(end));
+               }
+               result[o] = new Assignment(bestFacility, bestPenalty, bestLength, edges);
+          }
+          return result;
+     }
+
+     private static int[] concat(int[] a, int[] b) {
+          int[] joined = Arrays.copyOf(a, a.length + b.length);
+          System.arraycopy(b, 0, joined, a.length, b.length);
+          return joined;
+     }
+}
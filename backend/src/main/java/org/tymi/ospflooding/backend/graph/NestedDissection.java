@@ -0,0 +1,120 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+
+/**
+ * Metric-independent contraction order from recursive coordinate bisection. Each part is cut at the
+ * median of its wider axis and the nodes on one side of the cut that touch the other side become a
+ * separator, ranked above both halves. Road networks are nearly planar, so the separators stay small
+ * and the contracted graph stays sparse whatever the edge weights are.
+ */
+public final class NestedDissection {
+     private static final int LEAF_SIZE = 8;
+
+     private final RoadGraph graph;
+     private final int[] rank;
+     private final int[] mark;
+     private int nextRank;
+     private int nextMark;
+
+     private NestedDissection(RoadGraph graph) {
+          this.graph = graph;
+          this.rank = new int[graph.nodeCount()];
+          this.mark = new int[graph.nodeCount()];
+     }
+
+     /**
+      * @return rank of every node, a permutation of {@code 0..nodeCount-1}
+      */
+     public static int[] order(RoadGraph graph) {
+          NestedDissection dissection = new NestedDissection(graph);
+          int[] all = new int[graph.nodeCount()];
+          for (int v = 0; v < all.length; v++) all[v] = v;
+          dissection.dissect(all);
+          return dissection.rank;
+     }
+
+     private void dissect(int[] part) {
+          if (part.length <= LEAF_SIZE) {
+               for (int v : part) rank[v] = nextRank++;
+               return;
+          }
+
+          double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+          double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+          for (int v : part) {
+               minLat = Math.min(minLat, graph.latitude(v));
+               maxLat = Math.max(maxLat, graph.latitude(v));
+               minLon = Math.min(minLon, graph.longitude(v));
+               maxLon = Math.max(maxLon, graph.longitude(v));
+          }
+          double lonScale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+          boolean byLatitude = (maxLat - minLat) >= (maxLon - minLon) * lonScale;
+
+          long[] keyed = new long[part.length];
+          for (int i = 0; i < part.length; i++) {
+               double coordinate = byLatitude ? graph.latitude(part[i]) : graph.longitude(part[i]);
+               keyed[i] = (sortableBits(coordinate) & 0xFFFFFFFF00000000L) | i;
+          }
+          Arrays.sort(keyed);
+          int half = part.length / 2;
+
+          int token = ++nextMark;
+          for (int i = half; i < part.length; i++) mark[part[(int) keyed[i]]] = token;
+
+          int[] left = new int[half];
+          int[] right = new int[part.length - half];
+          for (int i = 0; i < half; i++) left[i] = part[(int) keyed[i]];
+          for (int i = half; i < part.length; i++) right[i - half] = part[(int) keyed[i]];
+
+          // nodes of the left half adjacent to the right half, and vice versa; keep the smaller cut
+          int[] leftCut = boundary(left, token);
+          int leftToken = ++nextMark;
+          for (int v : left) mark[v] = leftToken;
+          int[] rightCut = boundary(right, leftToken);
+
+          int[] separator = leftCut.length <= rightCut.length ? leftCut : rightCut;
+          int separatorToken = ++nextMark;
+          for (int v : separator) mark[v] = separatorToken;
+
+          dissect(without(left, separatorToken));
+          dissect(without(right, separatorToken));
+          for (int v : separator) rank[v] = nextRank++;
+     }
+
+     private int[] boundary(int[] side, int otherToken) {
+          int[] cut = new int[side.length];
+          int count = 0;
+          for (int v : side) {
+               if (touches(v, otherToken)) cut[count++] = v;
+          }
+          return Arrays.copyOf(cut, count);
+     }
+
+     private boolean touches(int v, int otherToken) {
+          for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+               if (mark[graph.target(e)] == otherToken) return true;
+          }
+          for (int slot = graph.firstIncoming(v); slot < graph.endIncoming(v); slot++) {
+               if (mark[graph.source(graph.incomingEdge(slot))] == otherToken) return true;
+          }
+          return false;
+     }
+
+     private int[] without(int[] nodes, int token) {
+          int[] rest = new int[nodes.length];
+          int count = 0;
+          for (int v : nodes) {
+               if (mark[v] != token) rest[count++] = v;
+          }
+          return Arrays.copyOf(rest, count);
+     }
+
+     /**
+      * Maps a double to a long whose signed order matches the numeric order.
+      */
+     private static long sortableBits(double value) {
+          long bits = Double.doubleToLongBits(value);
+          return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+     }
+}
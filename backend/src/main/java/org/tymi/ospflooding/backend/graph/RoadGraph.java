@@ -0,0 +1,164 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.DoubleStream;
+
+/**
+ * Immutable road network in compressed-sparse-row form.
+ * Nodes are dense indices {@code 0..nodeCount-1}; the outgoing edges of node {@code v}
+ * are the edge indices {@code firstEdge(v)..endEdge(v)-1}. Incoming edges are kept in a second
+ * CSR index for backward searches.
+ */
+public final class RoadGraph {
+     public static final RoadGraph EMPTY = new RoadGraph(new double[0], new double[0], new int[1],
+             new int[0], new int[0], new double[0], new int[0], new int[0], new int[1], new int[0]);
+
+     private final double[] latitudes;
+     private final double[] longitudes;
+     private final int[] offsets;
+     private final int[] sources;
+     private final int[] targets;
+     private final double[] lengths;
+     private final int[] segmentIds;
+     private final int[] wayIds;
+     private final int[] incomingOffsets;
+     private final int[] incomingEdges;
+     private final int[] edgeBySegmentId;
+
+     RoadGraph(double[] latitudes, double[] longitudes, int[] offsets, int[] sources, int[] targets,
+               double[] lengths, int[] segmentIds, int[] wayIds, int[] incomingOffsets, int[] incomingEdges) {
+          this.latitudes = latitudes;
+          this.longitudes = longitudes;
+          this.offsets = offsets;
+          this.sources = sources;
+          this.targets = targets;
+          this.lengths = lengths;
+          this.segmentIds = segmentIds;
+          this.wayIds = wayIds;
+          this.incomingOffsets = incomingOffsets;
+          this.incomingEdges = incomingEdges;
+
+          int maxSegmentId = -1;
+          for (int id : segmentIds) maxSegmentId = Math.max(maxSegmentId, id);
+          this.edgeBySegmentId = new int[maxSegmentId + 1];
+          Arrays.fill(edgeBySegmentId, -1);
+          for (int e = 0; e < segmentIds.length; e++) {
+               if (segmentIds[e] >= 0) edgeBySegmentId[segmentIds[e]] = e;
+          }
+     }
+
+     public int nodeCount() {
+          return latitudes.length;
+     }
+
+     public int edgeCount() {
+          return targets.length;
+     }
+
+     public boolean isEmpty() {
+          return nodeCount() == 0 || edgeCount() == 0;
+     }
+
+     public double latitude(int node) {
+          return latitudes[node];
+     }
+
+     public double longitude(int node) {
+          return longitudes[node];
+     }
+
+     public int firstEdge(int node) {
+          return offsets[node];
+     }
+
+     public int endEdge(int node) {
+          return offsets[node + 1];
+     }
+
+     public int firstIncoming(int node) {
+          return incomingOffsets[node];
+     }
+
+     public int endIncoming(int node) {
+          return incomingOffsets[node + 1];
+     }
+
+     /**
+      * @param slot position between {@link #firstIncoming(int)} and {@link #endIncoming(int)}
+      * @return index of an edge ending at the node
+      */
+     public int incomingEdge(int slot) {
+          return incomingEdges[slot];
+     }
+
+     public int source(int edge) {
+          return sources[edge];
+     }
+
+     public int target(int edge) {
+          return targets[edge];
+     }
+
+     /**
+      * @return metres
+      */
+     public double length(int edge) {
+          return lengths[edge];
+     }
+
+     public int segmentId(int edge) {
+          return segmentIds[edge];
+     }
+
+     /**
+      * @return OSM way the edge was cut from, helpful for debugging
+      */
+     public int wayId(int edge) {
+          return wayIds[edge];
+     }
+
+     /**
+      * @return shortest edge from one node to another, or -1 if they are not adjacent
+      */
+     public int findEdge(int from, int to) {
+          int best = -1;
+          for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+               if (targets[e] == to && (best == -1 || lengths[e] < lengths[best])) best = e;
+          }
+          return best;
+     }
+
+     /**
+      * @return edge index of the road segment, or -1 if the segment is not part of the graph
+      */
+     public int edgeOf(int segmentId) {
+          return segmentId >= 0 && segmentId < edgeBySegmentId.length ? edgeBySegmentId[segmentId] : -1;
+     }
+
+     void writeTo(GraphSnapshotFile.Output out) throws IOException {
+          out.putDoubles(latitudes);
+          out.putDoubles(longitudes);
+          out.putInts(offsets);
+          out.putInts(sources);
+          out.putInts(targets);
+          out.putDoubles(lengths);
+          out.putInts(segmentIds);
+          out.putInts(wayIds);
+          out.putInts(incomingOffsets);
+          out.putInts(incomingEdges);
+     }
+
+     static RoadGraph readFrom(GraphSnapshotFile.Input in) {
+          return new RoadGraph(in.getDoubles(), in.getDoubles(), in.getInts(), in.getInts(), in.getInts(),
+                  in.getDoubles(), in.getInts(), in.getInts(), in.getInts(), in.getInts());
+     }
+
+     public DoubleStream latitudes() {
+          return Arrays.stream(latitudes);
+     }
+
+     public DoubleStream longitudes() {
+          return Arrays.stream(longitudes);
+     }
+}
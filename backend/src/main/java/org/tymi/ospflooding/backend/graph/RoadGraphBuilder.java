@@ -0,0 +1,143 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.tymi.ospflooding.backend.utilities.LongIntHashMap;
+
+import java.util.Arrays;
+
+import static org.tymi.ospflooding.backend.utilities.Algorithm.Pack;
+
+/**
+ * Collects nodes and edges into growable primitive arrays and packs them into a {@link RoadGraph}.
+ */
+public final class RoadGraphBuilder {
+     // OSM stores coordinates with 7 decimals, so this fixed-point form is exact for them
+     private static final double FIXED_POINT_SCALE = 10_000_000.0;
+
+     private final LongIntHashMap nodeIndexByKey;
+
+     private double[] latitudes;
+     private double[] longitudes;
+     private int nodeCount;
+
+     private int[] sources;
+     private int[] targets;
+     private double[] lengths;
+     private int[] segmentIds;
+     private int[] wayIds;
+     private int edgeCount;
+
+     public RoadGraphBuilder() {
+          this(1024, 1024);
+     }
+
+     public RoadGraphBuilder(int expectedNodes, int expectedEdges) {
+          int nodeCapacity = Math.max(16, expectedNodes);
+          int edgeCapacity = Math.max(16, expectedEdges);
+          nodeIndexByKey = new LongIntHashMap(nodeCapacity);
+          latitudes = new double[nodeCapacity];
+          longitudes = new double[nodeCapacity];
+          sources = new int[edgeCapacity];
+          targets = new int[edgeCapacity];
+          lengths = new double[edgeCapacity];
+          segmentIds = new int[edgeCapacity];
+          wayIds = new int[edgeCapacity];
+     }
+
+     /**
+      * Junctions are identified by their coordinates: points that agree to 7 decimals are the same node.
+      *
+      * @return dense node index
+      */
+     public int node(double lat, double lon) {
+          return node(coordinateKey(lat, lon), lat, lon);
+     }
+
+     /**
+      * @param key identity of the junction, nodes sharing a key are merged
+      * @return dense node index
+      */
+     public int node(long key, double lat, double lon) {
+          int index = nodeIndexByKey.putIfAbsent(key, nodeCount);
+          if (index != nodeCount) return index;
+
+          if (nodeCount == latitudes.length) {
+               int capacity = nodeCount * 2;
+               latitudes = Arrays.copyOf(latitudes, capacity);
+               longitudes = Arrays.copyOf(longitudes, capacity);
+          }
+          latitudes[index] = lat;
+          longitudes[index] = lon;
+          nodeCount++;
+          return index;
+     }
+
+     /**
+      * @return the coordinates in 1e-7 degrees, packed like {@link org.tymi.ospflooding.backend.utilities.Algorithm#Pack}
+      */
+     public static long coordinateKey(double lat, double lon) {
+          return Pack((int) Math.round(lat * FIXED_POINT_SCALE), (int) Math.round(lon * FIXED_POINT_SCALE));
+     }
+
+     /**
+      * @param from   dense node index
+      * @param to     dense node index
+      * @param length metres
+      */
+     public void addEdge(int from, int to, double length, int segmentId, int wayId) {
+          if (edgeCount == targets.length) {
+               int capacity = edgeCount * 2;
+               sources = Arrays.copyOf(sources, capacity);
+               targets = Arrays.copyOf(targets, capacity);
+               lengths = Arrays.copyOf(lengths, capacity);
+               segmentIds = Arrays.copyOf(segmentIds, capacity);
+               wayIds = Arrays.copyOf(wayIds, capacity);
+          }
+          sources[edgeCount] = from;
+          targets[edgeCount] = to;
+          lengths[edgeCount] = length;
+          segmentIds[edgeCount] = segmentId;
+          wayIds[edgeCount] = wayId;
+          edgeCount++;
+     }
+
+     public int nodeCount() {
+          return nodeCount;
+     }
+
+     public int edgeCount() {
+          return edgeCount;
+     }
+
+     public RoadGraph build() {
+          int[] offsets = new int[nodeCount + 1];
+          for (int e = 0; e < edgeCount; e++) offsets[sources[e] + 1]++;
+          for (int v = 0; v < nodeCount; v++) offsets[v + 1] += offsets[v];
+
+          int[] next = Arrays.copyOf(offsets, nodeCount);
+          int[] csrSources = new int[edgeCount];
+          int[] csrTargets = new int[edgeCount];
+          double[] csrLengths = new double[edgeCount];
+          int[] csrSegmentIds = new int[edgeCount];
+          int[] csrWayIds = new int[edgeCount];
+
+          for (int e = 0; e < edgeCount; e++) {
+               int slot = next[sources[e]]++;
+               csrSources[slot] = sources[e];
+               csrTargets[slot] = targets[e];
+               csrLengths[slot] = lengths[e];
+               csrSegmentIds[slot] = segmentIds[e];
+               csrWayIds[slot] = wayIds[e];
+          }
+
+          int[] incomingOffsets = new int[nodeCount + 1];
+          for (int e = 0; e < edgeCount; e++) incomingOffsets[csrTargets[e] + 1]++;
+          for (int v = 0; v < nodeCount; v++) incomingOffsets[v + 1] += incomingOffsets[v];
+
+          int[] nextIncoming = Arrays.copyOf(incomingOffsets, nodeCount);
+          int[] incomingEdges = new int[edgeCount];
+          for (int e = 0; e < edgeCount; e++) incomingEdges[nextIncoming[csrTargets[e]]++] = e;
+
+          return new RoadGraph(Arrays.copyOf(latitudes, nodeCount), Arrays.copyOf(longitudes, nodeCount), offsets,
+                  csrSources, csrTargets, csrLengths, csrSegmentIds, csrWayIds, incomingOffsets, incomingEdges);
+     }
+}
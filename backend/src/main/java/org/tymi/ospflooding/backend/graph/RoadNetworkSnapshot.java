@@ -0,0 +1,115 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.tymi.ospflooding.backend.records.Bounds;
+
+/**
+ * Everything a query needs from one loaded road network: the graph with its bounds, spatial index and
+ * contraction hierarchy, plus the flood flags and customized metric for that graph. Snapshots are never
+ * modified; a reload or flood refresh publishes a new one, so a query that picked up a snapshot keeps a
+ * consistent view until it finishes.
+ */
+public final class RoadNetworkSnapshot {
+     public static final RoadNetworkSnapshot EMPTY = build(0, 0, RoadGraph.EMPTY, EdgeFloodFlags.none(RoadGraph.EMPTY));
+
+     private final long version;
+     private final long floodVersion;
+     private final RoadGraph graph;
+     private final Bounds bounds;
+     private final SpatialIndex spatialIndex;
+     private final ContractionHierarchy hierarchy;
+     private final EdgeFloodFlags floodFlags;
+     private final HierarchyMetric metric;
+
+     private RoadNetworkSnapshot(long version, long floodVersion, RoadGraph graph, Bounds bounds, SpatialIndex spatialIndex,
+                                 ContractionHierarchy hierarchy, EdgeFloodFlags floodFlags, HierarchyMetric metric) {
+          this.version = version;
+          this.floodVersion = floodVersion;
+          this.graph = graph;
+          this.bounds = bounds;
+          this.spatialIndex = spatialIndex;
+          this.hierarchy = hierarchy;
+          this.floodFlags = floodFlags;
+          this.metric = metric;
+     }
+
+     /**
+      * Runs all metric-independent preprocessing for a freshly loaded graph.
+      */
+     public static RoadNetworkSnapshot build(long version, long floodVersion, RoadGraph graph, EdgeFloodFlags floodFlags) {
+          return build(version, floodVersion, ContractionHierarchy.build(graph), SpatialIndex.build(graph), floodFlags);
+     }
+
+     /**
+      * Assembles a snapshot from preprocessing done earlier, e.g. loaded from a {@link GraphSnapshotFile}.
+      */
+     public static RoadNetworkSnapshot build(long version, long floodVersion, ContractionHierarchy hierarchy,
+                                             SpatialIndex spatialIndex, EdgeFloodFlags floodFlags) {
+          RoadGraph graph = hierarchy.graph();
+          return new RoadNetworkSnapshot(version, floodVersion, graph, boundsOf(graph), spatialIndex, hierarchy,
+                  floodFlags, HierarchyMetric.customize(hierarchy, floodFlags));
+     }
+
+     /**
+      * @return bounds of the graph's nodes, or {@link Bounds#DEFAULT} for an empty graph
+      */
+     public static Bounds boundsOf(RoadGraph graph) {
+          if (graph.nodeCount() == 0) return Bounds.DEFAULT;
+
+          double south = Double.POSITIVE_INFINITY, west = Double.POSITIVE_INFINITY;
+          double north = Double.NEGATIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+          for (int v = 0; v < graph.nodeCount(); v++) {
+               south = Math.min(south, graph.latitude(v));
+               north = Math.max(north, graph.latitude(v));
+               west = Math.min(west, graph.longitude(v));
+               east = Math.max(east, graph.longitude(v));
+          }
+          return new Bounds(south, west, north, east);
+     }
+
+     /**
+      * Same network under new flood data. Only the customization is repeated; the network version stays
+      * the same and the flood version is incremented.
+      */
+     public RoadNetworkSnapshot withFloodFlags(EdgeFloodFlags floodFlags) {
+          return new RoadNetworkSnapshot(version, floodVersion + 1, graph, bounds, spatialIndex, hierarchy, floodFlags,
+                  HierarchyMetric.customize(hierarchy, floodFlags));
+     }
+
+     /**
+      * @return incremented on every reload of the road network
+      */
+     public long version() {
+          return version;
+     }
+
+     /**
+      * @return incremented whenever different flood data is applied
+      */
+     public long floodVersion() {
+          return floodVersion;
+     }
+
+     public RoadGraph graph() {
+          return graph;
+     }
+
+     public Bounds bounds() {
+          return bounds;
+     }
+
+     public SpatialIndex spatialIndex() {
+          return spatialIndex;
+     }
+
+     public ContractionHierarchy hierarchy() {
+          return hierarchy;
+     }
+
+     public EdgeFloodFlags floodFlags() {
+          return floodFlags;
+     }
+
+     public HierarchyMetric metric() {
+          return metric;
+     }
+}
@@ -0,0 +1,17 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Locale;
+
+public enum RoutingAlgorithm {
+     DIJKSTRA,
+     ASTAR,
+     BIDIRECTIONAL,
+     CCH;
+
+     /**
+      * @throws IllegalArgumentException if the name is not a known algorithm
+      */
+     public static RoutingAlgorithm fromName(String name) {
+          return valueOf(name.trim().toUpperCase(Locale.ROOT));
+     }
+}
@@ -0,0 +1,17 @@
+package org.tymi.ospflooding.backend.graph;
+
+/**
+ * @param edges        edge indices from origin to destination, empty if unreachable
+ * @param floodPenalty number of flooded edges on the route
+ * @param length       metres
+ * @param settledNodes nodes taken off the queue, for comparing algorithms
+ */
+public record SearchResult(int[] edges, double floodPenalty, double length, int settledNodes) {
+     public static SearchResult unreachable(int settledNodes) {
+          return new SearchResult(new int[0], Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, settledNodes);
+     }
+
+     public boolean isReachable() {
+          return floodPenalty != Double.POSITIVE_INFINITY;
+     }
+}
@@ -0,0 +1,134 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.Arrays;
+
+/**
+ * Per-query scratch state for shortest path searches over one {@link RoadGraph}.
+ * Entries are validated by a generation stamp, so starting a new search is O(1)
+ * instead of resetting every node.
+ */
+public final class SearchWorkspace {
+     private final int[] reachedStamps;
+     private final int[] settledStamps;
+     private final double[] penalties;
+     private final double[] lengths;
+     private final int[] prevEdges;
+     private final IndexedMinHeap heap;
+     private int generation;
+     private int settledCount;
+
+     public SearchWorkspace(int nodeCount) {
+          reachedStamps = new int[nodeCount];
+          settledStamps = new int[nodeCount];
+          penalties = new double[nodeCount];
+          lengths = new double[nodeCount];
+          prevEdges = new int[nodeCount];
+          heap = new IndexedMinHeap(nodeCount);
+     }
+
+     public int capacity() {
+          return penalties.length;
+     }
+
+     public void begin() {
+          heap.clear();
+          settledCount = 0;
+          if (++generation == Integer.MAX_VALUE) {
+               Arrays.fill(reachedStamps, 0);
+               Arrays.fill(settledStamps, 0);
+               generation = 1;
+          }
+     }
+
+     public boolean isReached(int node) {
+          return reachedStamps[node] == generation;
+     }
+
+     public boolean isSettled(int node) {
+          return settledStamps[node] == generation;
+     }
+
+     public double penalty(int node) {
+          return isReached(node) ? penalties[node] : Double.POSITIVE_INFINITY;
+     }
+
+     public double length(int node) {
+          return isReached(node) ? lengths[node] : Double.POSITIVE_INFINITY;
+     }
+
+     /**
+      * @return edge index the node was reached through, or -1 for a search origin
+      */
+     public int prevEdge(int node) {
+          return isReached(node) ? prevEdges[node] : -1;
+     }
+
+     public boolean improves(int node, double penalty, double length) {
+          if (!isReached(node)) return true;
+          return penalty < penalties[node] || (penalty == penalties[node] && length < lengths[node]);
+     }
+
+     /**
+      * Records a tentative distance if it improves on the current one and queues the node under it.
+      *
+      * @return true if the distance improved
+      */
+     public boolean relax(int node, double penalty, double length, int viaEdge) {
+          return relax(node, penalty, length, viaEdge, 0.0);
+     }
+
+     /**
+      * Same as {@link #relax(int, double, double, int)}, queueing the node under {@code length + estimate}.
+      */
+     public boolean relax(int node, double penalty, double length, int viaEdge, double estimate) {
+          if (!improves(node, penalty, length)) return false;
+          reachedStamps[node] = generation;
+          penalties[node] = penalty;
+          lengths[node] = length;
+          prevEdges[node] = viaEdge;
+          if (!isSettled(node)) heap.push(node, penalty, length + estimate);
+          return true;
+     }
+
+     /**
+      * Records a tentative distance if it improves on the current one, without queueing the node.
+      */
+     public boolean record(int node, double penalty, double length, int via) {
+          if (!improves(node, penalty, length)) return false;
+          reachedStamps[node] = generation;
+          penalties[node] = penalty;
+          lengths[node] = length;
+          prevEdges[node] = via;
+          return true;
+     }
+
+     public boolean hasQueued() {
+          return !heap.isEmpty();
+     }
+
+     public int peek() {
+          return heap.peek();
+     }
+
+     public double peekPenalty() {
+          return heap.peekPrimary();
+     }
+
+     public double peekKey() {
+          return heap.peekSecondary();
+     }
+
+     /**
+      * Removes the closest queued node and marks it settled.
+      */
+     public int settleNext() {
+          int node = heap.poll();
+          settledStamps[node] = generation;
+          settledCount++;
+          return node;
+     }
+
+     public int settledCount() {
+          return settledCount;
+     }
+}
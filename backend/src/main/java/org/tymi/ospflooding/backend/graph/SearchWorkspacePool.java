@@ -0,0 +1,26 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands out {@link SearchWorkspace}s. Workspaces are returned after each query, so concurrent
+ * requests share a handful of them instead of allocating per query. Workspaces sized for a
+ * previous graph are dropped once the network is reloaded.
+ */
+public final class SearchWorkspacePool {
+     private final ConcurrentLinkedQueue<SearchWorkspace> idle = new ConcurrentLinkedQueue<>();
+
+     public SearchWorkspace acquire(RoadGraph graph) {
+          SearchWorkspace workspace;
+          while ((workspace = idle.poll()) != null) {
+               if (workspace.capacity() == graph.nodeCount()) break;
+          }
+          if (workspace == null) workspace = new SearchWorkspace(graph.nodeCount());
+          workspace.begin();
+          return workspace;
+     }
+
+     public void release(SearchWorkspace workspace) {
+          idle.offer(workspace);
+     }
+}
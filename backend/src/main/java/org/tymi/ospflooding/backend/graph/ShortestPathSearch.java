@@ -0,0 +1,258 @@
+package org.tymi.ospflooding.backend.graph;
+
+import static org.tymi.ospflooding.backend.utilities.Algorithm.Haversine;
+
+/**
+ * Point-to-point searches over a {@link RoadGraph}. All variants minimise the lexicographic
+ * {@code (floodPenalty, length)} weight, so a dry detour always beats a flooded shortcut.
+ * <p>
+ * Searches run either between two nodes or between two {@link SnapResult points on edges}; in the latter
+ * case the partial edges at both ends are part of the result.
+ */
+public final class ShortestPathSearch {
+     private ShortestPathSearch() {}
+
+     public static SearchResult dijkstra(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace,
+                                         int source, int target) {
+          return unidirectional(graph, workspace, penalty, Anchors.atNode(source), Anchors.atNode(target), null, false);
+     }
+
+     public static SearchResult dijkstra(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace,
+                                         SnapResult source, SnapResult target) {
+          return unidirectional(graph, workspace, penalty,
+                  Anchors.departing(graph, penalty, source), Anchors.arriving(graph, penalty, target),
+                  Anchors.direct(graph, penalty, source, target), false);
+     }
+
+     /**
+      * Dijkstra ordered by {@code (floodPenalty, length + haversine(node, target))}. The great-circle
+      * distance never exceeds the road distance, and the penalty component is left untouched, so the
+      * lexicographic order stays consistent and the first time the target is settled is optimal.
+      */
+     public static SearchResult aStar(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace,
+                                      int source, int target) {
+          return unidirectional(graph, workspace, penalty, Anchors.atNode(source), Anchors.atNode(target), null, true);
+     }
+
+     public static SearchResult aStar(RoadGraph graph, EdgePenalty penalty, SearchWorkspace workspace,
+                                      SnapResult source, SnapResult target) {
+          return unidirectional(graph, workspace, penalty,
+                  Anchors.departing(graph, penalty, source), Anchors.arriving(graph, penalty, target),
+                  Anchors.direct(graph, penalty, source, target), true);
+     }
+
+     /**
+      * Runs until the queue minimum can no longer improve on the best way into a target anchor.
+      *
+      * @param direct route along a single edge to start from, or null
+      */
+     private static SearchResult unidirectional(RoadGraph graph, SearchWorkspace workspace, EdgePenalty penalty,
+                                                Anchors sources, Anchors targets, SearchResult direct,
+                                                boolean goalDirected) {
+          double bestPenalty = direct != null ? direct.floodPenalty() : Double.POSITIVE_INFINITY;
+          double bestLength = direct != null ? direct.length() : Double.POSITIVE_INFINITY;
+          int bestTarget = -1;
+
+          for (int i = 0; i < sources.count(); i++) {
+               int node = sources.node(i);
+               workspace.relax(node, sources.penalty(i), sources.length(i), -1,
+                       goalDirected ? estimate(graph, targets, node) : 0.0);
+          }
+
+          while (workspace.hasQueued()) {
+               if (!less(workspace.peekPenalty(), workspace.peekKey(), bestPenalty, bestLength)) break;
+
+               int current = workspace.settleNext();
+               double currentPenalty = workspace.penalty(current);
+               double currentLength = workspace.length(current);
+
+               for (int i = 0; i < targets.count(); i++) {
+                    if (targets.node(i) != current) continue;
+                    double p = currentPenalty + targets.penalty(i);
+                    double l = currentLength + targets.length(i);
+                    if (less(p, l, bestPenalty, bestLength)) {
+                         bestPenalty = p;
+                         bestLength = l;
+                         bestTarget = current;
+                    }
+               }
+
+               for (int edge = graph.firstEdge(current); edge < graph.endEdge(current); edge++) {
+                    int to = graph.target(edge);
+                    if (workspace.isSettled(to)) continue;
+
+                    double p = currentPenalty + penalty.penalty(edge);
+                    double l = currentLength + graph.length(edge);
+                    if (!workspace.improves(to, p, l)) continue;
+
+                    workspace.relax(to, p, l, edge, goalDirected ? estimate(graph, targets, to) : 0.0);
+               }
+          }
+
+          int settled = workspace.settledCount();
+          if (bestTarget == -1) {
+               return direct != null ? new SearchResult(direct.edges(), bestPenalty, bestLength, settled)
+                       : SearchResult.unreachable(settled);
+          }
+
+          int[] head = pathTo(graph, workspace, bestTarget);
+          int origin = head.length == 0 ? bestTarget : graph.source(head[0]);
+          int[] edges = Anchors.join(sources.edgeAt(origin), head, new int[0], targets.edgeAt(bestTarget));
+          return new SearchResult(edges, bestPenalty, bestLength, settled);
+     }
+
+     /**
+      * Great-circle distance to the closest target anchor, which never exceeds the remaining road distance.
+      */
+     private static double estimate(RoadGraph graph, Anchors targets, int node) {
+          double lat = graph.latitude(node);
+          double lon = graph.longitude(node);
+          double best = Double.POSITIVE_INFINITY;
+          for (int i = 0; i < targets.count(); i++) {
+               int target = targets.node(i);
+               best = Math.min(best, Haversine(lat, lon, graph.latitude(target), graph.longitude(target)));
+          }
+          return best;
+     }
+
+     public static SearchResult bidirectional(RoadGraph graph, EdgePenalty penalty,
+                                              SearchWorkspace forward, SearchWorkspace backward,
+                                              int source, int target) {
+          return bidirectional(graph, penalty, forward, backward, Anchors.atNode(source), Anchors.atNode(target), null);
+     }
+
+     public static SearchResult bidirectional(RoadGraph graph, EdgePenalty penalty,
+                                              SearchWorkspace forward, SearchWorkspace backward,
+                                              SnapResult source, SnapResult target) {
+          return bidirectional(graph, penalty, forward, backward,
+                  Anchors.departing(graph, penalty, source), Anchors.arriving(graph, penalty, target),
+                  Anchors.direct(graph, penalty, source, target));
+     }
+
+     /**
+      * Alternates a forward search from the source and a backward search from the target over the
+      * incoming edges. It stops once the sum of both queue minima can no longer improve on the best
+      * meeting point found so far.
+      */
+     private static SearchResult bidirectional(RoadGraph graph, EdgePenalty penalty,
+                                               SearchWorkspace forward, SearchWorkspace backward,
+                                               Anchors sources, Anchors targets, SearchResult direct) {
+          for (int i = 0; i < sources.count(); i++) forward.relax(sources.node(i), sources.penalty(i), sources.length(i), -1);
+          for (int i = 0; i < targets.count(); i++) backward.relax(targets.node(i), targets.penalty(i), targets.length(i), -1);
+
+          double bestPenalty = direct != null ? direct.floodPenalty() : Double.POSITIVE_INFINITY;
+          double bestLength = direct != null ? direct.length() : Double.POSITIVE_INFINITY;
+          int meeting = -1;
+          for (int i = 0; i < sources.count(); i++) {
+               int node = sources.node(i);
+               if (!backward.isReached(node)) continue;
+               double mp = forward.penalty(node) + backward.penalty(node);
+               double ml = forward.length(node) + backward.length(node);
+               if (less(mp, ml, bestPenalty, bestLength)) {
+                    bestPenalty = mp;
+                    bestLength = ml;
+                    meeting = node;
+               }
+          }
+
+          while (forward.hasQueued() || backward.hasQueued()) {
+               double topPenalty = (forward.hasQueued() ? forward.peekPenalty() : 0.0)
+                       + (backward.hasQueued() ? backward.peekPenalty() : 0.0);
+               double topLength = (forward.hasQueued() ? forward.peekKey() : 0.0)
+                       + (backward.hasQueued() ? backward.peekKey() : 0.0);
+               if (!less(topPenalty, topLength, bestPenalty, bestLength)) break;
+
+               boolean stepForward = !backward.hasQueued()
+                       || (forward.hasQueued() && !less(backward.peekPenalty(), backward.peekKey(),
+                       forward.peekPenalty(), forward.peekKey()));
+               if (stepForward) {
+                    int current = forward.settleNext();
+                    double currentPenalty = forward.penalty(current);
+                    double currentLength = forward.length(current);
+                    for (int edge = graph.firstEdge(current); edge < graph.endEdge(current); edge++) {
+                         int to = graph.target(edge);
+                         double p = currentPenalty + penalty.penalty(edge);
+                         double l = currentLength + graph.length(edge);
+                         forward.relax(to, p, l, edge);
+
+                         if (backward.isReached(to)) {
+                              double mp = forward.penalty(to) + backward.penalty(to);
+                              double ml = forward.length(to) + backward.length(to);
+                              if (less(mp, ml, bestPenalty, bestLength)) {
+                                   bestPenalty = mp;
+                                   bestLength = ml;
+                                   meeting = to;
+                              }
+                         }
+                    }
+               } else {
+                    int current = backward.settleNext();
+                    double currentPenalty = backward.penalty(current);
+                    double currentLength = backward.length(current);
+                    for (int slot = graph.firstIncoming(current); slot < graph.endIncoming(current); slot++) {
+                         int edge = graph.incomingEdge(slot);
+                         int from = graph.source(edge);
+                         double p = currentPenalty + penalty.penalty(edge);
+                         double l = currentLength + graph.length(edge);
+                         backward.relax(from, p, l, edge);
+
+                         if (forward.isReached(from)) {
+                              double mp = forward.penalty(from) + backward.penalty(from);
+                              double ml = forward.length(from) + backward.length(from);
+                              if (less(mp, ml, bestPenalty, bestLength)) {
+                                   bestPenalty = mp;
+                                   bestLength = ml;
+                                   meeting = from;
+                              }
+                         }
+                    }
+               }
+          }
+
+          int settled = forward.settledCount() + backward.settledCount();
+          if (meeting == -1) {
+               return direct != null ? new SearchResult(direct.edges(), bestPenalty, bestLength, settled)
+                       : SearchResult.unreachable(settled);
+          }
+
+          int[] head = pathTo(graph, forward, meeting);
+          int[] tail = pathFrom(graph, backward, meeting);
+          int origin = head.length == 0 ? meeting : graph.source(head[0]);
+          int end = tail.length == 0 ? meeting : graph.target(tail[tail.length - 1]);
+          int[] edges = Anchors.join(sources.edgeAt(origin), head, tail, targets.edgeAt(end));
+          return new SearchResult(edges, bestPenalty, bestLength, settled);
+     }
+
+     /**
+      * Follows the predecessor edges of a forward search back to its origin.
+      */
+     static int[] pathTo(RoadGraph graph, SearchWorkspace workspace, int node) {
+          int count = 0;
+          for (int cur = node, edge; (edge = workspace.prevEdge(cur)) != -1; cur = graph.source(edge)) count++;
+
+          int[] edges = new int[count];
+          for (int cur = node, edge; (edge = workspace.prevEdge(cur)) != -1; cur = graph.source(edge)) {
+               edges[--count] = edge;
+          }
+          return edges;
+     }
+
+     /**
+      * Follows the successor edges of a backward search forward to its origin.
+      */
+     static int[] pathFrom(RoadGraph graph, SearchWorkspace workspace, int node) {
+          int count = 0;
+          for (int cur = node, edge; (edge = workspace.prevEdge(cur)) != -1; cur = graph.target(edge)) count++;
+
+          int[] edges = new int[count];
+          int i = 0;
+          for (int cur = node, edge; (edge = workspace.prevEdge(cur)) != -1; cur = graph.target(edge)) {
+               edges[i++] = edge;
+          }
+          return edges;
+     }
+
+     static boolean less(double p1, double l1, double p2, double l2) {
+          return p1 < p2 || (p1 == p2 && l1 < l2);
+     }
+}
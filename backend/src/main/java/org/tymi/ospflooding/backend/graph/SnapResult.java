@@ -0,0 +1,13 @@
+package org.tymi.ospflooding.backend.graph;
+
+/**
+ * Closest point of the road network to a query coordinate.
+ *
+ * @param edge      edge index the point lies on
+ * @param fraction  position along the edge, 0 at its source and 1 at its target
+ * @param latitude  projected point
+ * @param longitude projected point
+ * @param distance  metres from the query coordinate to the projected point
+ */
+public record SnapResult(int edge, double fraction, double latitude, double longitude, double distance) {
+}
@@ -0,0 +1,234 @@
+package org.tymi.ospflooding.backend.graph;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static org.tymi.ospflooding.backend.utilities.Algorithm.EarthRadiusMetres;
+
+/**
+ * Static uniform grid over the edge segments of a {@link RoadGraph}, packed like the graph itself:
+ * cell {@code c} lists the edges {@code cellEdges[cellOffsets[c]..cellOffsets[c+1]-1]} whose bounding box
+ * overlaps it. Nearest-edge queries scan rings of cells outwards from the query point and stop as soon as
+ * no unvisited cell can hold anything closer, so a query touches a constant number of cells on average.
+ * <p>
+ * Distances are measured in a local equirectangular projection, which is accurate to well below a metre
+ * at city scale.
+ */
+public final class SpatialIndex {
+     private static final double MIN_CELL_METRES = 25.0;
+     private static final long MAX_CELLS = 1L << 24;
+
+     private final RoadGraph graph;
+     private final double lonScale;
+     private final double minX;
+     private final double minY;
+     private final double cellSize;
+     private final int columns;
+     private final int rows;
+     private final int[] cellOffsets;
+     private final int[] cellEdges;
+
+     private SpatialIndex(RoadGraph graph, double lonScale, double minX, double minY, double cellSize,
+                          int columns, int rows, int[] cellOffsets, int[] cellEdges) {
+          this.graph = graph;
+          this.lonScale = lonScale;
+          this.minX = minX;
+          this.minY = minY;
+          this.cellSize = cellSize;
+          this.columns = columns;
+          this.rows = rows;
+          this.cellOffsets = cellOffsets;
+          this.cellEdges = cellEdges;
+     }
+
+     public static SpatialIndex build(RoadGraph graph) {
+          if (graph.isEmpty()) {
+               return new SpatialIndex(graph, 1.0, 0, 0, MIN_CELL_METRES, 1, 1, new int[2], new int[0]);
+          }
+
+          double minLat = graph.latitudes().min().orElse(0);
+          double maxLat = graph.latitudes().max().orElse(0);
+          double lonScale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+
+          double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+          double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+          for (int v = 0; v < graph.nodeCount(); v++) {
+               double x = x(graph.longitude(v), lonScale);
+               double y = y(graph.latitude(v));
+               minX = Math.min(minX, x);
+               minY = Math.min(minY, y);
+               maxX = Math.max(maxX, x);
+               maxY = Math.max(maxY, y);
+          }
+
+          double width = Math.max(maxX - minX, 1.0);
+          double height = Math.max(maxY - minY, 1.0);
+          // aim for a couple of edges per cell
+          double cellSize = Math.max(MIN_CELL_METRES, Math.sqrt(width * height / Math.max(1, graph.edgeCount()) * 2));
+          while ((long) (width / cellSize + 1) * (long) (height / cellSize + 1) > MAX_CELLS) cellSize *= 2;
+          int columns = (int) (width / cellSize) + 1;
+          int rows = (int) (height / cellSize) + 1;
+
+          SpatialIndex shape = new SpatialIndex(graph, lonScale, minX, minY, cellSize, columns, rows, null, null);
+          int[] cellOffsets = new int[columns * rows + 1];
+          for (int e = 0; e < graph.edgeCount(); e++) {
+               int[] box = shape.cellBox(e);
+               for (int row = box[1]; row <= box[3]; row++) {
+                    for (int col = box[0]; col <= box[2]; col++) cellOffsets[row * columns + col + 1]++;
+               }
+          }
+          for (int c = 0; c < columns * rows; c++) cellOffsets[c + 1] += cellOffsets[c];
+
+          int[] next = Arrays.copyOf(cellOffsets, columns * rows);
+          int[] cellEdges = new int[cellOffsets[columns * rows]];
+          for (int e = 0; e < graph.edgeCount(); e++) {
+               int[] box = shape.cellBox(e);
+               for (int row = box[1]; row <= box[3]; row++) {
+                    for (int col = box[0]; col <= box[2]; col++) cellEdges[next[row * columns + col]++] = e;
+               }
+          }
+
+          return new SpatialIndex(graph, lonScale, minX, minY, cellSize, columns, rows, cellOffsets, cellEdges);
+     }
+
+     void writeTo(GraphSnapshotFile.Output out) throws IOException {
+          out.putDouble(lonScale);
+          out.putDouble(minX);
+          out.putDouble(minY);
+          out.putDouble(cellSize);
+          out.putInt(columns);
+          out.putInt(rows);
+          out.putInts(cellOffsets);
+          out.putInts(cellEdges);
+     }
+
+     static SpatialIndex readFrom(RoadGraph graph, GraphSnapshotFile.Input in) {
+          return new SpatialIndex(graph, in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(),
+                  in.getInt(), in.getInt(), in.getInts(), in.getInts());
+     }
+
+     public RoadGraph graph() {
+          return graph;
+     }
+
+     /**
+      * @return closest point on any edge, or null if the graph has no edges
+      */
+     public SnapResult nearest(double lat, double lon) {
+          if (graph.isEmpty()) return null;
+
+          double px = x(lon, lonScale);
+          double py = y(lat);
+          double cx = Math.min(Math.max(px, minX), minX + columns * cellSize);
+          double cy = Math.min(Math.max(py, minY), minY + rows * cellSize);
+          double outside = Math.hypot(px - cx, py - cy);
+          int startCol = Math.min(columns - 1, (int) ((cx - minX) / cellSize));
+          int startRow = Math.min(rows - 1, (int) ((cy - minY) / cellSize));
+
+          double bestDistance = Double.POSITIVE_INFINITY;
+          int bestEdge = -1;
+          double bestFraction = 0.0;
+          int maxRing = Math.max(columns, rows);
+
+          for (int ring = 0; ring <= maxRing; ring++) {
+               // everything beyond this ring is at least this far away
+               if (bestDistance <= ring * cellSize - cellSize - outside) break;
+
+               int row1 = startRow - ring, row2 = startRow + ring;
+               int col1 = startCol - ring, col2 = startCol + ring;
+               for (int row = Math.max(0, row1); row <= Math.min(rows - 1, row2); row++) {
+                    boolean edgeRow = row == row1 || row == row2;
+                    for (int col = Math.max(0, col1); col <= Math.min(columns - 1, col2); col++) {
+                         if (!edgeRow && col != col1 && col != col2) continue;
+                         int cell = row * columns + col;
+                         for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+                              int e = cellEdges[i];
+                              double fraction = project(e, px, py);
+                              double d = distance(e, fraction, px, py);
+                              if (d < bestDistance || (d == bestDistance && e < bestEdge)) {
+                                   bestDistance = d;
+                                   bestEdge = e;
+                                   bestFraction = fraction;
+                              }
+                         }
+                    }
+               }
+          }
+
+          int from = graph.source(bestEdge);
+          int to = graph.target(bestEdge);
+          double lat1 = graph.latitude(from), lon1 = graph.longitude(from);
+          double lat2 = graph.latitude(to), lon2 = graph.longitude(to);
+          return new SnapResult(bestEdge, bestFraction,
+                  lat1 + (lat2 - lat1) * bestFraction,
+                  lon1 + (lon2 - lon1) * bestFraction,
+                  bestDistance);
+     }
+
+     private double project(int edge, double px, double py) {
+          int from = graph.source(edge);
+          int to = graph.target(edge);
+          double x1 = x(graph.longitude(from), lonScale), y1 = y(graph.latitude(from));
+          double x2 = x(graph.longitude(to), lonScale), y2 = y(graph.latitude(to));
+          double dx = x2 - x1, dy = y2 - y1;
+          double lengthSquared = dx * dx + dy * dy;
+          if (lengthSquared == 0) return 0.0;
+          double t = ((px - x1) * dx + (py - y1) * dy) / lengthSquared;
+          return Math.min(1.0, Math.max(0.0, t));
+     }
+
+     private double distance(int edge, double fraction, double px, double py) {
+          int from = graph.source(edge);
+          int to = graph.target(edge);
+          double x1 = x(graph.longitude(from), lonScale), y1 = y(graph.latitude(from));
+          double x2 = x(graph.longitude(to), lonScale), y2 = y(graph.latitude(to));
+          return Math.hypot(x1 + (x2 - x1) * fraction - px, y1 + (y2 - y1) * fraction - py);
+     }
+
+     /**
+      * Calls the consumer with every edge whose bounding box may overlap the given one; an edge can be
+      * reported more than once.
+      */
+     public void forEachEdgeWithin(double south, double west, double north, double east, IntConsumer consumer) {
+          if (graph.isEmpty()) return;
+          int col1 = column(x(west, lonScale)), col2 = column(x(east, lonScale));
+          int row1 = row(y(south)), row2 = row(y(north));
+          for (int row = row1; row <= row2; row++) {
+               for (int col = col1; col <= col2; col++) {
+                    int cell = row * columns + col;
+                    for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) consumer.accept(cellEdges[i]);
+               }
+          }
+     }
+
+     /**
+      * @return {@code [col1, row1, col2, row2]} of the cells covered by the edge's bounding box
+      */
+     private int[] cellBox(int edge) {
+          int from = graph.source(edge);
+          int to = graph.target(edge);
+          double x1 = x(graph.longitude(from), lonScale), y1 = y(graph.latitude(from));
+          double x2 = x(graph.longitude(to), lonScale), y2 = y(graph.latitude(to));
+          return new int[]{
+                  column(Math.min(x1, x2)), row(Math.min(y1, y2)),
+                  column(Math.max(x1, x2)), row(Math.max(y1, y2))
+          };
+     }
+
+     private int column(double x) {
+          return Math.min(columns - 1, Math.max(0, (int) ((x - minX) / cellSize)));
+     }
+
+     private int row(double y) {
+          return Math.min(rows - 1, Math.max(0, (int) ((y - minY) / cellSize)));
+     }
+
+     private static double x(double lon, double lonScale) {
+          return Math.toRadians(lon) * EarthRadiusMetres * lonScale;
+     }
+
+     private static double y(double lat) {
+          return Math.toRadians(lat) * EarthRadiusMetres;
+     }
+}
@@ -63,6 +63,15 @@ public class FloodCache {
      @Column(name = "resolution_degrees", nullable = false)
      private double resolutionDegrees = 0.00005;
 
+     /**
+      * Run-length encoded {@code FloodMask}, grid included; null for entries written as flood_point rows.
+      */
+     @Setter
+     @Getter
+     @Lob
+     @Column(name = "flood_mask", columnDefinition = "LONGBLOB")
+     private byte[] floodMask;
+
      @Setter
      @Getter
      @OneToMany(mappedBy = "floodCache", cascade = CascadeType.ALL, orphanRemoval = true)
@@ -101,6 +110,13 @@ public class FloodCache {
           return lastUpdated.isBefore(LocalDateTime.now().minusHours(24));
      }
 
+     /**
+      * @return whether the entry holds flood data, as a mask or as points
+      */
+     public boolean hasData() {
+          return floodMask != null || pointCount > 0;
+     }
+
      public String getBboxKey() {
           return String.format(Locale.ROOT, "%.2f,%.2f,%.2f,%.2f", south, west, north, east);
      }
@@ -3,7 +3,7 @@ package org.tymi.ospflooding.backend.models;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
-import org.tymi.ospflooding.backend.services.FloodService;
+import org.tymi.ospflooding.backend.utilities.Algorithm;
 
 @Setter
 @Getter
@@ -37,6 +37,6 @@ public class FloodPoint {
      }
 
      public Long getKey() {
-          return FloodService.pack(FloodService.toIntCoord(latitude), FloodService.toIntCoord(longitude));
+          return Algorithm.Pack(Algorithm.ToIntCoord(latitude), Algorithm.ToIntCoord(longitude));
      }
 }
\ No newline at end of file
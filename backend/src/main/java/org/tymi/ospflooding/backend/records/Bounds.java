@@ -0,0 +1,11 @@
+package org.tymi.ospflooding.backend.records;
+
+/**
+ * Geographic bounding box in degrees.
+ */
+public record Bounds(double south, double west, double north, double east) {
+     /**
+      * Area used while no road network is loaded yet.
+      */
+     public static final Bounds DEFAULT = new Bounds(50.045, 19.900, 50.070, 19.960);
+}
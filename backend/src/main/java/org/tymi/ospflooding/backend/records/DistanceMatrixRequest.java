@@ -0,0 +1,9 @@
+package org.tymi.ospflooding.backend.records;
+
+import java.util.List;
+
+/**
+ * @param origins      "lat,lon" of every matrix row
+ * @param destinations "lat,lon" of every matrix column
+ */
+public record DistanceMatrixRequest(List<String> origins, List<String> destinations) {}
@@ -0,0 +1,13 @@
+package org.tymi.ospflooding.backend.records;
+
+import org.tymi.ospflooding.backend.utilities.FloodMaskDelta;
+
+/**
+ * Published by {@code FloodService} once new flood data for the area is in place. After an incremental
+ * refresh {@code delta} holds the cells that changed; it is null when any of the data may have changed.
+ */
+public record FloodDataChangedEvent(double south, double west, double north, double east, FloodMaskDelta delta) {
+     public FloodDataChangedEvent(double south, double west, double north, double east) {
+          this(south, west, north, east, null);
+     }
+}
@@ -1,4 +0,0 @@
-package org.tymi.ospflooding.backend.records;
-
-public record Node(int id, double lat, double lon) {
-}
@@ -1,3 +0,0 @@
-package org.tymi.ospflooding.backend.records;
-
-public record NodeDistance(int node, Weight weight) {}
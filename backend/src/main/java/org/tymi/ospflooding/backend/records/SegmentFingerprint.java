@@ -0,0 +1,32 @@
+package org.tymi.ospflooding.backend.records;
+
+/**
+ * Identifies a set of road segments by their count, their highest id and a checksum over every id and
+ * length. The checksum does not depend on the order the segments are added in.
+ */
+public record SegmentFingerprint(long count, int maxId, long checksum) {
+
+     public static final class Builder {
+          private long count;
+          private int maxId;
+          private long checksum;
+
+          public Builder add(int id, double length) {
+               count++;
+               maxId = Math.max(maxId, id);
+               // to the millimetre, so a length that went through the database compares equal
+               checksum += mix((long) id << 32 ^ Math.round(length * 1000));
+               return this;
+          }
+
+          public SegmentFingerprint build() {
+               return new SegmentFingerprint(count, maxId, checksum);
+          }
+
+          private static long mix(long value) {
+               value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+               value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+               return value ^ value >>> 31;
+          }
+     }
+}
@@ -0,0 +1,10 @@
+package org.tymi.ospflooding.backend.records;
+
+import java.util.List;
+
+/**
+ * @param shelters     "lat,lon" of every shelter
+ * @param origins      "lat,lon" of every resident or sensor to assign
+ * @param includePaths whether to return the route to the assigned shelter
+ */
+public record ShelterAssignmentRequest(List<String> shelters, List<String> origins, boolean includePaths) {}
@@ -5,6 +5,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.tymi.ospflooding.backend.models.FloodCache;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 public interface FloodCacheRepository extends JpaRepository<FloodCache, Long> {
@@ -24,7 +25,32 @@ public interface FloodCacheRepository extends JpaRepository<FloodCache, Long> {
              @Param("startDate") String startDate,
              @Param("endDate") String endDate);
 
+     @Query("SELECT fc FROM FloodCache fc " +
+             "WHERE ABS(fc.south - :south) < 0.0001 " +
+             "AND ABS(fc.west - :west) < 0.0001 " +
+             "AND ABS(fc.north - :north) < 0.0001 " +
+             "AND ABS(fc.east - :east) < 0.0001 " +
+             "ORDER BY fc.lastUpdated DESC")
+     List<FloodCache> findByBoundingBoxOrderByLastUpdatedDesc(
+             @Param("south") double south,
+             @Param("west") double west,
+             @Param("north") double north,
+             @Param("east") double east);
+
      Optional<FloodCache> findByCacheKey(String cacheKey);
 
-     Optional<FloodCache> findBySouthAndWestAndNorthAndEastAndLastUpdatedAfter(double south, double west, double north, double east, LocalDateTime cutoff);
+     /**
+      * Entries updated after the cutoff that hold flood data, as a mask or as points.
+      */
+     @Query("SELECT fc FROM FloodCache fc " +
+             "WHERE fc.south = :south AND fc.west = :west AND fc.north = :north AND fc.east = :east " +
+             "AND fc.lastUpdated > :cutoff " +
+             "AND (fc.floodMask IS NOT NULL OR fc.pointCount > 0) " +
+             "ORDER BY fc.lastUpdated DESC")
+     List<FloodCache> findWithDataByBoundingBoxUpdatedAfter(
+             @Param("south") double south,
+             @Param("west") double west,
+             @Param("north") double north,
+             @Param("east") double east,
+             @Param("cutoff") LocalDateTime cutoff);
 }
@@ -0,0 +1,123 @@
+package org.tymi.ospflooding.backend.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.InterruptedIOException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Inserts freshly imported {@code RoadSegment} rows with multi-row INSERT statements on a background
+ * thread, so the import neither waits for the database on every segment nor goes through a Hibernate
+ * merge and flush per row.
+ */
+@Repository
+public class RoadSegmentBulkWriter {
+     static final int ROWS_PER_STATEMENT = 500;
+     // batches waiting for the writer; the parser blocks once the database falls this far behind
+     private static final int QUEUED_BATCHES = 8;
+     private static final String INSERT = "INSERT INTO road_segment (id, length, coordinates) VALUES ";
+     private static final List<Object[]> END = List.of();
+
+     private final JdbcTemplate jdbcTemplate;
+
+     public RoadSegmentBulkWriter(JdbcTemplate jdbcTemplate) {
+          this.jdbcTemplate = jdbcTemplate;
+     }
+
+     /**
+      * Starts a writer thread; close the session to flush the remaining rows and wait for it.
+      */
+     public Session open() {
+          return new Session();
+     }
+
+     public final class Session implements AutoCloseable {
+          private final BlockingQueue<List<Object[]>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+          private final Thread writer;
+          private volatile RuntimeException failure;
+          private boolean reported;
+          private List<Object[]> batch = new ArrayList<>(ROWS_PER_STATEMENT);
+
+          private Session() {
+               writer = new Thread(this::drain, "road-segment-writer");
+               writer.setDaemon(true);
+               writer.start();
+          }
+
+          /**
+           * @throws InterruptedIOException if interrupted while waiting for the writer to catch up
+           */
+          public void add(int id, double length, String coordinates) throws InterruptedIOException {
+               batch.add(new Object[]{id, length, coordinates});
+               if (batch.size() == ROWS_PER_STATEMENT) {
+                    try {
+                         submit();
+                    } catch (InterruptedException e) {
+                         Thread.currentThread().interrupt();
+                         throw new InterruptedIOException("Interrupted while saving road segments");
+                    }
+               }
+          }
+
+          /**
+           * Waits until every added row is written.
+           *
+           * @throws RuntimeException the database error that stopped the writer, if any
+           */
+          @Override
+          public void close() throws InterruptedException {
+               if (!batch.isEmpty()) submit();
+               queue.put(END);
+               writer.join();
+               rethrowFailure();
+          }
+
+          private void submit() throws InterruptedException {
+               rethrowFailure();
+               queue.put(batch);
+               batch = new ArrayList<>(ROWS_PER_STATEMENT);
+          }
+
+          // only once, close() runs after add() has already thrown it
+          private void rethrowFailure() {
+               if (failure == null || reported) return;
+               reported = true;
+               throw failure;
+          }
+
+          private void drain() {
+               try {
+                    for (List<Object[]> next = queue.take(); next != END; next = queue.take()) {
+                         // keep taking after a failure so the producer never blocks on a full queue
+                         if (failure != null) continue;
+                         try {
+                              insert(next);
+                         } catch (RuntimeException e) {
+                              failure = e;
+                         }
+                    }
+               } catch (InterruptedException e) {
+                    failure = new IllegalStateException("Road segment writer was interrupted", e);
+               }
+          }
+     }
+
+     private void insert(List<Object[]> rows) {
+          StringBuilder sql = new StringBuilder(INSERT.length() + rows.size() * 10).append(INSERT);
+          Object[] args = new Object[rows.size() * 3];
+          int[] types = new int[rows.size() * 3];
+          for (int i = 0; i < rows.size(); i++) {
+               sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+               System.arraycopy(rows.get(i), 0, args, i * 3, 3);
+               types[i * 3] = Types.INTEGER;
+               types[i * 3 + 1] = Types.DOUBLE;
+               types[i * 3 + 2] = Types.VARCHAR;
+          }
+          jdbcTemplate.update(sql.toString(), args, types);
+     }
+}
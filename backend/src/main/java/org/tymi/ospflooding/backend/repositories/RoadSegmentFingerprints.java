@@ -0,0 +1,34 @@
+package org.tymi.ospflooding.backend.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.tymi.ospflooding.backend.records.SegmentFingerprint;
+
+import java.sql.PreparedStatement;
+
+/**
+ * Fingerprints the {@code road_segment} table, to tell whether a preprocessed road network was built from
+ * the segments that are stored now. Only ids and lengths are read, streamed rather than loaded at once.
+ */
+@Repository
+public class RoadSegmentFingerprints {
+     private static final String SELECT = "SELECT id, length FROM road_segment";
+     private static final int FETCH_SIZE = 10_000;
+
+     private final JdbcTemplate jdbcTemplate;
+
+     public RoadSegmentFingerprints(JdbcTemplate jdbcTemplate) {
+          this.jdbcTemplate = jdbcTemplate;
+     }
+
+     public SegmentFingerprint read() {
+          SegmentFingerprint.Builder fingerprint = new SegmentFingerprint.Builder();
+          jdbcTemplate.query(connection -> {
+               PreparedStatement statement = connection.prepareStatement(SELECT);
+               statement.setFetchSize(FETCH_SIZE);
+               return statement;
+          }, (RowCallbackHandler) row -> fingerprint.add(row.getInt(1), row.getDouble(2)));
+          return fingerprint.build();
+     }
+}
@@ -0,0 +1,232 @@
+package org.tymi.ospflooding.backend.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.tymi.ospflooding.backend.records.Bounds;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodRasterReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Downloads the Sentinel Hub flood layer of a bounding box through WCS GetCoverage. The coverage is
+ * requested as tiles of a fixed pixel grid, fetched and decoded concurrently on virtual threads, at most
+ * {@code flood.wcs.max-concurrent-requests} at a time, and each finished tile is pasted straight into the
+ * mask. A failing tile is retried with exponential backoff; if it still fails, the tiles that did arrive
+ * are kept for {@code flood.wcs.tile-cache-minutes}, so the next attempt only fetches the missing ones.
+ */
+@Service
+public class FloodCoverageService {
+     public static final double RESOLUTION_DEGREES = 0.00005;
+     // every second pixel of every second row is kept
+     public static final int SAMPLE_RATE = 2;
+     // a tile is a whole number of 64-bit mask words wide, so tiles can be pasted without locking
+     private static final int TILE_ALIGNMENT = 64 * SAMPLE_RATE;
+
+     private record CachedTile(FloodMask mask, long expiresAt) {}
+
+     private final String url;
+     private final int tilePixels;
+     private final int maxConcurrentRequests;
+     private final int maxAttempts;
+     private final long retryDelayMillis;
+     private final long tileCacheMillis;
+     private final HttpClient httpClient;
+     private final Map<String, CachedTile> tileCache = new ConcurrentHashMap<>();
+
+     public FloodCoverageService(@Value("${flood.wcs.url:https://services.sentinel-hub.com/ogc/wcs/79251ab1-0e04-4e55-a9ee-96e4a422ab01}") String url,
+                                 @Value("${flood.wcs.tile-pixels:2048}") int tilePixels,
+                                 @Value("${flood.wcs.max-concurrent-requests:4}") int maxConcurrentRequests,
+                                 @Value("${flood.wcs.max-attempts:4}") int maxAttempts,
+                                 @Value("${flood.wcs.retry-delay-ms:2000}") long retryDelayMillis,
+                                 @Value("${flood.wcs.tile-cache-minutes:360}") long tileCacheMinutes) {
+          this.url = url;
+          this.tilePixels = Math.max(1, (tilePixels + TILE_ALIGNMENT - 1) / TILE_ALIGNMENT) * TILE_ALIGNMENT;
+          this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+          this.maxAttempts = Math.max(1, maxAttempts);
+          this.retryDelayMillis = retryDelayMillis;
+          this.tileCacheMillis = Duration.ofMinutes(tileCacheMinutes).toMillis();
+          this.httpClient = HttpClient.newBuilder()
+                  .connectTimeout(Duration.ofSeconds(30))
+                  .build();
+     }
+
+     /**
+      * @throws IOException if any tile could not be downloaded; the others are cached for the next attempt
+      */
+     public FloodMask download(double south, double west, double north, double east, String startDate, String endDate)
+             throws IOException, InterruptedException {
+          int width = Math.max(1, (int) Math.ceil((east - west) / RESOLUTION_DEGREES - 1e-9));
+          int height = Math.max(1, (int) Math.ceil((north - south) / RESOLUTION_DEGREES - 1e-9));
+          double pixelWidth = (east - west) / width;
+          double pixelHeight = (north - south) / height;
+          FloodMask mask = new FloodMask(north, west, pixelHeight * SAMPLE_RATE, pixelWidth * SAMPLE_RATE,
+                  (height + SAMPLE_RATE - 1) / SAMPLE_RATE, (width + SAMPLE_RATE - 1) / SAMPLE_RATE);
+
+          long now = System.currentTimeMillis();
+          tileCache.values().removeIf(tile -> tile.expiresAt() < now);
+          // TODO: Logging
+          System.out.println("Downloading flood data for (" + south + "," + west + "," + north + "," + east + ") as "
+                  + ((height + tilePixels - 1) / tilePixels) * ((width + tilePixels - 1) / tilePixels) + " tiles");
+
+          Semaphore permits = new Semaphore(maxConcurrentRequests);
+          List<String> tileUrls = new ArrayList<>();
+          List<Future<?>> tiles = new ArrayList<>();
+          try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+               try {
+                    for (int y = 0; y < height; y += tilePixels) {
+                         for (int x = 0; x < width; x += tilePixels) {
+                              int tileWidth = Math.min(tilePixels, width - x), tileHeight = Math.min(tilePixels, height - y);
+                              Bounds bounds = new Bounds(north - (y + tileHeight) * pixelHeight, west + x * pixelWidth,
+                                      north - y * pixelHeight, west + (x + tileWidth) * pixelWidth);
+                              String tileUrl = tileUrl(bounds, tileWidth, tileHeight, startDate, endDate);
+                              int row = y / SAMPLE_RATE, column = x / SAMPLE_RATE;
+                              tileUrls.add(tileUrl);
+                              tiles.add(executor.submit(() -> {
+                                   mask.paste(tile(tileUrl, bounds, tileWidth, tileHeight, permits), row, column);
+                                   return null;
+                              }));
+                         }
+                    }
+                    awaitAll(tiles);
+               } finally {
+                    for (Future<?> tile : tiles) tile.cancel(true);
+               }
+          }
+          // merged into the mask, which the caller stores
+          tileUrls.forEach(tileCache::remove);
+          return mask;
+     }
+
+     private FloodMask tile(String tileUrl, Bounds bounds, int width, int height, Semaphore permits)
+             throws IOException, InterruptedException {
+          CachedTile cached = tileCache.get(tileUrl);
+          if (cached != null) return cached.mask();
+
+          FloodMask tile;
+          permits.acquire();
+          try {
+               tile = fetch(tileUrl, bounds, width, height);
+          } finally {
+               permits.release();
+          }
+          tileCache.put(tileUrl, new CachedTile(tile, System.currentTimeMillis() + tileCacheMillis));
+          return tile;
+     }
+
+     private FloodMask fetch(String tileUrl, Bounds bounds, int width, int height) throws IOException, InterruptedException {
+          HttpRequest request = HttpRequest.newBuilder()
+                  .uri(URI.create(tileUrl))
+                  .header("Accept", "image/png")
+                  .timeout(Duration.ofMinutes(2))
+                  .GET()
+                  .build();
+
+          for (int attempt = 1; ; attempt++) {
+               try {
+                    HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                    try (InputStream body = response.body()) {
+                         int status = response.statusCode();
+                         if (status != 200) {
+                              IOException failure = new IOException("Failed to download flood data. Status: " + status +
+                                      ", Body: " + new String(body.readAllBytes()));
+                              if (!isTransient(status)) throw new PermanentFailure(failure);
+                              throw failure;
+                         }
+                         String contentType = response.headers().firstValue("Content-Type").orElse("");
+                         if (!contentType.isEmpty() && !contentType.startsWith("image/")) {
+                              throw new PermanentFailure(new IOException("Sentinel Hub returned error: " + new String(body.readAllBytes())));
+                         }
+
+                         // decoded while it downloads, skipping the pixels that are not sampled
+                         FloodMask tile = FloodRasterReader.read(body, bounds, SAMPLE_RATE, FloodCoverageService::isFlooded);
+                         if (tile.rows() != (height + SAMPLE_RATE - 1) / SAMPLE_RATE || tile.columns() != (width + SAMPLE_RATE - 1) / SAMPLE_RATE) {
+                              throw new PermanentFailure(new IOException("Flood tile is " + tile.columns() * SAMPLE_RATE + "x"
+                                      + tile.rows() * SAMPLE_RATE + " pixels, requested " + width + "x" + height));
+                         }
+                         return tile;
+                    }
+               } catch (IOException e) {
+                    if (attempt >= maxAttempts) throw e;
+                    // TODO: Logging
+                    System.err.println("Flood tile " + bounds + " failed, retrying: " + e.getMessage());
+                    Thread.sleep(retryDelayMillis << (attempt - 1));
+               }
+          }
+     }
+
+     /**
+      * Waits for every tile, even after one failed, so that the others still end up in the cache.
+      */
+     private static void awaitAll(List<Future<?>> tiles) throws IOException, InterruptedException {
+          IOException failure = null;
+          int failed = 0;
+          for (Future<?> tile : tiles) {
+               try {
+                    tile.get();
+               } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() instanceof PermanentFailure permanent ? permanent.failure : e.getCause();
+                    if (cause instanceof InterruptedException interrupted) throw interrupted;
+                    if (cause instanceof RuntimeException runtime) throw runtime;
+                    failed++;
+                    if (failure == null) {
+                         failure = cause instanceof IOException io ? io : new IOException(cause);
+                    } else {
+                         failure.addSuppressed(cause);
+                    }
+               }
+          }
+          if (failure != null) {
+               throw new IOException(failed + " of " + tiles.size() + " flood tiles failed: " + failure.getMessage(), failure);
+          }
+     }
+
+     private String tileUrl(Bounds bounds, int width, int height, String startDate, String endDate) {
+          return String.format(Locale.ROOT,
+                  "%s?SERVICE=WCS&VERSION=1.0.0&REQUEST=GetCoverage&COVERAGE=FLOODLAYER&FORMAT=image/png" +
+                          "&BBOX=%.9f,%.9f,%.9f,%.9f&CRS=EPSG:4326&TIME=%s/%s&WIDTH=%d&HEIGHT=%d",
+                  url, bounds.west(), bounds.south(), bounds.east(), bounds.north(), startDate, endDate, width, height);
+     }
+
+     private static boolean isFlooded(int rgb) {
+          int r = (rgb >> 16) & 0xFF;
+          int g = (rgb >> 8) & 0xFF;
+          int b = rgb & 0xFF;
+          return b > 128 && r < 100 && g < 100;
+     }
+
+     /**
+      * Rate limiting and overloaded or timed-out servers are worth another try.
+      */
+     private static boolean isTransient(int status) {
+          return status == 429 || status == 502 || status == 503 || status == 504;
+     }
+
+     /**
+      * Carries a failure past the retry loop, which only retries plain {@link IOException}s.
+      */
+     private static final class PermanentFailure extends RuntimeException {
+          private final IOException failure;
+
+          PermanentFailure(IOException failure) {
+               super(failure);
+               this.failure = failure;
+          }
+     }
+}
@@ -2,133 +2,105 @@ package org.tymi.ospflooding.backend.services;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.tymi.ospflooding.backend.models.FloodCache;
 import org.tymi.ospflooding.backend.models.FloodPoint;
+import org.tymi.ospflooding.backend.records.FloodDataChangedEvent;
 import org.tymi.ospflooding.backend.repositories.FloodCacheRepository;
 import org.tymi.ospflooding.backend.repositories.FloodPointRepository;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodMaskDelta;
+import org.tymi.ospflooding.backend.utilities.FloodPolygonBuilder;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.ObjectWriteContext;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.core.exc.JacksonIOException;
+import tools.jackson.core.json.JsonFactory;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.IntStream;
 
 @Service
 public class FloodService {
+     // the response stream belongs to the caller, closing a generator only flushes it
+     private static final JsonFactory JSON = JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET).build();
+
      private final FloodCacheRepository floodCacheRepository;
      private final FloodPointRepository floodPointRepository;
-     private final HttpClient httpClient;
-     private final Map<String, Set<Long>> floodedPointsCache = new ConcurrentHashMap<>();
+     private final ApplicationEventPublisher eventPublisher;
+     private final FloodCoverageService coverageService;
+     private final boolean exportPoints;
+     private final boolean incrementalRefresh;
+     private final Map<String, FloodMask> floodMasks = new ConcurrentHashMap<>();
 
      public FloodService(FloodCacheRepository floodCacheRepository,
-                         FloodPointRepository floodPointRepository) {
+                         FloodPointRepository floodPointRepository,
+                         ApplicationEventPublisher eventPublisher,
+                         FloodCoverageService coverageService,
+                         @Value("${flood.export-points:false}") boolean exportPoints,
+                         @Value("${flood.incremental-refresh:true}") boolean incrementalRefresh) {
           this.floodCacheRepository = floodCacheRepository;
           this.floodPointRepository = floodPointRepository;
-          this.httpClient = HttpClient.newBuilder()
-                  .connectTimeout(java.time.Duration.ofSeconds(30))
-                  .build();
+          this.eventPublisher = eventPublisher;
+          this.coverageService = coverageService;
+          this.exportPoints = exportPoints;
+          this.incrementalRefresh = incrementalRefresh;
      }
 
+     /**
+      * @return flood mask of the cache entry for exactly this request, empty if there is none
+      */
      @Transactional(readOnly = true)
-     public JSONObject getFloodedPoints(double south, double west, double north, double east,
-                                        String startDate, String endDate) {
+     public FloodMask getFloodMask(double south, double west, double north, double east,
+                                   String startDate, String endDate) {
           String cacheKey = FloodService.createCacheKey(south, west, north, east, startDate, endDate);
           Optional<FloodCache> cacheOpt = floodCacheRepository.findByCacheKey(cacheKey);
-          if (cacheOpt.isEmpty()) return createEmptyGeoJson();
-
-          FloodCache cache = cacheOpt.get();
-          List<FloodPoint> points = floodPointRepository.findByFloodCacheId(cache.getId());
-
-          if (points.isEmpty()) return createEmptyGeoJson();
-
-          JSONArray features = getPointObjects(points);
-
-          JSONObject geoJson = new JSONObject();
-          geoJson.put("type", "FeatureCollection");
-          geoJson.put("features", features);
-
-          return geoJson;
+          return cacheOpt.map(this::floodMask).orElseGet(FloodMask::empty);
      }
 
-     private static JSONArray getPointObjects(List<FloodPoint> points) {
-          JSONArray features = new JSONArray();
-          for (FloodPoint point : points) {
-               JSONObject feature = new JSONObject();
-               feature.put("type", "Feature");
-
-               JSONObject geometry = new JSONObject();
-               geometry.put("type", "Point");
-
-               JSONArray coordinates = new JSONArray();
-               coordinates.put(point.getLongitude());
-               coordinates.put(point.getLatitude());
-               geometry.put("coordinates", coordinates);
-
-               feature.put("geometry", geometry);
-
-               JSONObject properties = new JSONObject();
-               properties.put("flooded", true);
-               feature.put("properties", properties);
-
-               features.put(feature);
-          }
-          return features;
-     }
-
-     private JSONObject createPolygonFromCluster(List<int[]> cluster,
-                                                 double maxLat,
-                                                 double minLon,
-                                                 double cellSize) {
-          int minR = Integer.MAX_VALUE, maxR = Integer.MIN_VALUE;
-          int minC = Integer.MAX_VALUE, maxC = Integer.MIN_VALUE;
-
-          for (int[] cell : cluster) {
-               minR = Math.min(minR, cell[0]);
-               maxR = Math.max(maxR, cell[0]);
-               minC = Math.min(minC, cell[1]);
-               maxC = Math.max(maxC, cell[1]);
+     /**
+      * Writes every flooded cell of the mask as a GeoJSON point feature. The features are generated as
+      * they are written, so memory use does not grow with their number.
+      */
+     public static void writeFloodedPoints(FloodMask mask, OutputStream out) throws IOException {
+          try (JsonGenerator json = JSON.createGenerator(ObjectWriteContext.empty(), out)) {
+               json.writeStartObject();
+               json.writeStringProperty("type", "FeatureCollection");
+               json.writeName("features");
+               json.writeStartArray();
+               for (int row = 0; row < mask.rows(); row++) {
+                    double latitude = roundCoord(mask.latitude(row));
+                    for (int column = mask.nextFlooded(row, 0, mask.columns()); column < mask.columns();
+                         column = mask.nextFlooded(row, column + 1, mask.columns())) {
+                         json.writeStartObject();
+                         json.writeStringProperty("type", "Feature");
+                         json.writeName("geometry");
+                         json.writeStartObject();
+                         json.writeStringProperty("type", "Point");
+                         json.writeName("coordinates");
+                         json.writeStartArray();
+                         json.writeNumber(roundCoord(mask.longitude(column)));
+                         json.writeNumber(latitude);
+                         json.writeEndArray();
+                         json.writeEndObject();
+                         json.writeName("properties");
+                         json.writeStartObject();
+                         json.writeBooleanProperty("flooded", true);
+                         json.writeEndObject();
+                         json.writeEndObject();
+                    }
+               }
+               json.writeEndArray();
+               json.writeEndObject();
+          } catch (JacksonIOException e) {
+               throw e.getCause();
           }
-
-          double buffer = cellSize * 0.1;
-          double south = maxLat - (maxR + 1) * cellSize - buffer;
-          double north = maxLat - minR * cellSize + buffer;
-          double west = minLon + minC * cellSize - buffer;
-          double east = minLon + (maxC + 1) * cellSize + buffer;
-
-          JSONArray polygonCoords = new JSONArray();
-          JSONArray exteriorRing = new JSONArray();
-
-          exteriorRing.put(new JSONArray().put(west).put(north));  // NW
-          exteriorRing.put(new JSONArray().put(east).put(north));  // NE
-          exteriorRing.put(new JSONArray().put(east).put(south));  // SE
-          exteriorRing.put(new JSONArray().put(west).put(south));  // SW
-          exteriorRing.put(new JSONArray().put(west).put(north));  // Close ring
-
-          polygonCoords.put(exteriorRing);
-
-          JSONObject geometry = new JSONObject();
-          geometry.put("type", "Polygon");
-          geometry.put("coordinates", polygonCoords);
-
-          JSONObject feature = new JSONObject();
-          feature.put("type", "Feature");
-          feature.put("geometry", geometry);
-
-          JSONObject properties = new JSONObject();
-          properties.put("flooded", true);
-          properties.put("pointCount", cluster.size());
-          feature.put("properties", properties);
-
-          return feature;
      }
 
      /**
@@ -142,72 +114,32 @@ public class FloodService {
      }
 
 
-     private JSONObject createPolygonsFromPoints(List<FloodPoint> points, double resolution) {
-          if (points.isEmpty()) {
-               return createEmptyGeoJson();
-          }
-
-          // bounds
-          double minLat = points.getFirst().getLatitude();
-          double maxLat = points.getFirst().getLatitude();
-          double minLon = points.getFirst().getLongitude();
-          double maxLon = points.getFirst().getLongitude();
-
-          for (FloodPoint point : points) {
-               minLat = Math.min(minLat, point.getLatitude());
-               maxLat = Math.max(maxLat, point.getLatitude());
-               minLon = Math.min(minLon, point.getLongitude());
-               maxLon = Math.max(maxLon, point.getLongitude());
-          }
-
-          double cellSize = resolution * 3; // Larger cells for polygons
-          int cols = (int) Math.ceil((maxLon - minLon) / cellSize);
-          int rows = (int) Math.ceil((maxLat - minLat) / cellSize);
+     private static JSONObject createPolygonsFromMask(FloodMask mask, double tolerance) {
+          JSONArray features = new JSONArray();
+          for (FloodPolygonBuilder.Polygon polygon : FloodPolygonBuilder.build(mask, tolerance)) {
+               JSONArray polygonCoords = new JSONArray();
+               for (double[] ring : polygon.rings()) {
+                    JSONArray coordinates = new JSONArray();
+                    for (int i = 0; i < ring.length; i += 2) {
+                         coordinates.put(new JSONArray().put(roundCoord(ring[i])).put(roundCoord(ring[i + 1])));
+                    }
+                    polygonCoords.put(coordinates);
+               }
 
-          boolean[][] grid = new boolean[rows][cols];
+               JSONObject geometry = new JSONObject();
+               geometry.put("type", "Polygon");
+               geometry.put("coordinates", polygonCoords);
 
-          for (FloodPoint point : points) {
-               int col = (int) ((point.getLongitude() - minLon) / cellSize);
-               int row = (int) ((maxLat - point.getLatitude()) / cellSize); // Inverted for array indexing
+               JSONObject feature = new JSONObject();
+               feature.put("type", "Feature");
+               feature.put("geometry", geometry);
 
-               if (col >= 0 && col < cols && row >= 0 && row < rows) {
-                    grid[row][col] = true;
-               }
-          }
+               JSONObject properties = new JSONObject();
+               properties.put("flooded", true);
+               properties.put("pointCount", polygon.cellCount());
+               feature.put("properties", properties);
 
-          JSONArray features = new JSONArray();
-          boolean[][] visited = new boolean[rows][cols];
-
-          for (int r = 0; r < rows; r++) {
-               for (int c = 0; c < cols; c++) {
-                    if (grid[r][c] && !visited[r][c]) {
-                         List<int[]> cluster = new ArrayList<>();
-                         Queue<int[]> queue = new LinkedList<>();
-                         queue.add(new int[]{r, c});
-                         visited[r][c] = true;
-
-                         while (!queue.isEmpty()) {
-                              int[] cell = queue.poll();
-                              cluster.add(cell);
-
-                              int[][] directions = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
-                              for (int[] dir : directions) {
-                                   int nr = cell[0] + dir[0];
-                                   int nc = cell[1] + dir[1];
-                                   if (nr >= 0 && nr < rows && nc >= 0 && nc < cols &&
-                                           grid[nr][nc] && !visited[nr][nc]) {
-                                        visited[nr][nc] = true;
-                                        queue.add(new int[]{nr, nc});
-                                   }
-                              }
-                         }
-
-                         if (!cluster.isEmpty()) {
-                              JSONObject polygon = createPolygonFromCluster(cluster, maxLat, minLon, cellSize);
-                              features.put(polygon);
-                         }
-                    }
-               }
+               features.put(feature);
           }
 
           JSONObject geoJson = new JSONObject();
@@ -220,6 +152,16 @@ public class FloodService {
      @Transactional(readOnly = true)
      public JSONObject getFloodedPolygons(double south, double west, double north, double east,
                                           String startDate, String endDate) {
+          return getFloodedPolygons(south, west, north, east, startDate, endDate, null);
+     }
+
+     /**
+      * @param zoom map zoom level the polygons are shown at, simplified to about half a screen pixel; null
+      *             keeps every corner of the flooded cells
+      */
+     @Transactional(readOnly = true)
+     public JSONObject getFloodedPolygons(double south, double west, double north, double east,
+                                          String startDate, String endDate, Integer zoom) {
 
           Optional<FloodCache> cacheOpt = floodCacheRepository.findByBoundingBoxAndDateRange(
                   south, west, north, east, startDate, endDate);
@@ -228,149 +170,154 @@ public class FloodService {
                return createEmptyGeoJson();
           }
 
-          FloodCache cache = cacheOpt.get();
-          List<FloodPoint> points = floodPointRepository.findByFloodCacheId(cache.getId());
-
-          if (points.isEmpty()) {
-               return createEmptyGeoJson();
-          }
-
-          return createPolygonsFromPoints(points, cache.getResolutionDegrees());
+          // degrees per pixel of a 256 pixel tile at the equator
+          double tolerance = zoom == null ? 0 : 360.0 / (256L << Math.max(0, Math.min(30, zoom))) / 2;
+          return createPolygonsFromMask(floodMask(cacheOpt.get()), tolerance);
      }
 
+     /**
+      * @param applied mask the flood data currently in use was built from; a fresh cache entry with the
+      *                same cells is not announced again
+      */
      @Transactional
      public void downloadAndParseFloodZones(double south, double west, double north, double east,
-                                            String startDate, String endDate) throws IOException, InterruptedException {
+                                            String startDate, String endDate, FloodMask applied) throws IOException, InterruptedException {
           LocalDateTime twentyFourHoursAgo = LocalDateTime.now().minusHours(24);
-          Optional<FloodCache> freshCache = floodCacheRepository.findBySouthAndWestAndNorthAndEastAndLastUpdatedAfter(
-                  south, west, north, east, twentyFourHoursAgo);
+          Optional<FloodCache> freshCache = floodCacheRepository.findWithDataByBoundingBoxUpdatedAfter(
+                  south, west, north, east, twentyFourHoursAgo).stream().findFirst();
 
           // TODO: Logging
           if (freshCache.isPresent()) {
                System.out.println("Using cached flood data (last updated: " +
                        freshCache.get().getLastUpdated() + ")");
-               loadFromCache(freshCache.get());
+               FloodMask cached = loadFromCache(freshCache.get());
+               if (!cached.sameCellsAs(applied)) {
+                    eventPublisher.publishEvent(new FloodDataChangedEvent(south, west, north, east));
+               }
                return;
           }
 
+          FloodMask mask = coverageService.download(south, west, north, east, "2025-12-04", "2025-12-05");
+
           // stale cache (>24h)
           Optional<FloodCache> staleCache = floodCacheRepository.findByBoundingBoxAndDateRange(
                   south, west, north, east, startDate, endDate);
 
+          Optional<FloodCache> previous = incrementalRefresh
+                  ? floodCacheRepository.findByBoundingBoxOrderByLastUpdatedDesc(south, west, north, east).stream().findFirst()
+                  : Optional.empty();
+          if (previous.isPresent() && floodMask(previous.get()).sameGridAs(mask)) {
+               if (staleCache.isPresent() && !staleCache.get().getId().equals(previous.get().getId())) {
+                    deleteCache(staleCache.get());
+               }
+               FloodMaskDelta delta = FloodMaskDelta.between(floodMask(previous.get()), mask);
+               // TODO: Logging
+               System.out.println("Flood data changed in " + delta.changedTiles() + " tiles: " + delta.floodedCount()
+                       + " cells flooded, " + delta.driedCount() + " dried");
+               updateCache(previous.get(), startDate, endDate, mask, delta);
+               eventPublisher.publishEvent(new FloodDataChangedEvent(south, west, north, east, delta));
+               return;
+          }
+
           if (staleCache.isPresent()) {
                // TODO: Logging
-               System.out.println("Cache is stale (>24h), updating flood data...");
-               floodPointRepository.deleteByFloodCacheId(staleCache.get().getId());
-               floodCacheRepository.delete(staleCache.get());
+               System.out.println("Cache is stale (>24h), replacing flood data...");
+               deleteCache(staleCache.get());
           } else {
                // TODO: Logging
-               System.out.println("No cache found, downloading new flood data...");
+               System.out.println("No cache found, storing new flood data...");
           }
 
-          Set<FloodPoint> floodPoints = downloadAndProcessFloodData(south, west, north, east, startDate, endDate);
+          FloodCache floodCache = new FloodCache(south, west, north, east, startDate, endDate, FloodCoverageService.RESOLUTION_DEGREES);
+          floodCache.initCacheKey();
+          floodCache.setPointCount(mask.count());
+          floodCache.setLastUpdated(LocalDateTime.now());
+          // the whole mask is a single row
+          floodCache.setFloodMask(mask.encode());
+          FloodCache savedCache = floodCacheRepository.save(floodCache);
+          if (exportPoints) exportPoints(savedCache, mask);
 
-          String cacheKey = createCacheKey(south, west, north, east, startDate, endDate);
-          Set<Long> pointKeys = new HashSet<>();
-          for (FloodPoint point : floodPoints) {
-               pointKeys.add(point.getKey());
-          }
-          floodedPointsCache.put(cacheKey, pointKeys);
+          floodMasks.put(savedCache.getCacheKey(), mask);
+          eventPublisher.publishEvent(new FloodDataChangedEvent(south, west, north, east));
      }
 
-     private Set<FloodPoint> downloadAndProcessFloodData(double south, double west, double north, double east,
-                                                         String startDate, String endDate) throws IOException, InterruptedException {
-          String url = String.format(Locale.ROOT,
-                  "https://services.sentinel-hub.com/ogc/wcs/79251ab1-0e04-4e55-a9ee-96e4a422ab01" +
-                          "?SERVICE=WCS&VERSION=1.0.0&REQUEST=GetCoverage&COVERAGE=FLOODLAYER&FORMAT=image/png" +
-                          "&BBOX=%f,%f,%f,%f&CRS=EPSG:4326&TIME=%s/%s&RESX=0.00005&RESY=0.00005",
-                  west, south, east, north, "2025-12-04", "2025-12-05");
-
-          System.out.println("Downloading flood data from: " + url);
-
-          HttpRequest request = HttpRequest.newBuilder()
-                  .uri(URI.create(url))
-                  .header("Accept", "image/png")
-                  .GET()
-                  .build();
-
-          HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
-
-          if (response.statusCode() != 200) {
-               // TODO: Logging
-               throw new IOException("Failed to download flood data. Status: " + response.statusCode() +
-                       ", Body: " + new String(response.body()));
+     /**
+      * Moves an entry to the new date range in place. Its mask is only rewritten if a tile changed.
+      */
+     private void updateCache(FloodCache floodCache, String startDate, String endDate, FloodMask mask, FloodMaskDelta delta) {
+          floodMasks.remove(floodCache.getCacheKey());
+          floodCache.setStartDate(startDate);
+          floodCache.setEndDate(endDate);
+          floodCache.initCacheKey();
+          floodCache.setLastUpdated(LocalDateTime.now());
+          if (!delta.isEmpty()) {
+               floodCache.setPointCount(mask.count());
+               floodCache.setFloodMask(mask.encode());
           }
-
-          BufferedImage image;
-          try {
-               image = ImageIO.read(new ByteArrayInputStream(response.body()));
-          } catch (Exception e) {
-               String responseBody = new String(response.body());
-               if (responseBody.contains("Error") || responseBody.contains("Exception")) {
-                    throw new IOException("Sentinel Hub returned error: " + responseBody);
-               }
-               throw new IOException("Failed to read flood image. Response might not be a valid PNG.");
+          FloodCache savedCache = floodCacheRepository.save(floodCache);
+          if (exportPoints && !delta.isEmpty()) {
+               floodPointRepository.deleteByFloodCacheId(savedCache.getId());
+               exportPoints(savedCache, mask);
           }
+          floodMasks.put(savedCache.getCacheKey(), mask);
+     }
 
-          if (image == null) {
-               throw new IOException("Failed to read flood image. ImageIO.read returned null.");
-          }
+     private void deleteCache(FloodCache floodCache) {
+          floodPointRepository.deleteByFloodCacheId(floodCache.getId());
+          floodCacheRepository.delete(floodCache);
+          // before anything takes over its cache key, deletes are flushed last otherwise
+          floodCacheRepository.flush();
+          floodMasks.remove(floodCache.getCacheKey());
+     }
 
-          int width = image.getWidth();
-          int height = image.getHeight();
+     private void exportPoints(FloodCache floodCache, FloodMask mask) {
+          List<FloodPoint> floodPoints = new ArrayList<>(mask.count());
+          mask.forEachFlooded((row, column) ->
+                  floodPoints.add(new FloodPoint(roundCoord(mask.latitude(row)), roundCoord(mask.longitude(column)), floodCache)));
+          floodPointRepository.saveAll(floodPoints);
+     }
 
-          double latStep = (north - south) / height;
-          double lonStep = (east - west) / width;
+     @Transactional(readOnly = true)
+     protected FloodMask loadFromCache(FloodCache floodCache) {
+          FloodMask mask = readMask(floodCache);
+          floodMasks.put(floodCache.getCacheKey(), mask);
 
-          Set<FloodPoint> floodPoints = Collections.synchronizedSet(new HashSet<>());
-          final int sampleRate = 2;
+          // TODO: Logging
+          System.out.println("Loaded " + mask.count() + " flood points from database cache");
+          return mask;
+     }
 
-          FloodCache floodCache = new FloodCache(south, west, north, east, startDate, endDate, 0.00005);
-          floodCache.initCacheKey();
-          floodCache.setPointCount(floodPoints.size());
-          floodCache.setLastUpdated(LocalDateTime.now());
-          floodCache = floodCacheRepository.save(floodCache);
-
-          FloodCache finalFloodCache = floodCache;
-          IntStream.range(0, height).parallel().forEach(y -> {
-               if (y % sampleRate != 0) return;
-               double lat = north - y * latStep;
-               for (int x = 0; x < width; x += sampleRate) {
-                    int rgb = image.getRGB(x, y) & 0xFFFFFF;
-                    if (isFlooded(rgb)) {
-                         double lon = west + x * lonStep;
-                         double roundedLat = Math.round(lat * 1_000_000.0) / 1_000_000.0;
-                         double roundedLon = Math.round(lon * 1_000_000.0) / 1_000_000.0;
-                         floodPoints.add(new FloodPoint(roundedLat, roundedLon, finalFloodCache));
-                    }
-               }
-          });
-          floodPointRepository.saveAll(floodPoints);
+     /**
+      * @return the mask of a cache entry, read from the database if it is not in memory
+      */
+     private FloodMask floodMask(FloodCache floodCache) {
+          return floodMasks.computeIfAbsent(floodCache.getCacheKey(), key -> readMask(floodCache));
+     }
 
-          return floodPoints;
+     private FloodMask readMask(FloodCache floodCache) {
+          if (floodCache.getFloodMask() != null) return FloodMask.decode(floodCache.getFloodMask());
+          // entries from before the mask was stored only have their points
+          return fromPoints(floodCache, floodPointRepository.findByFloodCacheId(floodCache.getId()));
      }
 
-     @Transactional(readOnly = true)
-     protected void loadFromCache(FloodCache floodCache) {
-          List<FloodPoint> points = floodPointRepository.findByFloodCacheId(floodCache.getId());
+     private static FloodMask fromPoints(FloodCache floodCache, List<FloodPoint> points) {
+          double cellSize = floodCache.getResolutionDegrees() * FloodCoverageService.SAMPLE_RATE;
+          double north = floodCache.getNorth();
+          double west = floodCache.getWest();
+          int rows = (int) Math.ceil((north - floodCache.getSouth()) / cellSize) + 1;
+          int columns = (int) Math.ceil((floodCache.getEast() - west) / cellSize) + 1;
 
-          Set<Long> pointKeys = new HashSet<>();
+          FloodMask mask = new FloodMask(north, west, cellSize, cellSize, rows, columns);
           for (FloodPoint point : points) {
-               pointKeys.add(point.getKey());
+               long row = Math.round((north - point.getLatitude()) / cellSize);
+               long column = Math.round((point.getLongitude() - west) / cellSize);
+               if (row >= 0 && row < rows && column >= 0 && column < columns) mask.set((int) row, (int) column);
           }
-
-          String cacheKey = floodCache.getCacheKey();
-          floodedPointsCache.put(cacheKey, pointKeys);
-
-          // TODO: Logging
-          System.out.println("Loaded " + points.size() + " flood points from database cache");
+          return mask;
      }
 
-     private boolean isFlooded(int rgb) {
-          int r = (rgb >> 16) & 0xFF;
-          int g = (rgb >> 8) & 0xFF;
-          int b = rgb & 0xFF;
-          return b > 128 && r < 100 && g < 100;
+     private static double roundCoord(double value) {
+          return Math.round(value * 1_000_000.0) / 1_000_000.0;
      }
 
      public static String createCacheKey(double south, double west, double north, double east,
@@ -384,7 +331,7 @@ public class FloodService {
           Optional<FloodCache> cache = floodCacheRepository.findByBoundingBoxAndDateRange(
                   south, west, north, east, startDate, endDate);
 
-          return cache.filter(floodCache -> floodPointRepository.existsInCache(floodCache.getId(), lat, lon)).isPresent();
+          return cache.filter(floodCache -> floodMask(floodCache).contains(lat, lon)).isPresent();
      }
 
      @Transactional
@@ -396,24 +343,21 @@ public class FloodService {
                   .toList();
 
           int count = oldCaches.size();
-          for (FloodCache cache : oldCaches) {
-               floodPointRepository.deleteByFloodCacheId(cache.getId());
-               floodCacheRepository.delete(cache);
-          }
+          for (FloodCache cache : oldCaches) deleteCache(cache);
 
           // TODO: Logging
           System.out.println("Cleaned up " + count + " old cache entries");
           return count;
      }
-     public static int toIntCoord(double value) {
-          return (int) Math.round(value * 1_000_000.0);
-     }
-
-     public static long pack(int latInt, int lonInt) {
-          return (((long) latInt) << 32) | (lonInt & 0xFFFFFFFFL);
-     }
 
-     public Set<Long> loadFloodedPoints(double south, double west, double north, double east) {
+     /**
+      * Only reads: the network is installed before the first download, and an entry written here would pass
+      * for fresh data and stop that download.
+      *
+      * @return flood mask of the last 24 hours for the bounding box, empty if there is no data yet
+      */
+     @Transactional(readOnly = true)
+     public FloodMask loadFloodMask(double south, double west, double north, double east) {
           // last-24h date range
           LocalDateTime end = LocalDateTime.now();
           LocalDateTime start = end.minusHours(24);
@@ -422,38 +366,18 @@ public class FloodService {
 
           String cacheKey = FloodCache.buildCacheKey(south, west, north, east, startDate, endDate);
 
-          Optional<FloodCache> cachedOpt = floodCacheRepository.findByCacheKey(cacheKey);
-          if (cachedOpt.isPresent()) {
-               FloodCache cached = cachedOpt.get();
-               Set<Long> keys = new HashSet<>(cached.getPointCount() == 0 ? 1024 : cached.getPointCount());
-               for (FloodPoint p : cached.getFloodPoints()) {
-                    keys.add(pack(toIntCoord(p.getLatitude()), toIntCoord(p.getLongitude())));
-               }
-               return keys;
-          }
+          Optional<FloodCache> cachedOpt = floodCacheRepository.findByCacheKey(cacheKey).filter(FloodCache::hasData);
+          if (cachedOpt.isPresent()) return floodMask(cachedOpt.get());
 
           Optional<FloodCache> maybe = floodCacheRepository.findAll().stream()
                   .filter(fc -> Math.abs(fc.getSouth() - south) < 0.01
                           && Math.abs(fc.getWest() - west) < 0.01
                           && Math.abs(fc.getNorth() - north) < 0.01
                           && Math.abs(fc.getEast() - east) < 0.01
-                          && (fc.getLastUpdated() != null && !fc.isStale()))
+                          && (fc.getLastUpdated() != null && !fc.isStale())
+                          && fc.hasData())
                   .findFirst();
 
-          if (maybe.isPresent()) {
-               FloodCache cached = maybe.get();
-               Set<Long> keys = new HashSet<>(cached.getPointCount() == 0 ? 1024 : cached.getPointCount());
-               for (FloodPoint p : cached.getFloodPoints()) keys.add(pack(toIntCoord(p.getLatitude()), toIntCoord(p.getLongitude())));
-
-               floodedPointsCache.put(cached.getCacheKey(), keys);
-               return keys;
-          }
-
-          FloodCache newCache = new FloodCache(south, west, north, east, startDate, endDate, 0.001);
-          newCache.initCacheKey();
-          newCache.setLastUpdated(LocalDateTime.now());
-          floodCacheRepository.save(newCache);
-
-          return Collections.emptySet();
+          return maybe.map(this::floodMask).orElseGet(FloodMask::empty);
      }
 }
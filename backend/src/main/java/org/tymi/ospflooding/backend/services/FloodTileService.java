@@ -0,0 +1,63 @@
+package org.tymi.ospflooding.backend.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.tymi.ospflooding.backend.records.FloodDataChangedEvent;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodTileCache;
+import org.tymi.ospflooding.backend.utilities.FloodTileRenderer;
+
+import java.util.zip.CRC32C;
+
+/**
+ * Serves the flood data the road network currently routes around as vector tiles, rendered on demand
+ * and cached until the flood data under them changes.
+ */
+@Service
+public class FloodTileService {
+     private final RoadNetworkService roadNetworkService;
+     private final FloodTileCache tileCache;
+
+     public FloodTileService(RoadNetworkService roadNetworkService,
+                             @Value("${flood.tiles.cache.max-bytes:33554432}") long maxCacheBytes) {
+          this.roadNetworkService = roadNetworkService;
+          this.tileCache = new FloodTileCache(maxCacheBytes);
+     }
+
+     public FloodTileCache.Tile getTile(int z, int x, int y) {
+          FloodMask mask = roadNetworkService.getSnapshot().floodFlags().floodMask();
+          FloodTileCache.Tile tile = tileCache.get(z, x, y, mask);
+          if (tile != null) return tile;
+
+          byte[] data = FloodTileRenderer.render(mask, z, x, y);
+          tile = new FloodTileCache.Tile(data, etag(data));
+          tileCache.put(z, x, y, mask, tile);
+          return tile;
+     }
+
+     /**
+      * Drops the tiles the change shows on. Tiles of a mask that is not current yet or anymore are
+      * re-rendered on their next request either way, whichever listener sees the event first.
+      */
+     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+     public void onFloodDataChanged(FloodDataChangedEvent event) {
+          if (event.delta() == null) {
+               tileCache.clear();
+               return;
+          }
+          int dropped = tileCache.apply(event.delta());
+          // TODO: Logging
+          System.out.println("Flood data changed, " + dropped + " cached flood tiles dropped, " + tileCache.size() + " kept");
+     }
+
+     /**
+      * Derived from the content, so a tile the change did not affect keeps its ETag.
+      */
+     private static String etag(byte[] data) {
+          CRC32C crc = new CRC32C();
+          crc.update(data);
+          return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length) + "\"";
+     }
+}
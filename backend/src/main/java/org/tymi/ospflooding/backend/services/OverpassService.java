@@ -0,0 +1,158 @@
+package org.tymi.ospflooding.backend.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.tymi.ospflooding.backend.utilities.OverpassSegments;
+import org.tymi.ospflooding.backend.utilities.OverpassWayReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the highways of a bounding box from the Overpass API. Large boxes are split into tiles that
+ * are fetched and parsed concurrently, each on its own virtual thread, while the caller consumes finished
+ * tiles in order; at most {@code overpass.max-concurrent-requests} tiles are in flight at once, which also
+ * bounds how many parsed tiles wait in memory.
+ */
+@Service
+public class OverpassService {
+     @FunctionalInterface
+     public interface TileHandler {
+          void tile(OverpassSegments segments) throws IOException;
+     }
+
+     private final String url;
+     private final double tileDegrees;
+     private final int maxConcurrentRequests;
+     private final int maxAttempts;
+     private final long retryDelayMillis;
+
+     public OverpassService(@Value("${overpass.url:https://overpass-api.de/api/interpreter}") String url,
+                            @Value("${overpass.tile-degrees:0.1}") double tileDegrees,
+                            @Value("${overpass.max-concurrent-requests:2}") int maxConcurrentRequests,
+                            @Value("${overpass.max-attempts:4}") int maxAttempts,
+                            @Value("${overpass.retry-delay-ms:2000}") long retryDelayMillis) {
+          this.url = url;
+          this.tileDegrees = tileDegrees;
+          this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+          this.maxAttempts = Math.max(1, maxAttempts);
+          this.retryDelayMillis = retryDelayMillis;
+     }
+
+     /**
+      * Hands the segments of every tile to the handler, on the calling thread and in tile order. A way
+      * crossing a tile border is returned by every tile it touches, with its full geometry each time.
+      */
+     public void download(double south, double west, double north, double east, TileHandler handler)
+             throws IOException, InterruptedException {
+          int rows = Math.max(1, (int) Math.ceil((north - south) / tileDegrees - 1e-9));
+          int columns = Math.max(1, (int) Math.ceil((east - west) / tileDegrees - 1e-9));
+          int tiles = rows * columns;
+
+          try (HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build()) {
+               try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    Deque<Future<OverpassSegments>> inFlight = new ArrayDeque<>();
+                    int submitted = 0;
+                    try {
+                         for (int consumed = 0; consumed < tiles; consumed++) {
+                              while (submitted < tiles && inFlight.size() < maxConcurrentRequests) {
+                                   int row = submitted / columns, column = submitted % columns;
+                                   // derived from the indices rather than accumulated, so neighbours share their border exactly
+                                   double tileSouth = south + (north - south) * row / rows;
+                                   double tileNorth = south + (north - south) * (row + 1) / rows;
+                                   double tileWest = west + (east - west) * column / columns;
+                                   double tileEast = west + (east - west) * (column + 1) / columns;
+                                   inFlight.add(executor.submit(() -> fetch(client, tileSouth, tileWest, tileNorth, tileEast)));
+                                   submitted++;
+                              }
+                              handler.tile(await(inFlight.poll()));
+                         }
+                    } finally {
+                         for (Future<OverpassSegments> pending : inFlight) pending.cancel(true);
+                    }
+               }
+          }
+     }
+
+     private OverpassSegments fetch(HttpClient client, double south, double west, double north, double east)
+             throws IOException, InterruptedException {
+          String query = "[out:json];way[\"highway\"](" + south + "," + west + "," + north + "," + east + ");out geom;";
+          HttpRequest request = HttpRequest.newBuilder()
+                  .uri(URI.create(url + "?data=" + URLEncoder.encode(query, StandardCharsets.UTF_8)))
+                  .GET()
+                  .build();
+
+          OverpassSegments segments = new OverpassSegments();
+          for (int attempt = 1; ; attempt++) {
+               try {
+                    HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                    try (InputStream body = response.body()) {
+                         int status = response.statusCode();
+                         if (status != 200) {
+                              IOException failure = new IOException("Overpass request failed with HTTP " + status);
+                              if (!isTransient(status)) throw new PermanentFailure(failure);
+                              throw failure;
+                         }
+                         // segments go straight into primitive arrays, the response is never held in memory
+                         new OverpassWayReader().read(body, segments::add);
+                         return segments;
+                    }
+               } catch (IOException e) {
+                    if (attempt >= maxAttempts) throw e;
+                    // TODO: Logging
+                    System.err.println("Overpass tile (" + south + "," + west + "," + north + "," + east + ") failed, retrying: "
+                            + e.getMessage());
+                    segments.clear();
+                    Thread.sleep(retryDelayMillis << (attempt - 1));
+               }
+          }
+     }
+
+     private static OverpassSegments await(Future<OverpassSegments> tile) throws IOException, InterruptedException {
+          try {
+               return tile.get();
+          } catch (ExecutionException e) {
+               Throwable cause = e.getCause();
+               if (cause instanceof PermanentFailure permanent) throw permanent.failure;
+               if (cause instanceof IOException io) throw io;
+               if (cause instanceof InterruptedException interrupted) throw interrupted;
+               if (cause instanceof RuntimeException runtime) throw runtime;
+               throw new IOException(cause);
+          } catch (CancellationException e) {
+               throw new InterruptedException("Overpass download cancelled");
+          }
+     }
+
+     /**
+      * Rate limiting and overloaded or timed-out servers are worth another try.
+      */
+     private static boolean isTransient(int status) {
+          return status == 429 || status == 502 || status == 503 || status == 504;
+     }
+
+     /**
+      * Carries a failure past the retry loop, which only retries plain {@link IOException}s.
+      */
+     private static final class PermanentFailure extends RuntimeException {
+          private final IOException failure;
+
+          PermanentFailure(IOException failure) {
+               super(failure);
+               this.failure = failure;
+          }
+     }
+}
@@ -1,62 +1,114 @@
 package org.tymi.ospflooding.backend.services;
-import org.tymi.ospflooding.backend.records.Edge;
-import org.tymi.ospflooding.backend.records.Node;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.tymi.ospflooding.backend.graph.AlternativeRoutes;
+import org.tymi.ospflooding.backend.graph.Assignment;
+import org.tymi.ospflooding.backend.graph.ContractionHierarchy;
+import org.tymi.ospflooding.backend.graph.DistanceMatrix;
+import org.tymi.ospflooding.backend.graph.EdgeFloodFlags;
+import org.tymi.ospflooding.backend.graph.EdgePenalty;
+import org.tymi.ospflooding.backend.graph.GraphSnapshotFile;
+import org.tymi.ospflooding.backend.graph.HierarchyMetric;
+import org.tymi.ospflooding.backend.graph.Isochrone;
+import org.tymi.ospflooding.backend.graph.NearestFacilitySearch;
+import org.tymi.ospflooding.backend.graph.RoadGraph;
+import org.tymi.ospflooding.backend.graph.RoadGraphBuilder;
+import org.tymi.ospflooding.backend.graph.RoadNetworkSnapshot;
+import org.tymi.ospflooding.backend.graph.RoutingAlgorithm;
+import org.tymi.ospflooding.backend.graph.SearchResult;
+import org.tymi.ospflooding.backend.graph.SearchWorkspace;
+import org.tymi.ospflooding.backend.graph.SearchWorkspacePool;
+import org.tymi.ospflooding.backend.graph.ShortestPathSearch;
+import org.tymi.ospflooding.backend.graph.SnapResult;
+import org.tymi.ospflooding.backend.graph.SpatialIndex;
 import org.tymi.ospflooding.backend.models.RoadSegment;
-import org.tymi.ospflooding.backend.records.Weight;
+import org.tymi.ospflooding.backend.records.Bounds;
+import org.tymi.ospflooding.backend.records.FloodDataChangedEvent;
+import org.tymi.ospflooding.backend.records.SegmentFingerprint;
+import org.tymi.ospflooding.backend.repositories.RoadSegmentBulkWriter;
+import org.tymi.ospflooding.backend.repositories.RoadSegmentFingerprints;
 import org.tymi.ospflooding.backend.repositories.RoadSegmentRepository;
-import org.tymi.ospflooding.backend.records.NodeDistance;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodMaskDelta;
+import org.tymi.ospflooding.backend.utilities.LongIntHashMap;
 import org.tymi.ospflooding.backend.utilities.PathRecord;
+import org.tymi.ospflooding.backend.utilities.RouteCache;
+import org.tymi.ospflooding.backend.utilities.RouteResult;
+import org.tymi.ospflooding.backend.utilities.ShelterAssignment;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static org.tymi.ospflooding.backend.services.FloodService.pack;
-import static org.tymi.ospflooding.backend.services.FloodService.toIntCoord;
 import static org.tymi.ospflooding.backend.utilities.Algorithm.Haversine;
-import static org.tymi.ospflooding.backend.utilities.Algorithm.LatLonToXY;
-import static org.tymi.ospflooding.backend.utilities.Algorithm.Swapped;
 
 @Service
 public class RoadNetworkService {
+     // isochrones this large cover enough of the network to be worth delta-stepping on all cores
+     private static final double PARALLEL_ISOCHRONE_METRES = 10_000;
+     private static final double DELTA_STEPPING_BUCKET_METRES = 250;
+
      private final RoadSegmentRepository roadRepo;
+     private final RoadSegmentBulkWriter roadWriter;
+     private final RoadSegmentFingerprints roadFingerprints;
+     private final OverpassService overpassService;
      private final FloodService floodService;
 
      private final AtomicInteger edgeIdCounter = new AtomicInteger(1);
 
-     public final Map<Integer, Node> nodes = new HashMap<>();
-     private final Map<Integer, Edge> edges = new HashMap<>();
-     private final Map<Integer, List<Integer>> adjacency = new HashMap<>();
-
-     private static final Comparator<NodeDistance> distanceComparator =
-             Comparator.<NodeDistance>comparingDouble(nd -> nd.weight().floodPenalty())
-                     .thenComparingDouble(nd -> nd.weight().length());
-
-     public RoadNetworkService(RoadSegmentRepository roadRepo, FloodService floodService) {
+     private final AtomicReference<RoadNetworkSnapshot> snapshot = new AtomicReference<>(RoadNetworkSnapshot.EMPTY);
+     private final SearchWorkspacePool workspaces = new SearchWorkspacePool();
+     private final RoutingAlgorithm defaultAlgorithm;
+     private final RouteCache routeCache;
+     // null if graph snapshots are disabled
+     private final Path graphSnapshotPath;
+
+     public RoadNetworkService(RoadSegmentRepository roadRepo, RoadSegmentBulkWriter roadWriter,
+                               RoadSegmentFingerprints roadFingerprints, OverpassService overpassService, FloodService floodService,
+                               @Value("${routing.algorithm:dijkstra}") String defaultAlgorithm,
+                               @Value("${routing.cache.max-bytes:67108864}") long routeCacheBytes,
+                               @Value("${graph.snapshot.path:}") String graphSnapshotPath) {
           this.roadRepo = roadRepo;
+          this.roadWriter = roadWriter;
+          this.roadFingerprints = roadFingerprints;
+          this.overpassService = overpassService;
           this.floodService = floodService;
+          this.defaultAlgorithm = RoutingAlgorithm.fromName(defaultAlgorithm);
+          this.routeCache = new RouteCache(routeCacheBytes);
+          this.graphSnapshotPath = graphSnapshotPath.isBlank() ? null : Path.of(graphSnapshotPath);
+     }
+
+     public RoutingAlgorithm getDefaultAlgorithm() {
+          return defaultAlgorithm;
+     }
+
+     /**
+      * @return the current road network; hold on to it for the whole request instead of calling this again
+      */
+     public RoadNetworkSnapshot getSnapshot() {
+          return snapshot.get();
      }
 
      public void loadOSMRoads(double south, double west, double north, double east) throws UncheckedIOException, InterruptedException, IOException {
-          if (roadRepo.count() > 0) {
-               edges.clear();
-               nodes.clear();
-               adjacency.clear();
+          RoadGraphBuilder builder = new RoadGraphBuilder();
+
+          long storedSegments = roadRepo.count();
+          if (storedSegments > 0 && loadGraphSnapshot()) return;
+
+          if (storedSegments > 0) {
                edgeIdCounter.set(1);
 
                for (RoadSegment seg : roadRepo.findAll()) {
-                    seg.parseCoordinates();
                     JSONArray coords = new JSONArray(seg.getCoordinates());
                     if (coords.length() < 2) continue;
                     double lat1 = coords.getJSONArray(0).getDouble(0);
@@ -64,209 +116,444 @@ public class RoadNetworkService {
                     double lat2 = coords.getJSONArray(1).getDouble(0);
                     double lon2 = coords.getJSONArray(1).getDouble(1);
 
-                    int n1 = nodeIdFor(lat1, lon1);
-                    int n2 = nodeIdFor(lat2, lon2);
-
-                    Node node1 = nodes.computeIfAbsent(n1, k -> new Node(n1, lat1, lon1));
-                    Node node2 = nodes.computeIfAbsent(n2, k -> new Node(n2, lat2, lon2));
+                    int node1 = builder.node(lat1, lon1);
+                    int node2 = builder.node(lat2, lon2);
 
                     int id = seg.getId();
                     double length = seg.getLength();
-                    Edge e = new Edge(id, node1.id(), node2.id(), length, id, coords);
-                    edges.put(id, e);
-                    adjacency.computeIfAbsent(node1.id(), k -> new ArrayList<>()).add(id);
+                    builder.addEdge(node1, node2, length, id, id);
 
                     edgeIdCounter.updateAndGet(curr -> Math.max(curr, id + 1));
                }
+               install(builder.build());
+               writeGraphSnapshot();
                return;
           }
 
-          String query = "[out:json];way[\"highway\"](" + south + "," + west + "," + north + "," + east + ");out geom;";
-          String url = "https://overpass-api.de/api/interpreter?data=" + URLEncoder.encode(query, StandardCharsets.UTF_8);
-
-          try (HttpClient client = HttpClient.newHttpClient()) {
-               HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
-               HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+          // ways crossing a tile border come with every tile they touch; the first tile wins, and nodes on
+          // the border merge because they have the same coordinates in both tiles
+          LongIntHashMap stitchedWays = new LongIntHashMap();
+          try (RoadSegmentBulkWriter.Session writer = roadWriter.open()) {
+               overpassService.download(south, west, north, east, tile -> {
+                    for (int i = 0; i < tile.count(); i++) {
+                         long wayId = tile.wayId(i);
+                         if (stitchedWays.containsKey(wayId)) continue;
+
+                         double lat1 = tile.lat1(i), lon1 = tile.lon1(i);
+                         double lat2 = tile.lat2(i), lon2 = tile.lon2(i);
+                         int nodeA = builder.node(lat1, lon1);
+                         int nodeB = builder.node(lat2, lon2);
+                         double length = Haversine(lat1, lon1, lat2, lon2);
+                         int edgeId = edgeIdCounter.getAndIncrement();
 
-               JSONArray elements = new JSONObject(response.body()).getJSONArray("elements");
+                         builder.addEdge(nodeA, nodeB, length, edgeId, (int) wayId);
+                         // written on the writer's own thread while the next tiles download
+                         writer.add(edgeId, length, "[[" + lat1 + "," + lon1 + "],[" + lat2 + "," + lon2 + "]]");
+                    }
+                    for (int i = 0; i < tile.count(); i++) stitchedWays.putIfAbsent(tile.wayId(i), 0);
+               });
+          }
+          install(builder.build());
+          writeGraphSnapshot();
+     }
 
-               Map<String, Integer> coordinateHashToNodeId = new HashMap<>();
+     /**
+      * Installs the preprocessed network from the snapshot file, unless it is missing, unreadable or does
+      * not match the road segments in the database.
+      *
+      * @return true if the network was installed
+      */
+     private boolean loadGraphSnapshot() {
+          if (graphSnapshotPath == null || !Files.isRegularFile(graphSnapshotPath)) return false;
+
+          GraphSnapshotFile.Contents contents;
+          try {
+               contents = GraphSnapshotFile.read(graphSnapshotPath, roadFingerprints.read());
+          } catch (IOException e) {
+               // TODO: Logging
+               System.err.println("Ignoring graph snapshot: " + e.getMessage());
+               return false;
+          }
+          if (contents == null) {
+               System.out.println("Graph snapshot is out of date, rebuilding it from the database");
+               return false;
+          }
+          RoadGraph graph = contents.graph();
 
-               for (int i = 0; i < elements.length(); i++) {
-                    JSONObject elem = elements.getJSONObject(i);
-                    if (!"way".equals(elem.getString("type"))) continue;
-                    int originalWayId = (int) elem.getLong("id");
-                    JSONArray geom = elem.getJSONArray("geometry");
-                    if (geom.length() < 2) continue;
+          int maxSegmentId = 0;
+          for (int e = 0; e < graph.edgeCount(); e++) maxSegmentId = Math.max(maxSegmentId, graph.segmentId(e));
+          edgeIdCounter.set(maxSegmentId + 1);
+          install(contents.hierarchy(), contents.spatialIndex());
+          return true;
+     }
 
-                    JSONObject previous = geom.getJSONObject(0);
-                    for (int j = 1; j < geom.length(); j++) {
-                         JSONObject current = geom.getJSONObject(j);
-                         double lat1 = previous.getDouble("lat");
-                         double lon1 = previous.getDouble("lon");
-                         double lat2 = current.getDouble("lat");
-                         double lon2 = current.getDouble("lon");
+     private void writeGraphSnapshot() {
+          if (graphSnapshotPath == null) return;
+          try {
+               // read back from the database, which is what the next start compares it with
+               SegmentFingerprint segments = roadFingerprints.read();
+               GraphSnapshotFile.write(graphSnapshotPath, snapshot.get(), segments);
+          } catch (IOException | DataAccessException e) {
+               // TODO: Logging
+               System.err.println("Failed to write graph snapshot: " + e.getMessage());
+          }
+     }
 
-                         // Make nodes (reuse them later on)
-                         int nodeA = coordinateHashToNodeId.computeIfAbsent(key(lat1, lon1), k -> nodeIdFor(lat1, lon1));
-                         int nodeB = coordinateHashToNodeId.computeIfAbsent(key(lat2, lon2), k -> nodeIdFor(lat2, lon2));
+     /**
+      * Runs the metric-independent preprocessing for a freshly loaded network, then publishes it. Queries
+      * that already picked up the previous snapshot finish on it.
+      */
+     private void install(RoadGraph loaded) {
+          install(ContractionHierarchy.build(loaded), SpatialIndex.build(loaded));
+     }
 
-                         nodes.computeIfAbsent(nodeA, k -> new Node(nodeA, lat1, lon1));
-                         nodes.computeIfAbsent(nodeB, k -> new Node(nodeB, lat2, lon2));
+     private void install(ContractionHierarchy hierarchy, SpatialIndex spatialIndex) {
+          RoadGraph loaded = hierarchy.graph();
+          RoadNetworkSnapshot current = snapshot.get();
+          EdgeFloodFlags flags = computeFloodFlags(loaded, RoadNetworkSnapshot.boundsOf(loaded));
+          snapshot.set(RoadNetworkSnapshot.build(current.version() + 1, current.floodVersion() + 1, hierarchy, spatialIndex, flags));
+          routeCache.clear();
+     }
 
-                         double length = Haversine(lat1, lon1, lat2, lon2);
+     /**
+      * Applies new flood data. Cached routes stay valid if roads only got flooded and the route avoids
+      * all of them; if any road dried up, a better route may exist anywhere and the cache is dropped.
+      * Runs once the transaction that stored the data has committed, so a rolled back refresh is never
+      * applied and the new flags are not computed while the flood cache rows are still locked.
+      */
+     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+     public void onFloodDataChanged(FloodDataChangedEvent event) {
+          RoadNetworkSnapshot before = snapshot.get();
+          refreshFloodMetric(event.delta());
+          RoadNetworkSnapshot after = snapshot.get();
+          if (after.floodVersion() == before.floodVersion()) return;
+
+          EdgeFloodFlags flags = after.floodFlags();
+          if (after.graph() == before.graph() && flags.isSupersetOf(before.floodFlags())) {
+               routeCache.retainAvoiding(before.floodVersion(), after.floodVersion(), flags::isFlooded);
+          } else {
+               routeCache.clear();
+          }
+     }
 
-                         int edgeId = edgeIdCounter.getAndIncrement();
+     /**
+      * Re-applies the current flood data: recomputes the per-edge flood flags and customizes the
+      * contraction hierarchy with them. The contraction order is kept until the road network is reloaded.
+      */
+     public void refreshFloodMetric() {
+          refreshFloodMetric(null);
+     }
 
-                         JSONArray coords = new JSONArray();
-                         JSONArray p1 = new JSONArray();
-                         p1.put(lat1);
-                         p1.put(lon1);
-                         JSONArray p2 = new JSONArray();
-                         p2.put(lat2);
-                         p2.put(lon2);
-                         coords.put(p1);
-                         coords.put(p2);
-
-                         Edge e = new Edge(edgeId, nodeA, nodeB, length, originalWayId, coords);
-                         edges.put(edgeId, e);
-                         adjacency.computeIfAbsent(nodeA, k -> new ArrayList<>()).add(edgeId);
-
-                         RoadSegment roadSegment = new RoadSegment();
-                         roadSegment.setId(edgeId);
-                         roadSegment.setLength(length);
-                         roadSegment.setCoordinates(coords.toString());
-                         roadSegment.parseCoordinates();
-                         roadRepo.save(roadSegment);
-
-                         previous = current;
-                    }
-               }
+     /**
+      * @param delta change of the flood data, applied to the current flags instead of recomputing them if
+      *              they were computed from its previous mask; may be null
+      */
+     private void refreshFloodMetric(FloodMaskDelta delta) {
+          while (true) {
+               RoadNetworkSnapshot current = snapshot.get();
+               if (current.graph().isEmpty()) return;
+               EdgeFloodFlags flags = delta != null && current.floodFlags().floodMask() == delta.previous()
+                       ? current.floodFlags().update(current.spatialIndex(), delta)
+                       : computeFloodFlags(current.graph(), current.bounds());
+               if (snapshot.compareAndSet(current, current.withFloodFlags(flags))) return;
+               // a reload in the meantime already picked up the new flood data
+               if (snapshot.get().version() != current.version()) return;
           }
      }
 
-     public List<PathRecord> findShortestPaths(double startLat, double startLon,
-                                               double endLat, double endLon) {
-          if (nodes.isEmpty() || edges.isEmpty()) return Collections.emptyList();
-
-          int startNode = findNearestNode(startLat, startLon);
-          int endNode = findNearestNode(endLat, endLon);
+     private EdgeFloodFlags computeFloodFlags(RoadGraph graph, Bounds bounds) {
+          if (graph.isEmpty()) return EdgeFloodFlags.none(graph);
 
-          if (startNode == -1 || endNode == -1) return Collections.emptyList();
-          double south = nodes.values().stream().mapToDouble(Node::lat).min().orElse(startLat);
-          double west  = nodes.values().stream().mapToDouble(Node::lon).min().orElse(startLon);
-          double north = nodes.values().stream().mapToDouble(Node::lat).max().orElse(endLat);
-          double east  = nodes.values().stream().mapToDouble(Node::lon).max().orElse(endLon);
+          FloodMask floodMask = floodService.loadFloodMask(bounds.south(), bounds.west(), bounds.north(), bounds.east());
+          return EdgeFloodFlags.compute(graph, floodMask);
+     }
 
-          Set<Long> floodedPoints = floodService.loadFloodedPoints(south, west, north, east);
+     /**
+      * @return closest point on the road network, or null if no network is loaded
+      */
+     public SnapResult snap(double lat, double lon) {
+          return snapshot.get().spatialIndex().nearest(lat, lon);
+     }
 
-          Map<Integer, Weight> dist = new HashMap<>();
-          Map<Integer, Integer> prevEdge = new HashMap<>();
-          Set<Integer> visited = new HashSet<>();
-          PriorityQueue<NodeDistance> pq =
-                  new PriorityQueue<>(distanceComparator);
+     public List<PathRecord> findShortestPaths(double startLat, double startLon,
+                                               double endLat, double endLon) {
+          return findRoute(startLat, startLon, endLat, endLon, defaultAlgorithm).paths();
+     }
 
-          for (int nid : nodes.keySet()) {
-               dist.put(nid, new Weight(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY));
+     public RouteResult findRoute(double startLat, double startLon, double endLat, double endLon,
+                                  RoutingAlgorithm algorithm) {
+          RoadNetworkSnapshot network = snapshot.get();
+          RoadGraph graph = network.graph();
+          if (graph.isEmpty()) return new RouteResult(Collections.emptyList(), algorithm, 0, 0);
+
+          SnapResult start = network.spatialIndex().nearest(startLat, startLon);
+          SnapResult end = network.spatialIndex().nearest(endLat, endLon);
+
+          long started = System.nanoTime();
+          RouteCache.Key key = cacheKey(network, start, end, algorithm, 1);
+          RouteResult cached = routeCache.get(key);
+          if (cached != null) return reattach(cached, start, end, (System.nanoTime() - started) / 1_000);
+
+          HierarchyMetric metric = network.metric();
+          EdgePenalty penalty = network.floodFlags();
+
+          SearchResult result;
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               result = switch (algorithm) {
+                    case DIJKSTRA -> ShortestPathSearch.dijkstra(graph, penalty, workspace, start, end);
+                    case ASTAR -> ShortestPathSearch.aStar(graph, penalty, workspace, start, end);
+                    case BIDIRECTIONAL -> {
+                         SearchWorkspace backward = workspaces.acquire(graph);
+                         try {
+                              yield ShortestPathSearch.bidirectional(graph, penalty, workspace, backward, start, end);
+                         } finally {
+                              workspaces.release(backward);
+                         }
+                    }
+                    case CCH -> {
+                         SearchWorkspace backward = workspaces.acquire(graph);
+                         try {
+                              yield metric.query(workspace, backward, penalty, start, end);
+                         } finally {
+                              workspaces.release(backward);
+                         }
+                    }
+               };
+          } finally {
+               workspaces.release(workspace);
+          }
+          long elapsedMicros = (System.nanoTime() - started) / 1_000;
+
+          RouteResult route;
+          if (!result.isReachable()) {
+               route = new RouteResult(Collections.emptyList(), algorithm, result.settledNodes(), elapsedMicros);
+          } else {
+               PathRecord path = toPathRecord(graph, result.edges(), result.length(), start, end);
+               route = new RouteResult(List.of(path), algorithm, result.settledNodes(), elapsedMicros);
           }
-          dist.put(startNode, new Weight(0.0, 0.0));
-          pq.add(new NodeDistance(startNode, new Weight(0.0, 0.0)));
+          routeCache.put(key, route, new int[][]{result.edges()});
+          return route;
+     }
 
-          while (!pq.isEmpty()) {
-               NodeDistance nd = pq.poll();
-               int current = nd.node();
+     /**
+      * Best route plus up to {@code count - 1} alternatives that are not much longer, share little with
+      * each other and have no obvious shortcut. Alternatives never cross more flooded roads than the
+      * best route.
+      */
+     public RouteResult findAlternativeRoutes(double startLat, double startLon, double endLat, double endLon, int count) {
+          RoadNetworkSnapshot network = snapshot.get();
+          RoadGraph graph = network.graph();
+          if (graph.isEmpty()) return new RouteResult(Collections.emptyList(), RoutingAlgorithm.DIJKSTRA, 0, 0);
+
+          SnapResult start = network.spatialIndex().nearest(startLat, startLon);
+          SnapResult end = network.spatialIndex().nearest(endLat, endLon);
+
+          long started = System.nanoTime();
+          RouteCache.Key key = cacheKey(network, start, end, RoutingAlgorithm.DIJKSTRA, count);
+          RouteResult cached = routeCache.get(key);
+          if (cached != null) return reattach(cached, start, end, (System.nanoTime() - started) / 1_000);
+
+          List<SearchResult> routes = AlternativeRoutes.find(graph, network.floodFlags(), workspaces, start, end, count);
+          long elapsedMicros = (System.nanoTime() - started) / 1_000;
+
+          List<PathRecord> paths = new ArrayList<>(routes.size());
+          int[][] edges = new int[routes.size()][];
+          for (int i = 0; i < routes.size(); i++) {
+               SearchResult route = routes.get(i);
+               paths.add(toPathRecord(graph, route.edges(), route.length(), start, end));
+               edges[i] = route.edges();
+          }
+          int settled = routes.isEmpty() ? 0 : routes.getFirst().settledNodes();
+          RouteResult result = new RouteResult(paths, RoutingAlgorithm.DIJKSTRA, settled, elapsedMicros);
+          routeCache.put(key, result, edges);
+          return result;
+     }
 
-               if (!visited.add(current)) continue;
-               if (current == endNode) break;
+     private static RouteCache.Key cacheKey(RoadNetworkSnapshot network, SnapResult start, SnapResult end,
+                                            RoutingAlgorithm algorithm, int routes) {
+          return new RouteCache.Key(network.version(), network.floodVersion(),
+                  start.edge(), (int) Math.round(start.fraction() * 1000),
+                  end.edge(), (int) Math.round(end.fraction() * 1000),
+                  algorithm, routes);
+     }
 
-               for (int edgeId : adjacency.getOrDefault(current, List.of())) {
-                    Edge edge = edges.get(edgeId);
-                    if (edge == null) continue;
+     /**
+      * A cached result may come from a slightly different point on the same edges; it gets the current
+      * endpoints so the drawn route starts and ends where it was asked to.
+      */
+     private static RouteResult reattach(RouteResult cached, SnapResult start, SnapResult end, long elapsedMicros) {
+          List<PathRecord> paths = new ArrayList<>(cached.paths().size());
+          for (PathRecord path : cached.paths()) {
+               paths.add(new PathRecord(path.roadIds(), path.totalLength(),
+                       new double[]{start.latitude(), start.longitude()},
+                       new double[]{end.latitude(), end.longitude()}));
+          }
+          return new RouteResult(paths, cached.algorithm(), 0, elapsedMicros);
+     }
 
-                    Node from = nodes.get(edge.fromNode());
-                    Node to   = nodes.get(edge.toNode());
+     private static PathRecord toPathRecord(RoadGraph graph, int[] edges, double length, SnapResult from, SnapResult to) {
+          List<Integer> roadIds = new ArrayList<>(edges.length);
+          for (int edge : edges) roadIds.add(graph.segmentId(edge));
+          return new PathRecord(roadIds, length,
+                  new double[]{from.latitude(), from.longitude()},
+                  new double[]{to.latitude(), to.longitude()});
+     }
 
-                    boolean flooded = isFlooded(floodedPoints, from) || isFlooded(floodedPoints, to);
-                    double penalty = flooded ? 1.0 : 0.0;
+     /**
+      * Flood-aware distances from every origin to every destination, one parallel search per origin.
+      *
+      * @param origins      {@code [lat, lon]} of every row
+      * @param destinations {@code [lat, lon]} of every column
+      */
+     public DistanceMatrix computeMatrix(List<double[]> origins, List<double[]> destinations) {
+          RoadNetworkSnapshot network = snapshot.get();
+          SnapResult[] from = snapAll(network, origins);
+          SnapResult[] to = snapAll(network, destinations);
+          return DistanceMatrix.compute(network.graph(), network.floodFlags(), workspaces, from, to);
+     }
 
-                    Weight currentW = dist.get(current);
-                    Weight newW = new Weight(
-                            currentW.floodPenalty() + penalty,
-                            currentW.length() + edge.length()
-                    );
+     /**
+      * Assigns every origin to its nearest reachable shelter over the flood-weighted network, preferring
+      * dry routes like {@link #findRoute}.
+      *
+      * @param shelters {@code [lat, lon]} of every shelter
+      * @param origins  {@code [lat, lon]} of every origin
+      * @return one assignment per origin; paths hold segment IDs like {@link PathRecord#roadIds()}
+      */
+     public List<ShelterAssignment> assignShelters(List<double[]> shelters, List<double[]> origins, boolean includePaths) {
+          RoadNetworkSnapshot network = snapshot.get();
+          RoadGraph graph = network.graph();
+          if (graph.isEmpty()) return Collections.nCopies(origins.size(), new ShelterAssignment(-1, Double.POSITIVE_INFINITY, false, null));
+
+          SnapResult[] shelterPoints = snapAll(network, shelters);
+          SnapResult[] originPoints = snapAll(network, origins);
+
+          Assignment[] assignments;
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               assignments = NearestFacilitySearch.assign(graph, network.floodFlags(), workspace, shelterPoints, originPoints, includePaths);
+          } finally {
+               workspaces.release(workspace);
+          }
 
-                    Weight old = dist.get(to.id());
-                    if (compare(newW, old) < 0) {
-                         dist.put(to.id(), newW);
-                         prevEdge.put(to.id(), edgeId);
-                         pq.add(new NodeDistance(to.id(), newW));
-                    }
+          List<ShelterAssignment> result = new ArrayList<>(assignments.length);
+          for (int o = 0; o < assignments.length; o++) {
+               Assignment assignment = assignments[o];
+               if (!assignment.isAssigned()) {
+                    result.add(new ShelterAssignment(-1, Double.POSITIVE_INFINITY, false, null));
+                    continue;
                }
-          }
 
-          if (!prevEdge.containsKey(endNode) && startNode != endNode) {
-               return Collections.emptyList();
+               PathRecord path = assignment.edges() == null ? null : toPathRecord(graph, assignment.edges(),
+                       assignment.length(), originPoints[o], shelterPoints[assignment.facility()]);
+               result.add(new ShelterAssignment(assignment.facility(), assignment.length(), assignment.floodPenalty() > 0, path));
           }
+          return result;
+     }
 
-          LinkedList<Integer> edgePath = new LinkedList<>();
-          int cur = endNode;
-          while (cur != startNode) {
-               Integer eId = prevEdge.get(cur);
-               if (eId == null) break;
-               edgePath.addFirst(eId);
-               Edge e = edges.get(eId);
-               cur = e.fromNode();
+     /**
+      * Everything reachable from the point within {@code maxLength} metres without crossing a flooded road.
+      *
+      * @return null if no network is loaded
+      */
+     public Isochrone findReachableArea(double lat, double lon, double maxLength) {
+          RoadNetworkSnapshot network = snapshot.get();
+          RoadGraph graph = network.graph();
+          if (graph.isEmpty()) return null;
+
+          SnapResult start = network.spatialIndex().nearest(lat, lon);
+          if (maxLength >= PARALLEL_ISOCHRONE_METRES) {
+               return Isochrone.computeParallel(graph, network.floodFlags(), start, maxLength, DELTA_STEPPING_BUCKET_METRES);
           }
 
-          double totalLen = edgePath.stream().mapToDouble(id -> edges.get(id).length()).sum();
-          PathRecord result = new PathRecord(new LinkedList<>(edgePath), totalLen);
-          return List.of(result);
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               return Isochrone.compute(graph, network.floodFlags(), workspace, start, maxLength);
+          } finally {
+               workspaces.release(workspace);
+          }
      }
 
-     private int compare(Weight a, Weight b) {
-          int c = Double.compare(a.floodPenalty(), b.floodPenalty());
-          return c != 0 ? c : Double.compare(a.length(), b.length());
-     }
+     /**
+      * @return the hull as a Polygon feature and the reachable road pieces as a MultiLineString feature
+      */
+     public JSONObject buildIsochroneGeoJson(Isochrone isochrone) {
+          JSONArray features = new JSONArray();
 
-     private static final int LAT_TOL = 30;   // ~3m
-     private static final int LON_TOL = 45;   // ~3m
+          List<double[]> hull = isochrone.hull();
+          if (!hull.isEmpty()) {
+               JSONArray ring = new JSONArray();
+               for (double[] point : hull) ring.put(new double[]{point[1], point[0]});
+               features.put(new JSONObject()
+                       .put("type", "Feature")
+                       .put("geometry", new JSONObject()
+                               .put("type", "Polygon")
+                               .put("coordinates", new JSONArray().put(ring)))
+                       .put("properties", new JSONObject().put("kind", "hull")));
+          }
 
-     private boolean isFlooded(Set<Long> floodedPoints, Node n) {
-          int latInt = toIntCoord(n.lat());
-          int lonInt = toIntCoord(n.lon());
+          JSONArray lines = new JSONArray();
+          for (int i = 0; i < isochrone.pieceCount(); i++) {
+               double[][] piece = isochrone.piece(i);
+               lines.put(new JSONArray()
+                       .put(new double[]{piece[0][1], piece[0][0]})
+                       .put(new double[]{piece[1][1], piece[1][0]}));
+          }
+          features.put(new JSONObject()
+                  .put("type", "Feature")
+                  .put("geometry", new JSONObject()
+                          .put("type", "MultiLineString")
+                          .put("coordinates", lines))
+                  .put("properties", new JSONObject().put("kind", "roads")));
 
-          for (int dy = -LAT_TOL; dy <= LAT_TOL; dy++) {
-               int y = latInt + dy;
+          JSONObject geoJson = new JSONObject();
+          geoJson.put("type", "FeatureCollection");
+          geoJson.put("features", features);
+          return geoJson;
+     }
 
-               for (int dx = -LON_TOL; dx <= LON_TOL; dx++) {
-                    long k = pack(y, lonInt + dx);
-                    if (floodedPoints.contains(k)) return true;
-               }
+     /**
+      * @return snapped points, all null if no network is loaded
+      */
+     private static SnapResult[] snapAll(RoadNetworkSnapshot network, List<double[]> points) {
+          SnapResult[] snapped = new SnapResult[points.size()];
+          if (network.graph().isEmpty()) return snapped;
+          for (int i = 0; i < snapped.length; i++) {
+               snapped[i] = network.spatialIndex().nearest(points.get(i)[0], points.get(i)[1]);
           }
-
-          return false;
+          return snapped;
      }
 
      public JSONObject buildGeoJson(List<PathRecord> paths) {
+          RoadGraph graph = snapshot.get().graph();
           JSONArray features = new JSONArray();
           for (PathRecord path : paths) {
                List<Integer> ids = path.roadIds();
-               if (ids.isEmpty()) continue;
+               if (ids.isEmpty() && path.startPoint() == null) continue;
 
+               // the first and last edges may only be partly travelled, so the snapped points replace
+               // their outer ends
                JSONArray coords = new JSONArray();
-               boolean first = true;
-               for (int eid : ids) {
-                    Edge e = edges.get(eid);
-                    if (e == null) continue;
-
-                    if (first) {
-                         coords.put(Swapped(e.coordinates().getJSONArray(0)));
-                         coords.put(Swapped(e.coordinates().getJSONArray(1)));
-                         first = false;
-                    } else {
-                         coords.put(Swapped(e.coordinates().getJSONArray(1)));
+               if (path.startPoint() != null) {
+                    coords.put(new double[]{path.startPoint()[1], path.startPoint()[0]});
+               }
+               for (int i = 0; i < ids.size(); i++) {
+                    int edge = graph.edgeOf(ids.get(i));
+                    if (edge == -1) continue;
+
+                    if (coords.length() == 0) {
+                         int from = graph.source(edge);
+                         coords.put(new double[]{graph.longitude(from), graph.latitude(from)});
+                    }
+                    if (i < ids.size() - 1 || path.endPoint() == null) {
+                         int to = graph.target(edge);
+                         coords.put(new double[]{graph.longitude(to), graph.latitude(to)});
                     }
                }
+               if (path.endPoint() != null) {
+                    coords.put(new double[]{path.endPoint()[1], path.endPoint()[0]});
+               }
 
                JSONObject feature = new JSONObject();
                feature.put("type", "Feature");
@@ -286,27 +573,4 @@ public class RoadNetworkService {
           geoJson.put("features", features);
           return geoJson;
      }
-
-     private static String key(double lat, double lon) {
-          return String.format(Locale.ROOT, "%.7f,%.7f", lat, lon);
-     }
-
-     private static int nodeIdFor(double lat, double lon) {
-          return Math.abs(Objects.hash(key(lat, lon))) & 0x7fffffff;
-     }
-
-     private int findNearestNode(double lat, double lon) {
-          double[] p = LatLonToXY(lat, lon);
-          double best = Double.POSITIVE_INFINITY;
-          int bestId = -1;
-          for (Node n : nodes.values()) {
-               double[] xy = LatLonToXY(n.lat(), n.lon());
-               double d = Math.hypot(p[0] - xy[0], p[1] - xy[1]);
-               if (d < best) {
-                    best = d;
-                    bestId = n.id();
-               }
-          }
-          return bestId;
-     }
 }
@@ -23,6 +23,17 @@ public final class Algorithm {
           return new double[]{x, y};
      }
 
+     public static int ToIntCoord(double value) {
+          return (int) Math.round(value * 1_000_000.0);
+     }
+
+     /**
+      * @return the fixed-point coordinates as one key, latitude in the high half
+      */
+     public static long Pack(int latInt, int lonInt) {
+          return (((long) latInt) << 32) | (lonInt & 0xFFFFFFFFL);
+     }
+
      public static double[] Swapped(JSONArray point) {
           return new double[]{point.getDouble(1), point.getDouble(0)};
      }
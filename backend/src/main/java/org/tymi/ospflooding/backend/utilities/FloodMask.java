@@ -0,0 +1,440 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Georeferenced bit raster of flooded cells, one bit per flood sample instead of an object per pixel.
+ * <p>
+ * Cell {@code (row, column)} is sampled at its north-west corner, {@link #latitude(int)} and
+ * {@link #longitude(int)}; row 0 is the northernmost. Every row starts on a word boundary, so rows can be
+ * filled by different threads without any locking.
+ * <p>
+ * {@link #encode()} stores the mask as its grid followed by the lengths of alternating dry and flooded
+ * runs, read row-major across row ends, as unsigned LEB128 varints. Flood areas are large contiguous
+ * blobs, so this is a few bytes per flooded row segment rather than one database row per sample.
+ */
+public final class FloodMask {
+     private static final int ROWS_PER_STRIPE = 64;
+     private static final int ENCODING_VERSION = 1;
+     private static final int HEADER_BYTES = 4 * Double.BYTES + 3 * Integer.BYTES;
+
+     @FunctionalInterface
+     public interface CellVisitor {
+          void cell(int row, int column);
+     }
+
+     @FunctionalInterface
+     public interface CellPredicate {
+          boolean test(int row, int column);
+     }
+
+     private final double north;
+     private final double west;
+     private final double cellHeight;
+     private final double cellWidth;
+     private final int rows;
+     private final int columns;
+     private final int wordsPerRow;
+     private final long[] bits;
+
+     public FloodMask(double north, double west, double cellHeight, double cellWidth, int rows, int columns) {
+          if (rows < 0 || columns < 0) throw new IllegalArgumentException("Negative mask size: " + rows + "x" + columns);
+          this.north = north;
+          this.west = west;
+          this.cellHeight = cellHeight;
+          this.cellWidth = cellWidth;
+          this.rows = rows;
+          this.columns = columns;
+          this.wordsPerRow = (columns + 63) >>> 6;
+          this.bits = new long[Math.multiplyExact(rows, wordsPerRow)];
+     }
+
+     public static FloodMask empty() {
+          return new FloodMask(0, 0, 1, 1, 0, 0);
+     }
+
+     /**
+      * Classifies every {@code step}-th pixel of every {@code step}-th row of the image. Pixels are read
+      * straight from the raster's bands a row at a time, in parallel stripes of rows.
+      *
+      * @param flooded tested against the pixel as {@code 0xRRGGBB}
+      */
+     public static FloodMask fromImage(BufferedImage image, double north, double west, double pixelHeight,
+                                       double pixelWidth, int step, IntPredicate flooded) {
+          int rows = (image.getHeight() + step - 1) / step;
+          int columns = (image.getWidth() + step - 1) / step;
+          FloodMask mask = new FloodMask(north, west, pixelHeight * step, pixelWidth * step, rows, columns);
+          PixelRow reader = PixelRow.of(image, flooded);
+
+          IntStream.range(0, (rows + ROWS_PER_STRIPE - 1) / ROWS_PER_STRIPE).parallel().forEach(stripe -> {
+               int[] samples = null;
+               int end = Math.min(rows, (stripe + 1) * ROWS_PER_STRIPE);
+               for (int row = stripe * ROWS_PER_STRIPE; row < end; row++) {
+                    samples = reader.read(row * step, samples);
+                    int base = row * mask.wordsPerRow;
+                    for (int column = 0; column < columns; column++) {
+                         if (reader.isFlooded(samples, column * step)) mask.bits[base + (column >>> 6)] |= 1L << (column & 63);
+                    }
+               }
+          });
+          return mask;
+     }
+
+     public double north() {
+          return north;
+     }
+
+     public double west() {
+          return west;
+     }
+
+     public double south() {
+          return north - rows * cellHeight;
+     }
+
+     public double east() {
+          return west + columns * cellWidth;
+     }
+
+     public double cellHeight() {
+          return cellHeight;
+     }
+
+     public double cellWidth() {
+          return cellWidth;
+     }
+
+     public int rows() {
+          return rows;
+     }
+
+     public int columns() {
+          return columns;
+     }
+
+     /**
+      * @return whether both masks have the same origin, cell size and dimensions
+      */
+     public boolean sameGridAs(FloodMask other) {
+          return rows == other.rows && columns == other.columns && north == other.north && west == other.west
+                  && cellHeight == other.cellHeight && cellWidth == other.cellWidth;
+     }
+
+     /**
+      * @return whether both masks have the same grid and the same cells flooded
+      */
+     public boolean sameCellsAs(FloodMask other) {
+          return sameGridAs(other) && Arrays.equals(bits, other.bits);
+     }
+
+     public double latitude(int row) {
+          return north - row * cellHeight;
+     }
+
+     public double longitude(int column) {
+          return west + column * cellWidth;
+     }
+
+     public boolean get(int row, int column) {
+          return (bits[row * wordsPerRow + (column >>> 6)] & (1L << (column & 63))) != 0;
+     }
+
+     public void set(int row, int column) {
+          bits[row * wordsPerRow + (column >>> 6)] |= 1L << (column & 63);
+     }
+
+     /**
+      * @return whether the cell containing the position is flooded; false outside the mask
+      */
+     public boolean contains(double lat, double lon) {
+          double row = Math.floor((north - lat) / cellHeight);
+          double column = Math.floor((lon - west) / cellWidth);
+          if (row < 0 || row >= rows || column < 0 || column >= columns) return false;
+          return get((int) row, (int) column);
+     }
+
+     /**
+      * Floods columns {@code from} (inclusive) to {@code to} (exclusive) of a row.
+      */
+     public void setRange(int row, int from, int to) {
+          if (from >= to) return;
+          int base = row * wordsPerRow;
+          int first = from >>> 6, last = (to - 1) >>> 6;
+          long firstMask = -1L << (from & 63);
+          long lastMask = -1L >>> (63 - ((to - 1) & 63));
+          if (first == last) {
+               bits[base + first] |= firstMask & lastMask;
+               return;
+          }
+          bits[base + first] |= firstMask;
+          for (int word = first + 1; word < last; word++) bits[base + word] = -1L;
+          bits[base + last] |= lastMask;
+     }
+
+     /**
+      * Floods every cell that is flooded in {@code tile}, whose cell {@code (0, 0)} is this mask's cell
+      * {@code (row, column)}. Tiles that do not overlap may be pasted concurrently if their column offsets
+      * are multiples of 64, as each of them then owns whole words.
+      */
+     public void paste(FloodMask tile, int row, int column) {
+          if (row < 0 || column < 0 || row + tile.rows > rows || column + tile.columns > columns) {
+               throw new IllegalArgumentException("Tile of " + tile.rows + "x" + tile.columns + " at " + row + "," + column
+                       + " exceeds the mask of " + rows + "x" + columns);
+          }
+          int shift = column & 63;
+          for (int r = 0; r < tile.rows; r++) {
+               int base = (row + r) * wordsPerRow + (column >>> 6);
+               for (int word = 0; word < tile.wordsPerRow; word++) {
+                    long value = tile.bits[r * tile.wordsPerRow + word];
+                    if (value == 0) continue;
+                    bits[base + word] |= value << shift;
+                    if (shift != 0 && value >>> (64 - shift) != 0) bits[base + word + 1] |= value >>> (64 - shift);
+               }
+          }
+     }
+
+     /**
+      * @return number of flooded cells
+      */
+     public int count() {
+          int count = 0;
+          for (long word : bits) count += Long.bitCount(word);
+          return count;
+     }
+
+     public boolean isEmpty() {
+          for (long word : bits) {
+               if (word != 0) return false;
+          }
+          return true;
+     }
+
+     /**
+      * @return whether the predicate holds for any flooded cell sampled inside the box
+      */
+     public boolean anyFloodedWithin(double south, double west, double north, double east, CellPredicate predicate) {
+          double firstRow = Math.max(0, Math.ceil((this.north - north) / cellHeight));
+          double lastRow = Math.min(rows - 1, Math.floor((this.north - south) / cellHeight));
+          double firstColumn = Math.max(0, Math.ceil((west - this.west) / cellWidth));
+          double lastColumn = Math.min(columns - 1, Math.floor((east - this.west) / cellWidth));
+          if (firstRow > lastRow || firstColumn > lastColumn) return false;
+
+          int from = (int) firstColumn, to = (int) lastColumn;
+          for (int row = (int) firstRow; row <= lastRow; row++) {
+               int base = row * wordsPerRow;
+               for (int word = from >>> 6; word <= to >>> 6; word++) {
+                    long value = bits[base + word];
+                    if (word == from >>> 6) value &= -1L << (from & 63);
+                    if (word == to >>> 6) value &= -1L >>> (63 - (to & 63));
+                    for (; value != 0; value &= value - 1) {
+                         if (predicate.test(row, (word << 6) + Long.numberOfTrailingZeros(value))) return true;
+                    }
+               }
+          }
+          return false;
+     }
+
+     /**
+      * Visits the flooded cells row by row, west to east.
+      */
+     public void forEachFlooded(CellVisitor visitor) {
+          for (int row = 0; row < rows; row++) {
+               int base = row * wordsPerRow;
+               for (int word = 0; word < wordsPerRow; word++) {
+                    for (long value = bits[base + word]; value != 0; value &= value - 1) {
+                         visitor.cell(row, (word << 6) + Long.numberOfTrailingZeros(value));
+                    }
+               }
+          }
+     }
+
+     /**
+      * @return first flooded column of the row in {@code [from, to)}, or {@code to} if there is none
+      */
+     public int nextFlooded(int row, int from, int to) {
+          int base = row * wordsPerRow;
+          for (int word = from >>> 6; from < to; word++, from = word << 6) {
+               long value = bits[base + word] & (-1L << (from & 63));
+               if (value != 0) return Math.min(to, (word << 6) + Long.numberOfTrailingZeros(value));
+          }
+          return to;
+     }
+
+     /**
+      * @return first dry column of the row in {@code [from, to)}, or {@code to} if there is none
+      */
+     public int nextDry(int row, int from, int to) {
+          int base = row * wordsPerRow;
+          for (int word = from >>> 6; from < to; word++, from = word << 6) {
+               long value = ~bits[base + word] & (-1L << (from & 63));
+               if (value != 0) return Math.min(to, (word << 6) + Long.numberOfTrailingZeros(value));
+          }
+          return to;
+     }
+
+     int wordsPerRow() {
+          return wordsPerRow;
+     }
+
+     long word(int row, int word) {
+          return bits[row * wordsPerRow + word];
+     }
+
+     public byte[] encode() {
+          ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_BYTES + 64);
+          ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                  .putInt(ENCODING_VERSION)
+                  .putDouble(north).putDouble(west).putDouble(cellHeight).putDouble(cellWidth)
+                  .putInt(rows).putInt(columns);
+          out.write(header.array(), 0, HEADER_BYTES);
+
+          // runs alternate starting with a dry one, which may be empty
+          boolean flooded = false;
+          long runStart = 0;
+          for (int row = 0; row < rows; row++) {
+               long rowStart = (long) row * columns;
+               for (int column = nextChange(row, 0, flooded); column < columns; column = nextChange(row, column, flooded)) {
+                    writeVarLong(out, rowStart + column - runStart);
+                    runStart = rowStart + column;
+                    flooded = !flooded;
+               }
+          }
+          long total = (long) rows * columns;
+          if (total > runStart) writeVarLong(out, total - runStart);
+          return out.toByteArray();
+     }
+
+     /**
+      * @throws IllegalArgumentException if the bytes are not an encoded mask
+      */
+     public static FloodMask decode(byte[] encoded) {
+          try {
+               ByteBuffer in = ByteBuffer.wrap(encoded);
+               int version = in.getInt();
+               if (version != ENCODING_VERSION) throw new IllegalArgumentException("Unsupported flood mask encoding " + version);
+               FloodMask mask = new FloodMask(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(), in.getInt(), in.getInt());
+
+               long total = (long) mask.rows * mask.columns;
+               long position = 0;
+               boolean flooded = false;
+               while (position < total) {
+                    long end = position + readVarLong(in);
+                    if (end > total) throw new IllegalArgumentException("Flood mask run exceeds the grid");
+                    if (flooded) {
+                         for (long start = position; start < end; ) {
+                              int row = (int) (start / mask.columns);
+                              int from = (int) (start - (long) row * mask.columns);
+                              int to = (int) Math.min(mask.columns, from + (end - start));
+                              mask.setRange(row, from, to);
+                              start += to - from;
+                         }
+                    }
+                    position = end;
+                    flooded = !flooded;
+               }
+               return mask;
+          } catch (BufferUnderflowException e) {
+               throw new IllegalArgumentException("Truncated flood mask", e);
+          }
+     }
+
+     /**
+      * @return first column at or after {@code from} whose state differs from {@code flooded}, or the column count
+      */
+     private int nextChange(int row, int from, boolean flooded) {
+          int base = row * wordsPerRow;
+          for (int word = from >>> 6; word < wordsPerRow; word++) {
+               long value = flooded ? ~bits[base + word] : bits[base + word];
+               if (word == from >>> 6) value &= -1L << (from & 63);
+               if (value != 0) return Math.min(columns, (word << 6) + Long.numberOfTrailingZeros(value));
+          }
+          return columns;
+     }
+
+     private static void writeVarLong(ByteArrayOutputStream out, long value) {
+          while ((value & ~0x7FL) != 0) {
+               out.write((int) (value & 0x7F) | 0x80);
+               value >>>= 7;
+          }
+          out.write((int) value);
+     }
+
+     private static long readVarLong(ByteBuffer in) {
+          long value = 0;
+          for (int shift = 0; shift < 64; shift += 7) {
+               byte b = in.get();
+               value |= (long) (b & 0x7F) << shift;
+               if (b >= 0) return value;
+          }
+          throw new IllegalArgumentException("Malformed run length");
+     }
+
+     /**
+      * Reads one image row into a reusable sample array and classifies pixels of it.
+      */
+     private abstract static class PixelRow {
+          abstract int[] read(int y, int[] samples);
+
+          abstract boolean isFlooded(int[] samples, int x);
+
+          static PixelRow of(BufferedImage image, IntPredicate flooded) {
+               Raster raster = image.getRaster();
+               int width = raster.getWidth();
+
+               if (image.getColorModel() instanceof IndexColorModel palette && raster.getNumBands() == 1) {
+                    // classify the palette once, then each pixel is a table lookup
+                    boolean[] floodedEntries = new boolean[palette.getMapSize()];
+                    for (int i = 0; i < floodedEntries.length; i++) {
+                         floodedEntries[i] = flooded.test(palette.getRGB(i) & 0xFFFFFF);
+                    }
+                    return new PixelRow() {
+                         int[] read(int y, int[] samples) {
+                              return raster.getSamples(0, y, width, 1, 0, samples);
+                         }
+
+                         boolean isFlooded(int[] samples, int x) {
+                              int index = samples[x];
+                              return index < floodedEntries.length && floodedEntries[index];
+                         }
+                    };
+               }
+
+               if (image.getColorModel() instanceof ComponentColorModel && raster.getNumBands() >= 3
+                       && raster.getTransferType() == DataBuffer.TYPE_BYTE) {
+                    // bands are red, green, blue (and alpha) whatever their order in the data buffer
+                    int bands = raster.getNumBands();
+                    return new PixelRow() {
+                         int[] read(int y, int[] samples) {
+                              return raster.getPixels(0, y, width, 1, samples);
+                         }
+
+                         boolean isFlooded(int[] samples, int x) {
+                              int i = x * bands;
+                              return flooded.test(samples[i] << 16 | samples[i + 1] << 8 | samples[i + 2]);
+                         }
+                    };
+               }
+
+               // anything else goes through the color model, still a row at a time
+               return new PixelRow() {
+                    int[] read(int y, int[] samples) {
+                         return image.getRGB(0, y, width, 1, samples, 0, width);
+                    }
+
+                    boolean isFlooded(int[] samples, int x) {
+                         return flooded.test(samples[x] & 0xFFFFFF);
+                    }
+               };
+          }
+     }
+}
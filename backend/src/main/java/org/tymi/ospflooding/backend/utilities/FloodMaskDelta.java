@@ -0,0 +1,104 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import java.util.stream.LongStream;
+
+/**
+ * Cells that changed between two flood masks over the same grid, split into newly flooded and newly dry
+ * ones. The masks are compared tile by tile, a tile being one 64-bit word of 64 consecutive rows, so an
+ * unchanged tile costs 64 word comparisons and consumers can apply the change in time proportional to it.
+ */
+public final class FloodMaskDelta {
+     private static final int TILE_ROWS = 64;
+
+     private final FloodMask previous;
+     private final FloodMask current;
+     // row << 32 | column
+     private final long[] flooded;
+     private final long[] dried;
+     private final int changedTiles;
+
+     private FloodMaskDelta(FloodMask previous, FloodMask current, long[] flooded, long[] dried, int changedTiles) {
+          this.previous = previous;
+          this.current = current;
+          this.flooded = flooded;
+          this.dried = dried;
+          this.changedTiles = changedTiles;
+     }
+
+     /**
+      * @throws IllegalArgumentException if the masks do not share their grid
+      */
+     public static FloodMaskDelta between(FloodMask previous, FloodMask current) {
+          if (!previous.sameGridAs(current)) throw new IllegalArgumentException("Flood masks cover different grids");
+
+          LongStream.Builder flooded = LongStream.builder();
+          LongStream.Builder dried = LongStream.builder();
+          int changedTiles = 0;
+          for (int tileRow = 0; tileRow < current.rows(); tileRow += TILE_ROWS) {
+               int endRow = Math.min(current.rows(), tileRow + TILE_ROWS);
+               for (int word = 0; word < current.wordsPerRow(); word++) {
+                    boolean changed = false;
+                    for (int row = tileRow; row < endRow; row++) {
+                         long before = previous.word(row, word);
+                         long after = current.word(row, word);
+                         if (before == after) continue;
+                         changed = true;
+                         collect(after & ~before, row, word, flooded);
+                         collect(before & ~after, row, word, dried);
+                    }
+                    if (changed) changedTiles++;
+               }
+          }
+          return new FloodMaskDelta(previous, current, flooded.build().toArray(), dried.build().toArray(), changedTiles);
+     }
+
+     public FloodMask previous() {
+          return previous;
+     }
+
+     public FloodMask current() {
+          return current;
+     }
+
+     public boolean isEmpty() {
+          return changedTiles == 0;
+     }
+
+     public int floodedCount() {
+          return flooded.length;
+     }
+
+     public int driedCount() {
+          return dried.length;
+     }
+
+     public int changedTiles() {
+          return changedTiles;
+     }
+
+     public void forEachFlooded(FloodMask.CellVisitor visitor) {
+          visit(flooded, visitor);
+     }
+
+     public void forEachDried(FloodMask.CellVisitor visitor) {
+          visit(dried, visitor);
+     }
+
+     /**
+      * Visits the newly flooded cells, then the newly dry ones.
+      */
+     public void forEachChanged(FloodMask.CellVisitor visitor) {
+          visit(flooded, visitor);
+          visit(dried, visitor);
+     }
+
+     private static void collect(long changed, int row, int word, LongStream.Builder cells) {
+          for (; changed != 0; changed &= changed - 1) {
+               cells.add((long) row << 32 | (word << 6) + Long.numberOfTrailingZeros(changed));
+          }
+     }
+
+     private static void visit(long[] cells, FloodMask.CellVisitor visitor) {
+          for (long cell : cells) visitor.cell((int) (cell >>> 32), (int) cell);
+     }
+}
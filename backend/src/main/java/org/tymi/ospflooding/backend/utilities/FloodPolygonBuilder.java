@@ -1,4 +1,392 @@
 package org.tymi.ospflooding.backend.utilities;
 
-public class FloodPolygonBuilder {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Turns a flood mask into polygons by tracing the outlines of its flooded cells, marching-squares style,
+ * along the corners of the cell grid. Cells touching only at a corner are separate areas, so every traced
+ * ring bounds exactly one 4-connected area: from the outside, or from the inside around a hole.
+ * <p>
+ * The areas are labelled first, in parallel stripes of rows joined up afterwards, which is what tells the
+ * holes which polygon they belong to. The rings are then simplified with Douglas-Peucker, in parallel.
+ * Exterior rings come out counterclockwise and holes clockwise, as GeoJSON wants them.
+ */
+public final class FloodPolygonBuilder {
+     private static final int ROWS_PER_STRIPE = 64;
+     private static final int EAST = 0, SOUTH = 1, WEST = 2, NORTH = 3;
+     private static final int[] ROW_STEP = {0, 1, 0, -1};
+     private static final int[] COLUMN_STEP = {1, 0, -1, 0};
+
+     /**
+      * @param rings     exterior ring first, then the holes; each as longitude, latitude pairs, closed
+      * @param cellCount flooded cells of the area, holes excluded
+      */
+     public record Polygon(List<double[]> rings, int cellCount) {}
+
+     private record Ring(int component, boolean hole, IntList corners) {}
+
+     private final FloodMask mask;
+     private final int rows;
+     private final int columns;
+     private int[] labels;
+     private int[] stripeOffsets;
+     private int[] parents;
+     private int[] cellCounts;
+
+     private FloodPolygonBuilder(FloodMask mask) {
+          this.mask = mask;
+          this.rows = mask.rows();
+          this.columns = mask.columns();
+     }
+
+     /**
+      * @param tolerance how far, in degrees, a simplified outline may stray from the cell edges; 0 keeps
+      *                  every corner. Rings that simplify to fewer than three points are dropped.
+      */
+     public static List<Polygon> build(FloodMask mask, double tolerance) {
+          if (mask.isEmpty()) return List.of();
+          FloodPolygonBuilder builder = new FloodPolygonBuilder(mask);
+          builder.label();
+          return builder.assemble(builder.trace(), tolerance);
+     }
+
+     /**
+      * Labels the 4-connected flooded areas of each stripe with a breadth-first search, then merges the
+      * labels that touch across stripe borders.
+      */
+     private void label() {
+          labels = new int[Math.multiplyExact(rows, columns)];
+          int stripes = (rows + ROWS_PER_STRIPE - 1) / ROWS_PER_STRIPE;
+          int[][] stripeCounts = new int[stripes][];
+          IntStream.range(0, stripes).parallel().forEach(stripe -> stripeCounts[stripe] = labelStripe(stripe));
+
+          stripeOffsets = new int[stripes + 1];
+          for (int stripe = 0; stripe < stripes; stripe++) {
+               stripeOffsets[stripe + 1] = stripeOffsets[stripe] + stripeCounts[stripe].length;
+          }
+          int components = stripeOffsets[stripes];
+          parents = new int[components];
+          for (int i = 0; i < components; i++) parents[i] = i;
+          for (int row = ROWS_PER_STRIPE; row < rows; row += ROWS_PER_STRIPE) {
+               for (int column = 0; column < columns; column++) {
+                    if (labels[row * columns + column] != 0 && labels[(row - 1) * columns + column] != 0) {
+                         union(component(row, column), component(row - 1, column));
+                    }
+               }
+          }
+
+          cellCounts = new int[components];
+          for (int stripe = 0; stripe < stripes; stripe++) {
+               for (int local = 0; local < stripeCounts[stripe].length; local++) {
+                    cellCounts[find(stripeOffsets[stripe] + local)] += stripeCounts[stripe][local];
+               }
+          }
+     }
+
+     /**
+      * @return number of cells of each area of the stripe, by its label minus one
+      */
+     private int[] labelStripe(int stripe) {
+          int firstRow = stripe * ROWS_PER_STRIPE;
+          int endRow = Math.min(rows, firstRow + ROWS_PER_STRIPE);
+          IntList counts = new IntList();
+          IntQueue queue = new IntQueue();
+          for (int row = firstRow; row < endRow; row++) {
+               for (int column = mask.nextFlooded(row, 0, columns); column < columns;
+                    column = mask.nextFlooded(row, column + 1, columns)) {
+                    if (labels[row * columns + column] != 0) continue;
+
+                    int label = counts.size() + 1;
+                    int count = 0;
+                    labels[row * columns + column] = label;
+                    queue.add(row * columns + column);
+                    while (!queue.isEmpty()) {
+                         int cell = queue.poll();
+                         int r = cell / columns, c = cell % columns;
+                         count++;
+                         if (r > firstRow) visit(r - 1, c, label, queue);
+                         if (r + 1 < endRow) visit(r + 1, c, label, queue);
+                         if (c > 0) visit(r, c - 1, label, queue);
+                         if (c + 1 < columns) visit(r, c + 1, label, queue);
+                    }
+                    counts.add(count);
+               }
+          }
+          return counts.toArray();
+     }
+
+     private void visit(int row, int column, int label, IntQueue queue) {
+          int cell = row * columns + column;
+          if (labels[cell] == 0 && mask.get(row, column)) {
+               labels[cell] = label;
+               queue.add(cell);
+          }
+     }
+
+     private int component(int row, int column) {
+          return find(stripeOffsets[row / ROWS_PER_STRIPE] + labels[row * columns + column] - 1);
+     }
+
+     private int find(int component) {
+          while (parents[component] != component) {
+               parents[component] = parents[parents[component]];
+               component = parents[component];
+          }
+          return component;
+     }
+
+     private void union(int a, int b) {
+          a = find(a);
+          b = find(b);
+          if (a != b) parents[Math.max(a, b)] = Math.min(a, b);
+     }
+
+     /**
+      * Follows every outline once, keeping the flooded cells on the right in grid terms, rows growing
+      * southwards. Each ring starts on the top edge of a flooded cell with a dry cell above it, and the
+      * top edges it passes are marked so that no ring is traced twice.
+      */
+     private List<Ring> trace() {
+          long[] tracedTops = new long[(int) (((long) rows * columns + 63) >>> 6)];
+          List<Ring> rings = new ArrayList<>();
+          for (int row = 0; row < rows; row++) {
+               for (int column = mask.nextFlooded(row, 0, columns); column < columns;
+                    column = mask.nextFlooded(row, column + 1, columns)) {
+                    int cell = row * columns + column;
+                    if (flooded(row - 1, column) || (tracedTops[cell >>> 6] & 1L << cell) != 0) continue;
+
+                    IntList corners = traceRing(row, column, tracedTops);
+                    rings.add(new Ring(component(row, column), signedArea(corners) < 0, corners));
+               }
+          }
+          return rings;
+     }
+
+     /**
+      * @return corners of the ring as {@code vertexRow * (columns + 1) + vertexColumn}
+      */
+     private IntList traceRing(int startRow, int startColumn, long[] tracedTops) {
+          IntList corners = new IntList();
+          int row = startRow, column = startColumn, direction = EAST;
+          corners.add(vertex(row, column));
+          while (true) {
+               if (direction == EAST) {
+                    int cell = row * columns + column;
+                    tracedTops[cell >>> 6] |= 1L << cell;
+               }
+               row += ROW_STEP[direction];
+               column += COLUMN_STEP[direction];
+               int next = nextDirection(row, column, direction);
+               if (row == startRow && column == startColumn && next == EAST) {
+                    // the start is no corner if the ring arrives heading east
+                    if (direction == EAST) corners.removeFirst();
+                    return corners;
+               }
+               if (next != direction) corners.add(vertex(row, column));
+               direction = next;
+          }
+     }
+
+     /**
+      * Where the outline goes from the grid corner at {@code (row, column)}, given the four cells around it.
+      * Where only diagonally opposite cells are flooded it turns right, around the cell it came along.
+      */
+     private int nextDirection(int row, int column, int arriving) {
+          boolean northWest = flooded(row - 1, column - 1), northEast = flooded(row - 1, column);
+          boolean southWest = flooded(row, column - 1), southEast = flooded(row, column);
+          if (northWest == southEast && northEast == southWest && northWest != northEast) return (arriving + 1) & 3;
+          if (southEast && !northEast) return EAST;
+          if (southWest && !southEast) return SOUTH;
+          if (northWest && !southWest) return WEST;
+          return NORTH;
+     }
+
+     private boolean flooded(int row, int column) {
+          return row >= 0 && row < rows && column >= 0 && column < columns && mask.get(row, column);
+     }
+
+     private int vertex(int row, int column) {
+          return row * (columns + 1) + column;
+     }
+
+     /**
+      * @return twice the area of the ring, positive if it runs clockwise on the grid, as exterior rings do
+      */
+     private long signedArea(IntList corners) {
+          long area = 0;
+          for (int i = 0; i < corners.size(); i++) {
+               int from = corners.get(i), to = corners.get((i + 1) % corners.size());
+               area += (long) (from % (columns + 1)) * (to / (columns + 1)) - (long) (to % (columns + 1)) * (from / (columns + 1));
+          }
+          return area;
+     }
+
+     private List<Polygon> assemble(List<Ring> rings, double tolerance) {
+          double[][] simplified = new double[rings.size()][];
+          IntStream.range(0, rings.size()).parallel().forEach(i -> simplified[i] = simplify(rings.get(i).corners(), tolerance));
+
+          int[] polygonOf = new int[parents.length];
+          Arrays.fill(polygonOf, -1);
+          List<List<double[]>> polygonRings = new ArrayList<>();
+          List<Integer> polygonComponents = new ArrayList<>();
+          // every exterior ring is found before its holes, its top edge being above theirs
+          for (int i = 0; i < rings.size(); i++) {
+               Ring ring = rings.get(i);
+               if (!ring.hole()) {
+                    if (simplified[i] == null) continue;
+                    List<double[]> polygon = new ArrayList<>();
+                    polygon.add(simplified[i]);
+                    polygonOf[ring.component()] = polygonRings.size();
+                    polygonRings.add(polygon);
+                    polygonComponents.add(ring.component());
+               } else if (simplified[i] != null && polygonOf[ring.component()] >= 0) {
+                    polygonRings.get(polygonOf[ring.component()]).add(simplified[i]);
+               }
+          }
+
+          List<Polygon> polygons = new ArrayList<>(polygonRings.size());
+          for (int i = 0; i < polygonRings.size(); i++) {
+               polygons.add(new Polygon(polygonRings.get(i), cellCounts[polygonComponents.get(i)]));
+          }
+          return polygons;
+     }
+
+     /**
+      * Douglas-Peucker over the closed ring, split at the corner farthest from the first one.
+      *
+      * @return longitude, latitude pairs with the first point repeated at the end, or null if fewer than
+      * three points are left
+      */
+     private double[] simplify(IntList corners, double tolerance) {
+          int n = corners.size();
+          double[] xs = new double[n + 1], ys = new double[n + 1];
+          for (int i = 0; i <= n; i++) {
+               int vertex = corners.get(i % n);
+               xs[i] = mask.west() + (vertex % (columns + 1)) * mask.cellWidth();
+               ys[i] = mask.north() - (vertex / (columns + 1)) * mask.cellHeight();
+          }
+
+          boolean[] keep = new boolean[n + 1];
+          keep[0] = keep[n] = true;
+          if (tolerance <= 0) {
+               Arrays.fill(keep, true);
+          } else {
+               int farthest = 0;
+               double max = -1;
+               for (int i = 1; i < n; i++) {
+                    double distance = Math.hypot(xs[i] - xs[0], ys[i] - ys[0]);
+                    if (distance > max) {
+                         max = distance;
+                         farthest = i;
+                    }
+               }
+               keep[farthest] = true;
+               IntList stack = new IntList();
+               stack.add(0);
+               stack.add(farthest);
+               stack.add(farthest);
+               stack.add(n);
+               while (stack.size() > 0) {
+                    int end = stack.removeLast(), start = stack.removeLast();
+                    int split = -1;
+                    double splitDistance = tolerance;
+                    for (int i = start + 1; i < end; i++) {
+                         double distance = distanceToSegment(xs[i], ys[i], xs[start], ys[start], xs[end], ys[end]);
+                         if (distance > splitDistance) {
+                              splitDistance = distance;
+                              split = i;
+                         }
+                    }
+                    if (split < 0) continue;
+                    keep[split] = true;
+                    stack.add(start);
+                    stack.add(split);
+                    stack.add(split);
+                    stack.add(end);
+               }
+          }
+
+          int kept = 0;
+          for (boolean k : keep) if (k) kept++;
+          if (kept < 4) return null;
+          // traced clockwise, so backwards for exterior rings to run counterclockwise
+          double[] ring = new double[2 * kept];
+          int at = 0;
+          for (int i = n; i >= 0; i--) {
+               if (!keep[i]) continue;
+               ring[at++] = xs[i];
+               ring[at++] = ys[i];
+          }
+          return ring;
+     }
+
+     private static double distanceToSegment(double x, double y, double x1, double y1, double x2, double y2) {
+          double dx = x2 - x1, dy = y2 - y1;
+          double lengthSquared = dx * dx + dy * dy;
+          double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+          return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+     }
+
+     private static final class IntList {
+          private int[] values = new int[16];
+          private int size;
+
+          void add(int value) {
+               if (size == values.length) values = Arrays.copyOf(values, size * 2);
+               values[size++] = value;
+          }
+
+          int get(int index) {
+               return values[index];
+          }
+
+          int removeLast() {
+               return values[--size];
+          }
+
+          void removeFirst() {
+               System.arraycopy(values, 1, values, 0, --size);
+          }
+
+          int size() {
+               return size;
+          }
+
+          int[] toArray() {
+               return Arrays.copyOf(values, size);
+          }
+     }
+
+     /**
+      * Growable ring buffer of ints, for the breadth-first search.
+      */
+     private static final class IntQueue {
+          private int[] values = new int[64];
+          private int head;
+          private int size;
+
+          void add(int value) {
+               if (size == values.length) {
+                    int[] grown = new int[values.length * 2];
+                    for (int i = 0; i < size; i++) grown[i] = values[(head + i) & (values.length - 1)];
+                    values = grown;
+                    head = 0;
+               }
+               values[(head + size++) & (values.length - 1)] = value;
+          }
+
+          int poll() {
+               int value = values[head];
+               head = (head + 1) & (values.length - 1);
+               size--;
+               return value;
+          }
+
+          boolean isEmpty() {
+               return size == 0;
+          }
+     }
 }
@@ -0,0 +1,50 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.tymi.ospflooding.backend.records.Bounds;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.function.IntPredicate;
+
+/**
+ * Decodes a flood raster straight from a stream into a {@link FloodMask}. The image reader drops the
+ * pixels that are not sampled while decoding, so only the sampled pixels are ever held in memory, and the
+ * stream is read once, front to back.
+ */
+public final class FloodRasterReader {
+     private FloodRasterReader() {}
+
+     /**
+      * @param bounds area the image covers
+      * @param step   only every {@code step}-th pixel of every {@code step}-th row is sampled
+      */
+     public static FloodMask read(InputStream in, Bounds bounds, int step, IntPredicate flooded) throws IOException {
+          try (ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+               Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+               if (!readers.hasNext()) throw new IOException("Flood raster is not in a supported image format");
+               ImageReader reader = readers.next();
+               try {
+                    // forward only, so the stream cache is discarded as the image is decoded
+                    reader.setInput(stream, true, true);
+                    int width = reader.getWidth(0);
+                    int height = reader.getHeight(0);
+                    double pixelHeight = (bounds.north() - bounds.south()) / height;
+                    double pixelWidth = (bounds.east() - bounds.west()) / width;
+
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    BufferedImage image = reader.read(0, param);
+                    return FloodMask.fromImage(image, bounds.north(), bounds.west(), pixelHeight * step, pixelWidth * step, 1, flooded);
+               } finally {
+                    reader.dispose();
+               }
+          }
+     }
+}
@@ -0,0 +1,120 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+/**
+ * Least-recently-used cache of rendered flood tiles, bounded by the bytes of the tiles. Every entry
+ * remembers the flood mask it was rendered from and is only returned for that same mask, so a tile
+ * rendered while the flood data was being replaced is never served for the new data.
+ */
+public final class FloodTileCache {
+     // object headers, the key, the map node and the ETag
+     private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+     public record Tile(byte[] data, String etag) {}
+
+     private record Entry(FloodMask source, Tile tile) {}
+
+     private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+     private final long maxBytes;
+     private long bytes;
+
+     public FloodTileCache(long maxBytes) {
+          this.maxBytes = maxBytes;
+     }
+
+     /**
+      * @return the tile rendered from {@code source}, or null
+      */
+     public synchronized Tile get(int z, int x, int y, FloodMask source) {
+          Entry entry = entries.get(key(z, x, y));
+          return entry == null || entry.source != source ? null : entry.tile;
+     }
+
+     public synchronized void put(int z, int x, int y, FloodMask source, Tile tile) {
+          long size = ENTRY_OVERHEAD_BYTES + tile.data().length;
+          if (size > maxBytes) return;
+
+          Entry previous = entries.put(key(z, x, y), new Entry(source, tile));
+          if (previous != null) bytes -= size(previous);
+          bytes += size;
+
+          Iterator<Entry> eldest = entries.values().iterator();
+          while (bytes > maxBytes && eldest.hasNext()) {
+               bytes -= size(eldest.next());
+               eldest.remove();
+          }
+     }
+
+     public synchronized void clear() {
+          entries.clear();
+          bytes = 0;
+     }
+
+     /**
+      * Moves the tiles rendered from {@code delta.previous()} to {@code delta.current()}, except those
+      * covering a changed cell, which are dropped along with tiles of any other mask.
+      *
+      * @return number of tiles dropped
+      */
+     public int apply(FloodMaskDelta delta) {
+          int zooms;
+          synchronized (this) {
+               zooms = 0;
+               for (long key : entries.keySet()) zooms |= 1 << (int) (key >>> 50);
+          }
+
+          // keys of the tiles the change shows on, found without holding the lock
+          FloodMask mask = delta.current();
+          LongStream.Builder changed = LongStream.builder();
+          for (int z = 0; zooms >>> z != 0; z++) {
+               if ((zooms >>> z & 1) == 0) continue;
+               int zoom = z;
+               delta.forEachChanged((row, column) -> FloodTileRenderer.forEachTileCovering(zoom,
+                       mask.latitude(row) - mask.cellHeight(), mask.longitude(column),
+                       mask.latitude(row), mask.longitude(column) + mask.cellWidth(),
+                       (x, y) -> changed.add(key(zoom, x, y))));
+          }
+          long[] touched = changed.build().sorted().distinct().toArray();
+
+          synchronized (this) {
+               int dropped = 0;
+               Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+               while (it.hasNext()) {
+                    Map.Entry<Long, Entry> entry = it.next();
+                    Entry value = entry.getValue();
+                    long key = entry.getKey();
+                    // a tile cached in the meantime may be of a zoom level that was not looked at
+                    if (value.source == delta.previous() && (zooms >>> (int) (key >>> 50) & 1) != 0
+                            && Arrays.binarySearch(touched, key) < 0) {
+                         entry.setValue(new Entry(mask, value.tile));
+                    } else {
+                         it.remove();
+                         bytes -= size(value);
+                         dropped++;
+                    }
+               }
+               return dropped;
+          }
+     }
+
+     public synchronized int size() {
+          return entries.size();
+     }
+
+     public synchronized long bytes() {
+          return bytes;
+     }
+
+     private static long size(Entry entry) {
+          return ENTRY_OVERHEAD_BYTES + entry.tile.data().length;
+     }
+
+     private static long key(int z, int x, int y) {
+          return (long) z << 50 | (long) x << 25 | y;
+     }
+}
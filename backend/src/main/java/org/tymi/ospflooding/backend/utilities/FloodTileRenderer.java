@@ -0,0 +1,164 @@
+package org.tymi.ospflooding.backend.utilities;
+
+/**
+ * Renders the flooded part of a Web Mercator tile as a vector tile. The flooded cells in and around the
+ * tile are drawn onto a grid of {@value #GRID} cells per tile side, which simplifies them to what a
+ * screen pixel can show at that zoom, and the grid is written as rectangles of merged runs of cells. The
+ * grid reaches {@value #BUFFER} cells past every tile edge, so neighbouring tiles overlap without seams.
+ */
+public final class FloodTileRenderer {
+     public static final String LAYER = "flood";
+     public static final int MAX_ZOOM = 22;
+
+     static final int GRID = 256;
+     static final int BUFFER = 4;
+     private static final int CELL_UNITS = VectorTileWriter.EXTENT / GRID;
+
+     @FunctionalInterface
+     public interface TileVisitor {
+          void tile(int x, int y);
+     }
+
+     private FloodTileRenderer() {}
+
+     public static boolean isValidTile(int z, int x, int y) {
+          return z >= 0 && z <= MAX_ZOOM && x >= 0 && y >= 0 && x < 1 << z && y < 1 << z;
+     }
+
+     public static byte[] render(FloodMask mask, int z, int x, int y) {
+          double scale = (double) GRID * (1 << z);
+          int size = GRID + 2 * BUFFER;
+          double left = (double) x * GRID - BUFFER;
+          double top = (double) y * GRID - BUFFER;
+
+          FloodMask grid = new FloodMask(0, 0, 1, 1, size, size);
+          if (!mask.isEmpty()) draw(mask, grid, scale, left, top);
+
+          VectorTileWriter writer = new VectorTileWriter(LAYER);
+          writeRectangles(grid, writer);
+          return writer.toByteArray();
+     }
+
+     /**
+      * Visits the tiles of a zoom level whose rendering covers part of the box, buffer included.
+      */
+     public static void forEachTileCovering(int z, double south, double west, double north, double east, TileVisitor visitor) {
+          double scale = (double) GRID * (1 << z);
+          int last = (1 << z) - 1;
+          int x1 = clamp(Math.floor((worldX(west, scale) - BUFFER) / GRID), 0, last);
+          int x2 = clamp(Math.floor((worldX(east, scale) + BUFFER) / GRID), 0, last);
+          int y1 = clamp(Math.floor((worldY(north, scale) - BUFFER) / GRID), 0, last);
+          int y2 = clamp(Math.floor((worldY(south, scale) + BUFFER) / GRID), 0, last);
+          for (int ty = y1; ty <= y2; ty++) {
+               for (int tx = x1; tx <= x2; tx++) visitor.tile(tx, ty);
+          }
+     }
+
+     private static void draw(FloodMask mask, FloodMask grid, double scale, double left, double top) {
+          int size = grid.rows();
+          double north = latitude(top / scale);
+          double south = latitude((top + size) / scale);
+          double west = left / scale * 360 - 180;
+          double east = (left + size) / scale * 360 - 180;
+
+          // cell (row, column) spans from its corner one cell south and one cell east
+          int firstRow = Math.max(0, (int) Math.floor((mask.north() - north) / mask.cellHeight()));
+          int lastRow = Math.min(mask.rows() - 1, (int) Math.ceil((mask.north() - south) / mask.cellHeight()) - 1);
+          int firstColumn = Math.max(0, (int) Math.floor((west - mask.west()) / mask.cellWidth()));
+          int endColumn = Math.min(mask.columns(), (int) Math.ceil((east - mask.west()) / mask.cellWidth()));
+
+          for (int row = firstRow; row <= lastRow; row++) {
+               int[] rows = span(worldY(mask.latitude(row), scale) - top,
+                       worldY(mask.latitude(row) - mask.cellHeight(), scale) - top, size);
+               if (rows == null) continue;
+               for (int start = mask.nextFlooded(row, firstColumn, endColumn); start < endColumn;
+                    start = mask.nextFlooded(row, start, endColumn)) {
+                    int end = mask.nextDry(row, start, endColumn);
+                    int[] columns = span(worldX(mask.longitude(start), scale) - left,
+                            worldX(mask.longitude(end), scale) - left, size);
+                    if (columns != null) {
+                         for (int gridRow = rows[0]; gridRow < rows[1]; gridRow++) grid.setRange(gridRow, columns[0], columns[1]);
+                    }
+                    start = end;
+               }
+          }
+     }
+
+     /**
+      * Merges equal runs of consecutive grid rows into rectangles, all of them one polygon feature.
+      */
+     private static void writeRectangles(FloodMask grid, VectorTileWriter writer) {
+          int size = grid.rows();
+          // runs of the previous row still open, as start, end and first row
+          int[] open = new int[3 * (size / 2 + 1)];
+          int[] next = new int[open.length];
+          int openCount = 0;
+          boolean started = false;
+
+          for (int row = 0; row <= size; row++) {
+               int nextCount = 0, previous = 0;
+               int start = row < size ? grid.nextFlooded(row, 0, size) : size;
+               while (start < size || previous < openCount) {
+                    int end = start < size ? grid.nextDry(row, start, size) : size;
+                    if (previous < openCount && (start >= size || open[3 * previous] < start
+                            || open[3 * previous] == start && open[3 * previous + 1] != end)) {
+                         // the run above ends here
+                         if (!started) {
+                              writer.startPolygon();
+                              writer.flag("flooded", true);
+                              started = true;
+                         }
+                         writer.rectangle(units(open[3 * previous]), units(open[3 * previous + 2]),
+                                 units(open[3 * previous + 1]), units(row));
+                         previous++;
+                         continue;
+                    }
+                    int firstRow = row;
+                    if (previous < openCount && open[3 * previous] == start) {
+                         firstRow = open[3 * previous + 2];
+                         previous++;
+                    }
+                    next[3 * nextCount] = start;
+                    next[3 * nextCount + 1] = end;
+                    next[3 * nextCount + 2] = firstRow;
+                    nextCount++;
+                    start = grid.nextFlooded(row, end, size);
+               }
+               int[] swap = open;
+               open = next;
+               next = swap;
+               openCount = nextCount;
+          }
+     }
+
+     private static int units(int gridCell) {
+          return (gridCell - BUFFER) * CELL_UNITS;
+     }
+
+     /**
+      * @return grid cells from {@code from} to {@code to}, at least one, or null if they miss the grid
+      */
+     private static int[] span(double from, double to, int size) {
+          int first = (int) Math.round(from);
+          int end = Math.max(first + 1, (int) Math.round(to));
+          if (end <= 0 || first >= size) return null;
+          return new int[]{Math.max(0, first), Math.min(size, end)};
+     }
+
+     private static double worldX(double lon, double scale) {
+          return (lon + 180) / 360 * scale;
+     }
+
+     private static double worldY(double lat, double scale) {
+          double sin = Math.sin(Math.toRadians(lat));
+          return (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * scale;
+     }
+
+     private static double latitude(double worldFraction) {
+          return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * worldFraction))));
+     }
+
+     private static int clamp(double value, int min, int max) {
+          return (int) Math.max(min, Math.min(max, value));
+     }
+}
@@ -0,0 +1,88 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to non-negative {@code int} values, with linear
+ * probing and no boxing. Meant for interning: entries are only ever added.
+ */
+public final class LongIntHashMap {
+     private static final int EMPTY = -1;
+
+     private long[] keys;
+     private int[] values;
+     private int mask;
+     private int size;
+
+     public LongIntHashMap() {
+          this(16);
+     }
+
+     public LongIntHashMap(int expectedSize) {
+          // at most half full
+          int capacity = Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1;
+          allocate(capacity);
+     }
+
+     /**
+      * @return value of the key, or -1 if it has none
+      */
+     public int get(long key) {
+          for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+               int value = values[slot];
+               if (value == EMPTY || keys[slot] == key) return value;
+          }
+     }
+
+     /**
+      * Stores the value unless the key already has one.
+      *
+      * @param value non-negative
+      * @return value the key has now
+      */
+     public int putIfAbsent(long key, int value) {
+          if (value < 0) throw new IllegalArgumentException("Values must not be negative: " + value);
+
+          int slot = slot(key);
+          for (; values[slot] != EMPTY; slot = (slot + 1) & mask) {
+               if (keys[slot] == key) return values[slot];
+          }
+          keys[slot] = key;
+          values[slot] = value;
+          if (++size > (mask + 1) / 2) grow();
+          return value;
+     }
+
+     public boolean containsKey(long key) {
+          return get(key) != EMPTY;
+     }
+
+     public int size() {
+          return size;
+     }
+
+     private int slot(long key) {
+          // Fibonacci hashing spreads the packed coordinates, whose low bits alone cluster badly
+          return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+     }
+
+     private void allocate(int capacity) {
+          keys = new long[capacity];
+          values = new int[capacity];
+          Arrays.fill(values, EMPTY);
+          mask = capacity - 1;
+     }
+
+     private void grow() {
+          long[] oldKeys = keys;
+          int[] oldValues = values;
+          allocate(keys.length * 2);
+          for (int i = 0; i < oldKeys.length; i++) {
+               if (oldValues[i] == EMPTY) continue;
+               int slot = slot(oldKeys[i]);
+               while (values[slot] != EMPTY) slot = (slot + 1) & mask;
+               keys[slot] = oldKeys[i];
+               values[slot] = oldValues[i];
+          }
+     }
+}
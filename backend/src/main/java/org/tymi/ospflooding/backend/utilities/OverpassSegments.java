@@ -0,0 +1,58 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import java.util.Arrays;
+
+/**
+ * Road segments of one downloaded Overpass tile, kept in primitive arrays until they are stitched into
+ * the graph.
+ */
+public final class OverpassSegments {
+     private long[] wayIds = new long[1024];
+     // lat1, lon1, lat2, lon2 of every segment
+     private double[] coordinates = new double[4096];
+     private int count;
+
+     public void add(long wayId, double lat1, double lon1, double lat2, double lon2) {
+          if (count == wayIds.length) {
+               wayIds = Arrays.copyOf(wayIds, count * 2);
+               coordinates = Arrays.copyOf(coordinates, count * 8);
+          }
+          wayIds[count] = wayId;
+          coordinates[4 * count] = lat1;
+          coordinates[4 * count + 1] = lon1;
+          coordinates[4 * count + 2] = lat2;
+          coordinates[4 * count + 3] = lon2;
+          count++;
+     }
+
+     /**
+      * Drops everything, e.g. before retrying a download that failed half-way.
+      */
+     public void clear() {
+          count = 0;
+     }
+
+     public int count() {
+          return count;
+     }
+
+     public long wayId(int segment) {
+          return wayIds[segment];
+     }
+
+     public double lat1(int segment) {
+          return coordinates[4 * segment];
+     }
+
+     public double lon1(int segment) {
+          return coordinates[4 * segment + 1];
+     }
+
+     public double lat2(int segment) {
+          return coordinates[4 * segment + 2];
+     }
+
+     public double lon2(int segment) {
+          return coordinates[4 * segment + 3];
+     }
+}
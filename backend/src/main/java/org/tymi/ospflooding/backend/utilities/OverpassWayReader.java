@@ -0,0 +1,117 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streams the ways of an Overpass {@code out geom} response one segment at a time. Only the geometry of
+ * the way being read is buffered, so a region-sized response needs no more memory than a single street.
+ */
+public final class OverpassWayReader {
+     @FunctionalInterface
+     public interface SegmentHandler {
+          void segment(long wayId, double lat1, double lon1, double lat2, double lon2) throws IOException;
+     }
+
+     private static final JsonFactory JSON = new JsonFactory();
+
+     // lat, lon pairs of the current way, reused across ways
+     private double[] geometry = new double[256];
+     private int points;
+
+     /**
+      * @return number of ways read
+      * @throws IOException also if the response is malformed or Overpass reports a runtime error, e.g. a
+      *                     timeout, in which case the elements are incomplete
+      */
+     public long read(InputStream body, SegmentHandler handler) throws IOException {
+          long ways = 0;
+          try (JsonParser json = JSON.createParser(ObjectReadContext.empty(), body)) {
+               expect(json.nextToken(), JsonToken.START_OBJECT);
+               String name;
+               while ((name = json.nextName()) != null) {
+                    JsonToken value = json.nextToken();
+                    switch (name) {
+                         case "elements" -> {
+                              expect(value, JsonToken.START_ARRAY);
+                              while (json.nextToken() != JsonToken.END_ARRAY) {
+                                   if (readElement(json, handler)) ways++;
+                              }
+                         }
+                         case "remark" -> {
+                              String remark = json.getValueAsString("");
+                              if (remark.contains("runtime error")) throw new IOException("Overpass: " + remark);
+                         }
+                         default -> json.skipChildren();
+                    }
+               }
+          } catch (JacksonException e) {
+               throw new IOException("Malformed Overpass response: " + e.getOriginalMessage(), e);
+          }
+          return ways;
+     }
+
+     private boolean readElement(JsonParser json, SegmentHandler handler) throws IOException {
+          String type = null;
+          long id = 0;
+          points = 0;
+
+          expect(json.currentToken(), JsonToken.START_OBJECT);
+          String name;
+          while ((name = json.nextName()) != null) {
+               json.nextToken();
+               switch (name) {
+                    case "type" -> type = json.getValueAsString();
+                    case "id" -> id = json.getLongValue();
+                    case "geometry" -> readGeometry(json);
+                    default -> json.skipChildren();
+               }
+          }
+
+          if (!"way".equals(type) || points < 2) return false;
+          for (int i = 1; i < points; i++) {
+               if (Double.isNaN(geometry[2 * i - 2]) || Double.isNaN(geometry[2 * i])) continue;
+               handler.segment(id, geometry[2 * i - 2], geometry[2 * i - 1], geometry[2 * i], geometry[2 * i + 1]);
+          }
+          return true;
+     }
+
+     private void readGeometry(JsonParser json) throws IOException {
+          expect(json.currentToken(), JsonToken.START_ARRAY);
+          JsonToken point;
+          while ((point = json.nextToken()) != JsonToken.END_ARRAY) {
+               // ways clipped by the bounding box have null placeholders for the nodes outside it, which
+               // are kept as NaN so no segment bridges the gap
+               double lat = Double.NaN, lon = Double.NaN;
+               if (point != JsonToken.VALUE_NULL) {
+                    expect(point, JsonToken.START_OBJECT);
+                    String name;
+                    while ((name = json.nextName()) != null) {
+                         json.nextToken();
+                         switch (name) {
+                              case "lat" -> lat = json.getDoubleValue();
+                              case "lon" -> lon = json.getDoubleValue();
+                              default -> json.skipChildren();
+                         }
+                    }
+                    if (Double.isNaN(lon)) lat = Double.NaN;
+               }
+
+               if (2 * points + 2 > geometry.length) geometry = Arrays.copyOf(geometry, geometry.length * 2);
+               geometry[2 * points] = lat;
+               geometry[2 * points + 1] = lon;
+               points++;
+          }
+     }
+
+     private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+          if (actual != expected) throw new IOException("Malformed Overpass response: expected " + expected + " but got " + actual);
+     }
+}
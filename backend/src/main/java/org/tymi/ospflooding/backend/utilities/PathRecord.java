@@ -2,4 +2,12 @@ package org.tymi.ospflooding.backend.utilities;
 
 import java.util.List;
 
-public record PathRecord(List<Integer> roadIds, double totalLength) {}
+/**
+ * @param startPoint {@code [lat, lon]} where the route leaves the road network, null if it starts at a node
+ * @param endPoint   {@code [lat, lon]} where the route reaches its destination, null if it ends at a node
+ */
+public record PathRecord(List<Integer> roadIds, double totalLength, double[] startPoint, double[] endPoint) {
+     public PathRecord(List<Integer> roadIds, double totalLength) {
+          this(roadIds, totalLength, null, null);
+     }
+}
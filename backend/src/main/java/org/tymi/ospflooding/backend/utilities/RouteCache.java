@@ -0,0 +1,107 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.tymi.ospflooding.backend.graph.RoutingAlgorithm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Least-recently-used cache of computed routes, bounded by an estimate of the memory its entries hold
+ * rather than by their number.
+ */
+public final class RouteCache {
+     // object headers, the key, the map node and the RouteResult
+     private static final long ENTRY_OVERHEAD_BYTES = 256;
+     // boxed Integer plus its reference in the road ID list, and the int in the edge array
+     private static final long BYTES_PER_EDGE = 24;
+
+     /**
+      * @param startPosition position along the start edge in thousandths, so nearby clicks share an entry
+      * @param endPosition   position along the end edge in thousandths
+      */
+     public record Key(long graphVersion, long floodVersion, int startEdge, int startPosition, int endEdge,
+                       int endPosition, RoutingAlgorithm algorithm, int routes) {}
+
+     private record Entry(RouteResult result, int[][] edges, long bytes) {}
+
+     private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+     private final long maxBytes;
+     private long bytes;
+
+     public RouteCache(long maxBytes) {
+          this.maxBytes = maxBytes;
+     }
+
+     public synchronized RouteResult get(Key key) {
+          Entry entry = entries.get(key);
+          return entry == null ? null : entry.result;
+     }
+
+     /**
+      * @param edges graph edge indices of every path in the result, for selective invalidation
+      */
+     public synchronized void put(Key key, RouteResult result, int[][] edges) {
+          long size = ENTRY_OVERHEAD_BYTES;
+          for (int[] path : edges) size += BYTES_PER_EDGE * path.length;
+          if (size > maxBytes) return;
+
+          Entry previous = entries.put(key, new Entry(result, edges, size));
+          if (previous != null) bytes -= previous.bytes;
+          bytes += size;
+
+          Iterator<Entry> eldest = entries.values().iterator();
+          while (bytes > maxBytes && eldest.hasNext()) {
+               bytes -= eldest.next().bytes;
+               eldest.remove();
+          }
+     }
+
+     public synchronized void clear() {
+          entries.clear();
+          bytes = 0;
+     }
+
+     /**
+      * Moves the entries of one flood version to the next, dropping those whose routes use a road that
+      * is flooded now. Only valid if no road dried up in between: then every other cached route is still
+      * the best one.
+      */
+     public synchronized void retainAvoiding(long floodVersion, long nextFloodVersion, IntPredicate flooded) {
+          List<Map.Entry<Key, Entry>> kept = new ArrayList<>();
+          Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+          while (it.hasNext()) {
+               Map.Entry<Key, Entry> entry = it.next();
+               if (entry.getKey().floodVersion() != floodVersion) continue;
+               it.remove();
+               bytes -= entry.getValue().bytes;
+               if (!uses(entry.getValue().edges, flooded)) kept.add(entry);
+          }
+          for (Map.Entry<Key, Entry> entry : kept) {
+               Key key = entry.getKey();
+               entries.put(new Key(key.graphVersion(), nextFloodVersion, key.startEdge(), key.startPosition(),
+                       key.endEdge(), key.endPosition(), key.algorithm(), key.routes()), entry.getValue());
+               bytes += entry.getValue().bytes;
+          }
+     }
+
+     public synchronized int size() {
+          return entries.size();
+     }
+
+     public synchronized long bytes() {
+          return bytes;
+     }
+
+     private static boolean uses(int[][] paths, IntPredicate flooded) {
+          for (int[] path : paths) {
+               for (int edge : path) {
+                    if (flooded.test(edge)) return true;
+               }
+          }
+          return false;
+     }
+}
@@ -0,0 +1,11 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.tymi.ospflooding.backend.graph.RoutingAlgorithm;
+
+import java.util.List;
+
+/**
+ * @param settledNodes  nodes settled by the search, for comparing algorithms
+ * @param elapsedMicros search time, excluding snapping and flood data lookup
+ */
+public record RouteResult(List<PathRecord> paths, RoutingAlgorithm algorithm, int settledNodes, long elapsedMicros) {}
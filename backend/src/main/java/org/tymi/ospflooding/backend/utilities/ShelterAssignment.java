@@ -0,0 +1,9 @@
+package org.tymi.ospflooding.backend.utilities;
+
+/**
+ * @param shelter index into the requested shelters, -1 if none is reachable
+ * @param length  metres along the roads
+ * @param flooded whether every way to the shelter crosses a flooded road
+ * @param path    route to the shelter, null unless requested
+ */
+public record ShelterAssignment(int shelter, double length, boolean flooded, PathRecord path) {}
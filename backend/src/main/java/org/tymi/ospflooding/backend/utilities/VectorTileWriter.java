@@ -0,0 +1,157 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a Mapbox Vector Tile (version 2) holding a single layer of polygon features, encoded by hand
+ * as the few protobuf messages involved. Feature properties are limited to boolean flags.
+ */
+public final class VectorTileWriter {
+     public static final int EXTENT = 4096;
+
+     private static final int MOVE_TO = 1, LINE_TO = 2, CLOSE_PATH = 7;
+     private static final int POLYGON = 3;
+
+     private final String layer;
+     private final List<String> keys = new ArrayList<>();
+     private final ByteArrayOutputStream features = new ByteArrayOutputStream();
+     private IntList tags;
+     private IntList geometry;
+     // the geometry cursor, relative to which every coordinate is written
+     private int cursorX, cursorY;
+     private int featureCount;
+
+     public VectorTileWriter(String layer) {
+          this.layer = layer;
+     }
+
+     public void startPolygon() {
+          finishFeature();
+          tags = new IntList();
+          geometry = new IntList();
+          cursorX = 0;
+          cursorY = 0;
+     }
+
+     /**
+      * Sets a flag of the current feature. Values are shared by every feature, so it costs two tag indices.
+      */
+     public void flag(String key, boolean value) {
+          int index = keys.indexOf(key);
+          if (index < 0) {
+               index = keys.size();
+               keys.add(key);
+          }
+          tags.add(index);
+          tags.add(value ? 1 : 0);
+     }
+
+     /**
+      * Adds a ring to the current polygon. Exterior rings run clockwise on screen, holes counterclockwise,
+      * and every hole follows its exterior ring.
+      */
+     public void ring(int[] xs, int[] ys, int points) {
+          geometry.add(command(MOVE_TO, 1));
+          moveCursor(xs[0], ys[0]);
+          geometry.add(command(LINE_TO, points - 1));
+          for (int i = 1; i < points; i++) moveCursor(xs[i], ys[i]);
+          geometry.add(command(CLOSE_PATH, 1));
+     }
+
+     public void rectangle(int left, int top, int right, int bottom) {
+          ring(new int[]{left, right, right, left}, new int[]{top, top, bottom, bottom}, 4);
+     }
+
+     /**
+      * @return the encoded tile, empty if no feature was added
+      */
+     public byte[] toByteArray() {
+          finishFeature();
+          if (featureCount == 0) return new byte[0];
+
+          ByteArrayOutputStream message = new ByteArrayOutputStream();
+          writeVarint(message, 15 << 3);
+          writeVarint(message, 2);
+          writeBytes(message, 1, layer.getBytes(StandardCharsets.UTF_8));
+          message.writeBytes(features.toByteArray());
+          for (String key : keys) writeBytes(message, 3, key.getBytes(StandardCharsets.UTF_8));
+          // values 0 and 1 are false and true
+          for (int value = 0; value <= 1; value++) {
+               ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+               writeVarint(encoded, 7 << 3);
+               writeVarint(encoded, value);
+               writeBytes(message, 4, encoded.toByteArray());
+          }
+          writeVarint(message, 5 << 3);
+          writeVarint(message, EXTENT);
+
+          ByteArrayOutputStream tile = new ByteArrayOutputStream();
+          writeBytes(tile, 3, message.toByteArray());
+          return tile.toByteArray();
+     }
+
+     private void finishFeature() {
+          if (geometry == null) return;
+          if (geometry.size > 0) {
+               ByteArrayOutputStream feature = new ByteArrayOutputStream();
+               writePacked(feature, 2, tags);
+               writeVarint(feature, 3 << 3);
+               writeVarint(feature, POLYGON);
+               writePacked(feature, 4, geometry);
+               writeBytes(features, 2, feature.toByteArray());
+               featureCount++;
+          }
+          tags = null;
+          geometry = null;
+     }
+
+     private void moveCursor(int x, int y) {
+          geometry.add(zigZag(x - cursorX));
+          geometry.add(zigZag(y - cursorY));
+          cursorX = x;
+          cursorY = y;
+     }
+
+     private static int command(int id, int count) {
+          return (id & 7) | (count << 3);
+     }
+
+     private static int zigZag(int value) {
+          return (value << 1) ^ (value >> 31);
+     }
+
+     private static void writePacked(ByteArrayOutputStream out, int field, IntList values) {
+          if (values.size == 0) return;
+          ByteArrayOutputStream packed = new ByteArrayOutputStream(values.size * 2);
+          for (int i = 0; i < values.size; i++) writeVarint(packed, values.values[i] & 0xFFFFFFFFL);
+          writeBytes(out, field, packed.toByteArray());
+     }
+
+     private static void writeBytes(ByteArrayOutputStream out, int field, byte[] bytes) {
+          writeVarint(out, field << 3 | 2);
+          writeVarint(out, bytes.length);
+          out.writeBytes(bytes);
+     }
+
+     private static void writeVarint(ByteArrayOutputStream out, long value) {
+          while ((value & ~0x7FL) != 0) {
+               out.write((int) (value & 0x7F) | 0x80);
+               value >>>= 7;
+          }
+          out.write((int) value);
+     }
+
+     private static final class IntList {
+          private int[] values = new int[64];
+          private int size;
+
+          void add(int value) {
+               if (size == values.length) values = Arrays.copyOf(values, size * 2);
+               values[size++] = value;
+          }
+     }
+}
@@ -5,6 +5,7 @@ import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.hibernate.autoconfigure.HibernateJpaAutoConfiguration;
 import org.springframework.boot.jdbc.autoconfigure.DataSourceAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.tymi.ospflooding.backend.repositories.FloodCacheRepository;
 import org.tymi.ospflooding.backend.repositories.FloodPointRepository;
@@ -26,6 +27,9 @@ class BackendApplicationTests {
      @MockitoBean
      private FloodPointRepository floodPointRepository;
 
+     @MockitoBean
+     private JdbcTemplate jdbcTemplate;
+
      @Test
      void contextLoads() {
      }
@@ -0,0 +1,121 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.junit.jupiter.api.Test;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import org.tymi.ospflooding.backend.utilities.FloodMaskDelta;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EdgeFloodFlagsTests {
+     private static final double NORTH = 50.06, WEST = 19.90;
+     private static final double CELL = 0.0001;
+     private static final int SIZE = 120;
+
+     @Test
+     void incrementalUpdateMatchesFullComputation() {
+          Random random = new Random(21);
+          int newlyFlooded = 0, newlyDried = 0;
+          for (int iteration = 0; iteration < 30; iteration++) {
+               RoadGraph graph = randomGraph(random);
+               SpatialIndex spatialIndex = SpatialIndex.build(graph);
+               FloodMask previous = new FloodMask(NORTH, WEST, CELL, CELL, SIZE, SIZE);
+               // the first blobs dry up entirely
+               FloodMask cleared = new FloodMask(NORTH, WEST, CELL, CELL, SIZE, SIZE);
+               for (int blob = 0; blob < 8; blob++) {
+                    int row = random.nextInt(SIZE), column = random.nextInt(SIZE), size = 1 + random.nextInt(12);
+                    for (int r = row; r < Math.min(SIZE, row + size); r++) {
+                         previous.setRange(r, column, Math.min(SIZE, column + size));
+                         if (blob < 2) cleared.setRange(r, column, Math.min(SIZE, column + size));
+                    }
+               }
+               EdgeFloodFlags flags = EdgeFloodFlags.compute(graph, previous);
+
+               // then flood or dry the cells under random roads, and flood some anywhere
+               FloodMask current = FloodMask.decode(previous.encode());
+               for (int i = 0; i < 40; i++) {
+                    int edge = random.nextInt(graph.edgeCount());
+                    double fraction = random.nextDouble();
+                    int source = graph.source(edge), target = graph.target(edge);
+                    double lat = graph.latitude(source) + fraction * (graph.latitude(target) - graph.latitude(source));
+                    double lon = graph.longitude(source) + fraction * (graph.longitude(target) - graph.longitude(source));
+                    int row = (int) Math.round((NORTH - lat) / CELL), column = (int) Math.round((lon - WEST) / CELL);
+                    if (row < 0 || row >= SIZE || column < 0 || column >= SIZE) continue;
+                    if (previous.get(row, column)) cleared.set(row, column);
+                    else current.set(row, column);
+               }
+               for (int i = 0; i < 40; i++) current.set(random.nextInt(SIZE), random.nextInt(SIZE));
+               current = subtract(current, cleared);
+               FloodMaskDelta delta = FloodMaskDelta.between(previous, current);
+
+               EdgeFloodFlags updated = flags.update(spatialIndex, delta);
+               EdgeFloodFlags expected = EdgeFloodFlags.compute(graph, current);
+
+               assertSame(current, updated.floodMask());
+               assertEquals(expected.floodedCount(), updated.floodedCount());
+               for (int edge = 0; edge < graph.edgeCount(); edge++) {
+                    assertEquals(expected.isFlooded(edge), updated.isFlooded(edge), "edge " + edge);
+                    if (updated.isFlooded(edge) && !flags.isFlooded(edge)) newlyFlooded++;
+                    if (!updated.isFlooded(edge) && flags.isFlooded(edge)) newlyDried++;
+               }
+          }
+          assertTrue(newlyFlooded > 0 && newlyDried > 0, newlyFlooded + " flooded, " + newlyDried + " dried");
+     }
+
+     @Test
+     void rejectsDeltaOfAnotherMask() {
+          RoadGraph graph = randomGraph(new Random(22));
+          FloodMask previous = new FloodMask(NORTH, WEST, CELL, CELL, SIZE, SIZE);
+          FloodMask current = new FloodMask(NORTH, WEST, CELL, CELL, SIZE, SIZE);
+          current.set(5, 5);
+          EdgeFloodFlags flags = EdgeFloodFlags.compute(graph, FloodMask.decode(previous.encode()));
+
+          assertThrows(IllegalArgumentException.class,
+                  () -> flags.update(SpatialIndex.build(graph), FloodMaskDelta.between(previous, current)));
+     }
+
+     /**
+      * Roads between random junctions over the mask, most of them short, some spanning many cells.
+      */
+     private static RoadGraph randomGraph(Random random) {
+          RoadGraphBuilder builder = new RoadGraphBuilder();
+          double[] lats = new double[150], lons = new double[150];
+          for (int i = 0; i < lats.length; i++) {
+               lats[i] = NORTH - random.nextDouble() * SIZE * CELL;
+               lons[i] = WEST + random.nextDouble() * SIZE * CELL;
+               builder.node(lats[i], lons[i]);
+          }
+          for (int i = 0; i < 300; i++) {
+               int a = random.nextInt(lats.length);
+               int b = i % 10 == 0 ? random.nextInt(lats.length) : nearby(random, lats, lons, a);
+               if (a == b) continue;
+               builder.addEdge(a, b, 1.0, 2 * i + 1, i);
+               builder.addEdge(b, a, 1.0, 2 * i + 2, i);
+          }
+          return builder.build();
+     }
+
+     // the closest of a few random junctions
+     private static int nearby(Random random, double[] lats, double[] lons, int node) {
+          int best = node;
+          double bestDistance = Double.POSITIVE_INFINITY;
+          for (int i = 0; i < 8; i++) {
+               int other = random.nextInt(lats.length);
+               double distance = Math.hypot(lats[other] - lats[node], lons[other] - lons[node]);
+               if (other != node && distance < bestDistance) {
+                    best = other;
+                    bestDistance = distance;
+               }
+          }
+          return best;
+     }
+
+     private static FloodMask subtract(FloodMask mask, FloodMask cleared) {
+          FloodMask result = new FloodMask(NORTH, WEST, CELL, CELL, SIZE, SIZE);
+          mask.forEachFlooded((row, column) -> {
+               if (!cleared.get(row, column)) result.set(row, column);
+          });
+          return result;
+     }
+}
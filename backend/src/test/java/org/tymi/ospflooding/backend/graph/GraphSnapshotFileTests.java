@@ -0,0 +1,66 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tymi.ospflooding.backend.records.SegmentFingerprint;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphSnapshotFileTests {
+     @TempDir
+     Path directory;
+
+     @Test
+     void readsBackTheNetworkOfTheSameSegments() throws IOException {
+          RoadGraph graph = graph(12.0);
+          Path path = directory.resolve("road-network.graph");
+          GraphSnapshotFile.write(path, RoadNetworkSnapshot.build(1, 1, graph, EdgeFloodFlags.none(graph)), fingerprint(12.0));
+
+          GraphSnapshotFile.Contents contents = GraphSnapshotFile.read(path, fingerprint(12.0));
+
+          assertNotNull(contents);
+          assertEquals(graph.edgeCount(), contents.graph().edgeCount());
+          assertEquals(graph.length(graph.edgeOf(2)), contents.graph().length(contents.graph().edgeOf(2)));
+     }
+
+     @Test
+     void rejectsTheNetworkOfOtherSegments() throws IOException {
+          RoadGraph graph = graph(12.0);
+          Path path = directory.resolve("road-network.graph");
+          GraphSnapshotFile.write(path, RoadNetworkSnapshot.build(1, 1, graph, EdgeFloodFlags.none(graph)), fingerprint(12.0));
+
+          // the same ids and count, re-imported with one length changed
+          assertNull(GraphSnapshotFile.read(path, fingerprint(12.5)));
+          // the same count and lengths under other ids
+          SegmentFingerprint.Builder renumbered = new SegmentFingerprint.Builder();
+          renumbered.add(1, 10.0).add(2, 12.0).add(4, 15.0);
+          assertNull(GraphSnapshotFile.read(path, renumbered.build()));
+     }
+
+     @Test
+     void fingerprintIgnoresOrder() {
+          SegmentFingerprint.Builder reversed = new SegmentFingerprint.Builder();
+          reversed.add(3, 15.0).add(2, 12.0).add(1, 10.0);
+
+          assertEquals(fingerprint(12.0), reversed.build());
+          assertEquals(new SegmentFingerprint(3, 3, fingerprint(12.0).checksum()), fingerprint(12.0));
+     }
+
+     private static RoadGraph graph(double secondLength) {
+          RoadGraphBuilder builder = new RoadGraphBuilder();
+          int a = builder.node(50.050, 19.930);
+          int b = builder.node(50.051, 19.930);
+          int c = builder.node(50.051, 19.931);
+          builder.addEdge(a, b, 10.0, 1, 1);
+          builder.addEdge(b, c, secondLength, 2, 2);
+          builder.addEdge(a, c, 15.0, 3, 3);
+          return builder.build();
+     }
+
+     private static SegmentFingerprint fingerprint(double secondLength) {
+          return new SegmentFingerprint.Builder().add(1, 10.0).add(2, secondLength).add(3, 15.0).build();
+     }
+}
@@ -0,0 +1,521 @@
+package org.tymi.ospflooding.backend.graph;
+
+import org.junit.jupiter.api.Test;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.tymi.ospflooding.backend.utilities.Algorithm.Haversine;
+
+/**
+ * Compares the routing algorithms against plain Dijkstra on small random road networks, with one-way
+ * roads, random penalties and a few nodes that cannot be reached.
+ */
+class RoutingEquivalenceTests {
+     private static final double SOUTH = 50.05, WEST = 19.90;
+     private static final double CELL = 0.0004;
+
+     private final SearchWorkspacePool workspaces = new SearchWorkspacePool();
+
+     @Test
+     void algorithmsMatchDijkstraBetweenNodes() {
+          Random random = new Random(11);
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 6 + random.nextInt(10), 6 + random.nextInt(10));
+               EdgePenalty penalty = randomPenalty(random, graph);
+               HierarchyMetric metric = HierarchyMetric.customize(ContractionHierarchy.build(graph), penalty);
+
+               for (int query = 0; query < 60; query++) {
+                    int source = random.nextInt(graph.nodeCount());
+                    int target = random.nextInt(graph.nodeCount());
+                    SearchResult expected = dijkstra(graph, penalty, source, target);
+                    if (expected.isReachable()) assertPathBetween(graph, penalty, expected, source, target);
+
+                    assertSameWeight(expected, aStar(graph, penalty, source, target), "astar " + source + " -> " + target);
+                    SearchResult bidirectional = bidirectional(graph, penalty, source, target);
+                    assertSameWeight(expected, bidirectional, "bidirectional " + source + " -> " + target);
+                    if (bidirectional.isReachable()) assertPathBetween(graph, penalty, bidirectional, source, target);
+                    SearchResult cch = cch(metric, source, target);
+                    assertSameWeight(expected, cch, "cch " + source + " -> " + target);
+                    if (cch.isReachable()) assertPathBetween(graph, penalty, cch, source, target);
+               }
+          }
+     }
+
+     @Test
+     void algorithmsMatchDijkstraBetweenSnappedPoints() {
+          Random random = new Random(12);
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 6 + random.nextInt(10), 6 + random.nextInt(10));
+               EdgePenalty penalty = randomPenalty(random, graph);
+               SpatialIndex spatialIndex = SpatialIndex.build(graph);
+               HierarchyMetric metric = HierarchyMetric.customize(ContractionHierarchy.build(graph), penalty);
+
+               for (int query = 0; query < 60; query++) {
+                    SnapResult source = randomSnap(random, graph, spatialIndex);
+                    SnapResult target = randomSnap(random, graph, spatialIndex);
+                    SearchResult expected = dijkstra(graph, penalty, source, target);
+
+                    assertSameWeight(expected, aStar(graph, penalty, source, target), "astar " + source + " -> " + target);
+                    assertSameWeight(expected, bidirectional(graph, penalty, source, target), "bidirectional " + source + " -> " + target);
+                    assertSameWeight(expected, cch(metric, penalty, source, target), "cch " + source + " -> " + target);
+               }
+          }
+     }
+
+     @Test
+     void allAlgorithmsAgreeOnTheSnappedEdge() {
+          Random random = new Random(14);
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 8, 8);
+               EdgePenalty penalty = randomPenalty(random, graph);
+               HierarchyMetric metric = HierarchyMetric.customize(ContractionHierarchy.build(graph), penalty);
+
+               for (int query = 0; query < 60; query++) {
+                    // both ends on one road, either way along it; against a one-way road the route goes around
+                    int edge = random.nextInt(graph.edgeCount());
+                    SnapResult source = snapOnEdge(graph, edge, 0.05 + 0.9 * random.nextDouble());
+                    SnapResult target = snapOnEdge(graph, edge, 0.05 + 0.9 * random.nextDouble());
+                    SearchResult expected = dijkstra(graph, penalty, source, target);
+                    if (source.fraction() <= target.fraction()) {
+                         // never worse than staying on the road, though a dry or shorter way around may win
+                         double direct = (target.fraction() - source.fraction()) * graph.length(edge);
+                         assertTrue(expected.floodPenalty() < penalty.penalty(edge)
+                                 || expected.floodPenalty() == penalty.penalty(edge) && expected.length() <= direct + 1e-6);
+                    }
+
+                    String message = edge + ": " + source.fraction() + " -> " + target.fraction();
+                    assertSameWeight(expected, aStar(graph, penalty, source, target), "astar " + message);
+                    assertSameWeight(expected, bidirectional(graph, penalty, source, target), "bidirectional " + message);
+                    assertSameWeight(expected, cch(metric, penalty, source, target), "cch " + message);
+               }
+          }
+     }
+
+     @Test
+     void allAlgorithmsAgreeOnUnreachableTargets() {
+          Random random = new Random(15);
+          RoadGraph graph = randomGraph(random, 10, 10);
+          EdgePenalty penalty = randomPenalty(random, graph);
+          HierarchyMetric metric = HierarchyMetric.customize(ContractionHierarchy.build(graph), penalty);
+          // the last junction has no roads
+          int isolated = graph.nodeCount() - 1;
+          assertEquals(graph.firstEdge(isolated), graph.endEdge(isolated));
+
+          for (int source = 0; source < isolated; source++) {
+               assertFalse(dijkstra(graph, penalty, source, isolated).isReachable());
+               assertFalse(aStar(graph, penalty, source, isolated).isReachable());
+               assertFalse(bidirectional(graph, penalty, source, isolated).isReachable());
+               assertFalse(cch(metric, source, isolated).isReachable());
+               assertFalse(cch(metric, isolated, source).isReachable());
+          }
+          assertTrue(dijkstra(graph, penalty, isolated, isolated).isReachable());
+     }
+
+     @Test
+     void recustomizedHierarchyMatchesDijkstra() {
+          Random random = new Random(13);
+          for (int iteration = 0; iteration < 10; iteration++) {
+               RoadGraph graph = randomGraph(random, 12, 12);
+               EdgeFloodFlags before = EdgeFloodFlags.compute(graph, randomFlood(random));
+               RoadNetworkSnapshot network = RoadNetworkSnapshot.build(1, 1, graph, before);
+               EdgeFloodFlags after = EdgeFloodFlags.compute(graph, randomFlood(random));
+
+               // what refreshFloodMetric publishes: the same contraction order, customized again
+               RoadNetworkSnapshot refreshed = network.withFloodFlags(after);
+
+               assertSame(network.hierarchy(), refreshed.hierarchy());
+               for (int query = 0; query < 60; query++) {
+                    SnapResult source = randomSnap(random, graph, network.spatialIndex());
+                    SnapResult target = randomSnap(random, graph, network.spatialIndex());
+
+                    assertSameWeight(dijkstra(graph, before, source, target),
+                            cch(network.metric(), before, source, target), "before " + source + " -> " + target);
+                    assertSameWeight(dijkstra(graph, after, source, target),
+                            cch(refreshed.metric(), after, source, target), "after " + source + " -> " + target);
+               }
+          }
+     }
+
+     @Test
+     void nearestFacilityMatchesDijkstraToEveryFacility() {
+          Random random = new Random(16);
+          int unassigned = 0;
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 6 + random.nextInt(10), 6 + random.nextInt(10));
+               EdgePenalty penalty = randomPenalty(random, graph);
+               SpatialIndex spatialIndex = SpatialIndex.build(graph);
+               SnapResult[] facilities = new SnapResult[1 + random.nextInt(4)];
+               for (int f = 0; f < facilities.length; f++) facilities[f] = randomSnap(random, graph, spatialIndex);
+               SnapResult[] origins = new SnapResult[40];
+               for (int o = 0; o < origins.length; o++) origins[o] = randomSnap(random, graph, spatialIndex);
+
+               Assignment[] assignments = assign(graph, penalty, facilities, origins);
+
+               for (int o = 0; o < origins.length; o++) {
+                    SearchResult nearest = null;
+                    for (SnapResult facility : facilities) {
+                         SearchResult route = dijkstra(graph, penalty, origins[o], facility);
+                         if (route.isReachable() && (nearest == null
+                                 || ShortestPathSearch.less(route.floodPenalty(), route.length(), nearest.floodPenalty(), nearest.length()))) {
+                              nearest = route;
+                         }
+                    }
+                    Assignment assignment = assignments[o];
+                    String message = "origin " + o + " " + origins[o];
+                    if (nearest == null) {
+                         assertFalse(assignment.isAssigned(), message);
+                         unassigned++;
+                         continue;
+                    }
+                    assertTrue(assignment.isAssigned(), message);
+                    assertEquals(nearest.floodPenalty(), assignment.floodPenalty(), message);
+                    assertEquals(nearest.length(), assignment.length(), 1e-6, message);
+                    // ties may go to another facility, but never to a farther one
+                    assertSameWeight(dijkstra(graph, penalty, origins[o], facilities[assignment.facility()]),
+                            new SearchResult(assignment.edges(), assignment.floodPenalty(), assignment.length(), 0), message);
+                    assertContiguous(graph, penalty, assignment.edges(), assignment.floodPenalty(),
+                            origins[o], facilities[assignment.facility()], message);
+               }
+          }
+          assertTrue(unassigned > 0, "no origin without a reachable facility");
+     }
+
+     @Test
+     void distanceMatrixMatchesDijkstraForEveryPair() {
+          Random random = new Random(17);
+          int unreachable = 0;
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 6 + random.nextInt(10), 6 + random.nextInt(10));
+               EdgePenalty penalty = randomPenalty(random, graph);
+               SpatialIndex spatialIndex = SpatialIndex.build(graph);
+               SnapResult[] origins = new SnapResult[1 + random.nextInt(12)];
+               for (int o = 0; o < origins.length; o++) origins[o] = randomSnap(random, graph, spatialIndex);
+               SnapResult[] destinations = new SnapResult[1 + random.nextInt(12)];
+               for (int d = 0; d < destinations.length; d++) destinations[d] = randomSnap(random, graph, spatialIndex);
+
+               DistanceMatrix matrix = DistanceMatrix.compute(graph, penalty, workspaces, origins, destinations);
+
+               assertEquals(origins.length, matrix.rows());
+               assertEquals(destinations.length, matrix.columns());
+               for (int o = 0; o < origins.length; o++) {
+                    for (int d = 0; d < destinations.length; d++) {
+                         SearchResult expected = dijkstra(graph, penalty, origins[o], destinations[d]);
+                         String message = origins[o] + " -> " + destinations[d];
+                         assertEquals(expected.isReachable(), matrix.isReachable(o, d), message);
+                         if (!expected.isReachable()) {
+                              unreachable++;
+                              continue;
+                         }
+                         assertEquals(expected.floodPenalty(), matrix.floodPenalty(o, d), message);
+                         assertEquals(expected.length(), matrix.length(o, d), 1e-6, message);
+                    }
+               }
+          }
+          assertTrue(unreachable > 0, "no unreachable pair");
+     }
+
+     @Test
+     void parallelIsochroneMatchesSequential() {
+          Random random = new Random(18);
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 10 + random.nextInt(30), 10 + random.nextInt(30));
+               EdgePenalty penalty = randomPenalty(random, graph);
+               SpatialIndex spatialIndex = SpatialIndex.build(graph);
+
+               for (int query = 0; query < 10; query++) {
+                    SnapResult start = randomSnap(random, graph, spatialIndex);
+                    double maxLength = 50 + random.nextDouble() * 2000;
+                    double delta = new double[]{5, 40, 250, 5000}[random.nextInt(4)];
+
+                    Isochrone expected;
+                    SearchWorkspace workspace = workspaces.acquire(graph);
+                    try {
+                         expected = Isochrone.compute(graph, penalty, workspace, start, maxLength);
+                    } finally {
+                         workspaces.release(workspace);
+                    }
+                    Isochrone parallel = Isochrone.computeParallel(graph, penalty, start, maxLength, delta);
+
+                    String message = start + " within " + maxLength + " by " + delta;
+                    assertEquals(expected.reachedNodes(), parallel.reachedNodes(), message);
+                    assertArrayEquals(pieces(expected), pieces(parallel), message);
+               }
+          }
+     }
+
+     @Test
+     void alternativeRoutesAreAdmissible() {
+          Random random = new Random(19);
+          int alternatives = 0;
+          for (int iteration = 0; iteration < 20; iteration++) {
+               RoadGraph graph = randomGraph(random, 8 + random.nextInt(10), 8 + random.nextInt(10));
+               EdgePenalty penalty = randomPenalty(random, graph);
+               SpatialIndex spatialIndex = SpatialIndex.build(graph);
+
+               for (int query = 0; query < 30; query++) {
+                    SnapResult source = randomSnap(random, graph, spatialIndex);
+                    SnapResult target = randomSnap(random, graph, spatialIndex);
+                    SearchResult expected = dijkstra(graph, penalty, source, target);
+                    List<SearchResult> routes = AlternativeRoutes.find(graph, penalty, workspaces, source, target, 4);
+
+                    String message = source + " -> " + target;
+                    if (!expected.isReachable()) {
+                         assertTrue(routes.isEmpty(), message);
+                         continue;
+                    }
+                    SearchResult best = routes.get(0);
+                    assertSameWeight(expected, best, message);
+                    assertTrue(routes.size() <= 4, message);
+                    for (int i = 0; i < routes.size(); i++) {
+                         SearchResult route = routes.get(i);
+                         assertContiguous(graph, penalty, route.edges(), route.floodPenalty(), source, target, message + " route " + i);
+                         assertEquals(best.floodPenalty(), route.floodPenalty(), message + " route " + i);
+                         assertTrue(route.length() <= AlternativeRoutes.MAX_STRETCH * best.length() + 1e-6, message + " route " + i);
+                         for (int j = 0; j < i; j++) {
+                              assertTrue(sharedLength(graph, route.edges(), routes.get(j).edges())
+                                      <= AlternativeRoutes.MAX_SHARING * best.length() + 1e-6, message + " routes " + j + " and " + i);
+                         }
+                    }
+                    alternatives += routes.size() - 1;
+               }
+          }
+          assertTrue(alternatives > 0, "no alternative route found");
+     }
+
+     /**
+      * A grid of junctions with jittered positions, connected to their east and south neighbours where a
+      * road exists, a fifth of the roads one-way. The last junction has no roads at all.
+      */
+     private static RoadGraph randomGraph(Random random, int rows, int columns) {
+          RoadGraphBuilder builder = new RoadGraphBuilder();
+          int[][] nodes = new int[rows][columns];
+          double[][] coordinates = new double[rows * columns][];
+          for (int row = 0; row < rows; row++) {
+               for (int column = 0; column < columns; column++) {
+                    double lat = SOUTH + (row + 0.4 * random.nextDouble()) * CELL;
+                    double lon = WEST + (column + 0.4 * random.nextDouble()) * CELL;
+                    nodes[row][column] = builder.node(lat, lon);
+                    coordinates[nodes[row][column]] = new double[]{lat, lon};
+               }
+          }
+          int segmentId = 1;
+          for (int row = 0; row < rows; row++) {
+               for (int column = 0; column < columns; column++) {
+                    if (row == rows - 1 && column == columns - 1) continue;
+                    if (column + 1 < columns && !(row == rows - 1 && column + 2 == columns) && random.nextInt(10) < 8) {
+                         segmentId = addRoad(random, builder, coordinates, nodes[row][column], nodes[row][column + 1], segmentId);
+                    }
+                    if (row + 1 < rows && !(row + 2 == rows && column == columns - 1) && random.nextInt(10) < 8) {
+                         segmentId = addRoad(random, builder, coordinates, nodes[row][column], nodes[row + 1][column], segmentId);
+                    }
+               }
+          }
+          return builder.build();
+     }
+
+     private static int addRoad(Random random, RoadGraphBuilder builder, double[][] coordinates, int a, int b, int segmentId) {
+          // never shorter than the straight line, which A* relies on
+          double length = Haversine(coordinates[a][0], coordinates[a][1], coordinates[b][0], coordinates[b][1])
+                  * (1 + random.nextDouble());
+          boolean forward = true, backward = true;
+          if (random.nextInt(5) == 0) {
+               forward = random.nextBoolean();
+               backward = !forward;
+          }
+          if (forward) builder.addEdge(a, b, length, segmentId, segmentId);
+          if (backward) builder.addEdge(b, a, length, segmentId + 1, segmentId + 1);
+          return segmentId + 2;
+     }
+
+     private static EdgePenalty randomPenalty(Random random, RoadGraph graph) {
+          // whole numbers, so every algorithm adds them up to exactly the same total
+          double[] penalties = new double[graph.edgeCount()];
+          for (int e = 0; e < penalties.length; e++) penalties[e] = random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0;
+          return edge -> penalties[edge];
+     }
+
+     private static FloodMask randomFlood(Random random) {
+          FloodMask mask = new FloodMask(SOUTH + 13 * CELL, WEST, CELL / 4, CELL / 4, 52, 52);
+          for (int blob = 0; blob < 6; blob++) {
+               int row = random.nextInt(52), column = random.nextInt(52), size = 1 + random.nextInt(8);
+               for (int r = row; r < Math.min(52, row + size); r++) mask.setRange(r, column, Math.min(52, column + size));
+          }
+          return mask;
+     }
+
+     private static SnapResult randomSnap(Random random, RoadGraph graph, SpatialIndex spatialIndex) {
+          if (random.nextInt(4) > 0) {
+               return spatialIndex.nearest(SOUTH + random.nextDouble() * 16 * CELL, WEST + random.nextDouble() * 16 * CELL);
+          }
+          // exactly on a junction
+          int edge = random.nextInt(graph.edgeCount());
+          double fraction = random.nextBoolean() ? 0.0 : 1.0;
+          return snapOnEdge(graph, edge, fraction);
+     }
+
+     private static SnapResult snapOnEdge(RoadGraph graph, int edge, double fraction) {
+          int from = graph.source(edge), to = graph.target(edge);
+          double lat = graph.latitude(from) + fraction * (graph.latitude(to) - graph.latitude(from));
+          double lon = graph.longitude(from) + fraction * (graph.longitude(to) - graph.longitude(from));
+          return new SnapResult(edge, fraction, lat, lon, 0);
+     }
+
+     private SearchResult dijkstra(RoadGraph graph, EdgePenalty penalty, int source, int target) {
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               return ShortestPathSearch.dijkstra(graph, penalty, workspace, source, target);
+          } finally {
+               workspaces.release(workspace);
+          }
+     }
+
+     private SearchResult dijkstra(RoadGraph graph, EdgePenalty penalty, SnapResult source, SnapResult target) {
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               return ShortestPathSearch.dijkstra(graph, penalty, workspace, source, target);
+          } finally {
+               workspaces.release(workspace);
+          }
+     }
+
+     private SearchResult aStar(RoadGraph graph, EdgePenalty penalty, int source, int target) {
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               return ShortestPathSearch.aStar(graph, penalty, workspace, source, target);
+          } finally {
+               workspaces.release(workspace);
+          }
+     }
+
+     private SearchResult aStar(RoadGraph graph, EdgePenalty penalty, SnapResult source, SnapResult target) {
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               return ShortestPathSearch.aStar(graph, penalty, workspace, source, target);
+          } finally {
+               workspaces.release(workspace);
+          }
+     }
+
+     private SearchResult bidirectional(RoadGraph graph, EdgePenalty penalty, int source, int target) {
+          SearchWorkspace forward = workspaces.acquire(graph);
+          SearchWorkspace backward = workspaces.acquire(graph);
+          try {
+               return ShortestPathSearch.bidirectional(graph, penalty, forward, backward, source, target);
+          } finally {
+               workspaces.release(forward);
+               workspaces.release(backward);
+          }
+     }
+
+     private SearchResult bidirectional(RoadGraph graph, EdgePenalty penalty, SnapResult source, SnapResult target) {
+          SearchWorkspace forward = workspaces.acquire(graph);
+          SearchWorkspace backward = workspaces.acquire(graph);
+          try {
+               return ShortestPathSearch.bidirectional(graph, penalty, forward, backward, source, target);
+          } finally {
+               workspaces.release(forward);
+               workspaces.release(backward);
+          }
+     }
+
+     private SearchResult cch(HierarchyMetric metric, int source, int target) {
+          SearchWorkspace forward = workspaces.acquire(metric.hierarchy().graph());
+          SearchWorkspace backward = workspaces.acquire(metric.hierarchy().graph());
+          try {
+               return metric.query(forward, backward, source, target);
+          } finally {
+               workspaces.release(forward);
+               workspaces.release(backward);
+          }
+     }
+
+     private SearchResult cch(HierarchyMetric metric, EdgePenalty penalty, SnapResult source, SnapResult target) {
+          SearchWorkspace forward = workspaces.acquire(metric.hierarchy().graph());
+          SearchWorkspace backward = workspaces.acquire(metric.hierarchy().graph());
+          try {
+               return metric.query(forward, backward, penalty, source, target);
+          } finally {
+               workspaces.release(forward);
+               workspaces.release(backward);
+          }
+     }
+
+     private Assignment[] assign(RoadGraph graph, EdgePenalty penalty, SnapResult[] facilities, SnapResult[] origins) {
+          SearchWorkspace workspace = workspaces.acquire(graph);
+          try {
+               return NearestFacilitySearch.assign(graph, penalty, workspace, facilities, origins, true);
+          } finally {
+               workspaces.release(workspace);
+          }
+     }
+
+     /**
+      * @return the reached pieces as {@code [edge, from, to]} rows in a fixed order, however they were found
+      */
+     private static double[][] pieces(Isochrone isochrone) {
+          double[][] pieces = new double[isochrone.pieceCount()][];
+          for (int i = 0; i < pieces.length; i++) {
+               // rounded, as the two searches may add up a length in a different order
+               pieces[i] = new double[]{isochrone.edge(i), Math.round(isochrone.fromFraction(i) * 1e6) / 1e6,
+                       Math.round(isochrone.toFraction(i) * 1e6) / 1e6};
+          }
+          Arrays.sort(pieces, Comparator.<double[]>comparingDouble(p -> p[0]).thenComparingDouble(p -> p[1]).thenComparingDouble(p -> p[2]));
+          return pieces;
+     }
+
+     private static double sharedLength(RoadGraph graph, int[] edges, int[] other) {
+          Set<Integer> otherEdges = new HashSet<>();
+          for (int edge : other) otherEdges.add(edge);
+          double shared = 0;
+          for (int edge : edges) {
+               if (otherEdges.contains(edge)) shared += graph.length(edge);
+          }
+          return shared;
+     }
+
+     private static void assertSameWeight(SearchResult expected, SearchResult actual, String message) {
+          assertEquals(expected.isReachable(), actual.isReachable(), message);
+          if (!expected.isReachable()) return;
+          assertEquals(expected.floodPenalty(), actual.floodPenalty(), message);
+          assertEquals(expected.length(), actual.length(), 1e-6, message);
+     }
+
+     /**
+      * Checks that the edges, shortcuts unpacked, lead from the source to the target and add up to the
+      * reported weight.
+      */
+     private static void assertPathBetween(RoadGraph graph, EdgePenalty penalty, SearchResult result, int source, int target) {
+          int node = source;
+          double floodPenalty = 0, length = 0;
+          for (int edge : result.edges()) {
+               assertEquals(node, graph.source(edge));
+               node = graph.target(edge);
+               floodPenalty += penalty.penalty(edge);
+               length += graph.length(edge);
+          }
+          assertEquals(target, node);
+          assertEquals(result.floodPenalty(), floodPenalty);
+          assertEquals(result.length(), length, 1e-6);
+     }
+
+     /**
+      * Checks that the edges, from the road of the start point to the road of the end point, follow on
+      * from each other and add up to the reported flood penalty. The first and last edge may be partial.
+      */
+     private static void assertContiguous(RoadGraph graph, EdgePenalty penalty, int[] edges, double floodPenalty,
+                                          SnapResult from, SnapResult to, String message) {
+          assertNotNull(edges, message);
+          if (edges.length == 0) return;
+          int start = graph.source(edges[0]), end = graph.target(edges[edges.length - 1]);
+          assertTrue(start == graph.source(from.edge()) || start == graph.target(from.edge()), message);
+          assertTrue(end == graph.source(to.edge()) || end == graph.target(to.edge()), message);
+          double total = penalty.penalty(edges[0]);
+          for (int i = 1; i < edges.length; i++) {
+               assertEquals(graph.target(edges[i - 1]), graph.source(edges[i]), message + " at edge " + i);
+               total += penalty.penalty(edges[i]);
+          }
+          assertEquals(floodPenalty, total, message);
+     }
+}
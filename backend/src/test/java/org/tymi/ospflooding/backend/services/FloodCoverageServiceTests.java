@@ -0,0 +1,171 @@
+package org.tymi.ospflooding.backend.services;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Downloads flood coverage from a local stand-in for the Sentinel Hub WCS endpoint, which renders a
+ * known pattern for whatever tile is requested.
+ */
+class FloodCoverageServiceTests {
+     private static final Pattern PARAMETER = Pattern.compile("([A-Z]+)=([^&]*)");
+     // 600 x 300 pixels, so tiles of 256 pixels make 3 columns and 2 rows
+     private static final double SOUTH = 50.0, WEST = 19.9, NORTH = 50.015, EAST = 19.93;
+     private static final int WIDTH = 600, HEIGHT = 300, TILE = 256;
+
+     private HttpServer server;
+     private ExecutorService serverThreads;
+     private String url;
+     private final AtomicInteger requests = new AtomicInteger();
+     private final AtomicInteger inFlight = new AtomicInteger();
+     private final AtomicInteger maxInFlight = new AtomicInteger();
+     // per tile "row,column", responses to give before the tile itself: an HTTP status or "xml"
+     private final Map<String, Queue<String>> failures = new ConcurrentHashMap<>();
+
+     @BeforeEach
+     void startServer() throws IOException {
+          server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+          serverThreads = Executors.newCachedThreadPool();
+          server.setExecutor(serverThreads);
+          server.createContext("/wcs", exchange -> {
+               requests.incrementAndGet();
+               maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+               try {
+                    Map<String, String> query = new HashMap<>();
+                    Matcher parameter = PARAMETER.matcher(URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8));
+                    while (parameter.find()) query.put(parameter.group(1), parameter.group(2));
+                    String[] bbox = query.get("BBOX").split(",");
+                    int width = Integer.parseInt(query.get("WIDTH"));
+                    int height = Integer.parseInt(query.get("HEIGHT"));
+                    // first global pixel of the tile
+                    int x0 = (int) Math.round((Double.parseDouble(bbox[0]) - WEST) / (EAST - WEST) * WIDTH);
+                    int y0 = (int) Math.round((NORTH - Double.parseDouble(bbox[3])) / (NORTH - SOUTH) * HEIGHT);
+
+                    Thread.sleep(100);
+                    String failure = failures.getOrDefault(y0 / TILE + "," + x0 / TILE, new ConcurrentLinkedQueue<>()).poll();
+                    byte[] body;
+                    if (failure == null) {
+                         body = render(x0, y0, width, height);
+                         exchange.getResponseHeaders().add("Content-Type", "image/png");
+                         exchange.sendResponseHeaders(200, body.length);
+                    } else if (failure.equals("xml")) {
+                         body = "<ServiceExceptionReport><ServiceException>Error</ServiceException></ServiceExceptionReport>".getBytes();
+                         exchange.getResponseHeaders().add("Content-Type", "application/vnd.ogc.se_xml");
+                         exchange.sendResponseHeaders(200, body.length);
+                    } else {
+                         body = "{\"error\":\"try later\"}".getBytes();
+                         exchange.sendResponseHeaders(Integer.parseInt(failure), body.length);
+                    }
+                    try (OutputStream out = exchange.getResponseBody()) {
+                         out.write(body);
+                    }
+               } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+               } finally {
+                    inFlight.decrementAndGet();
+               }
+          });
+          server.start();
+          url = "http://127.0.0.1:" + server.getAddress().getPort() + "/wcs";
+     }
+
+     @AfterEach
+     void stopServer() {
+          server.stop(0);
+          serverThreads.shutdownNow();
+     }
+
+     @Test
+     void downloadsTilesConcurrently() throws Exception {
+          FloodMask mask = service().download(SOUTH, WEST, NORTH, EAST, "2025-12-04", "2025-12-05");
+
+          assertEquals(6, requests.get());
+          assertEquals(2, maxInFlight.get());
+          assertMatchesPattern(mask);
+     }
+
+     @Test
+     void retriesFailedTile() throws Exception {
+          failures.put("1,2", new ConcurrentLinkedQueue<>(List.of("503", "429")));
+          FloodMask mask = service().download(SOUTH, WEST, NORTH, EAST, "2025-12-04", "2025-12-05");
+
+          assertEquals(8, requests.get());
+          assertMatchesPattern(mask);
+     }
+
+     @Test
+     void keepsFinishedTilesAfterPartialFailure() throws Exception {
+          failures.put("0,1", new ConcurrentLinkedQueue<>(List.of("500")));
+          FloodCoverageService service = service();
+
+          IOException failure = assertThrows(IOException.class,
+                  () -> service.download(SOUTH, WEST, NORTH, EAST, "2025-12-04", "2025-12-05"));
+          assertTrue(failure.getMessage().startsWith("1 of 6 flood tiles failed"), failure.getMessage());
+          // client errors are not retried, and the other tiles still finish
+          assertEquals(6, requests.get());
+
+          FloodMask mask = service.download(SOUTH, WEST, NORTH, EAST, "2025-12-04", "2025-12-05");
+          assertEquals(7, requests.get());
+          assertMatchesPattern(mask);
+     }
+
+     @Test
+     void doesNotRetryServiceExceptions() {
+          failures.put("0,0", new ConcurrentLinkedQueue<>(List.of("xml", "xml", "xml")));
+
+          assertThrows(IOException.class, () -> service().download(SOUTH, WEST, NORTH, EAST, "2025-12-04", "2025-12-05"));
+          assertEquals(6, requests.get());
+     }
+
+     private FloodCoverageService service() {
+          return new FloodCoverageService(url, TILE, 2, 3, 1, 60);
+     }
+
+     private static boolean flooded(int x, int y) {
+          return (x / 9 + y / 5) % 3 == 0 || (x > 250 && x < 270);
+     }
+
+     private static void assertMatchesPattern(FloodMask mask) {
+          assertEquals(HEIGHT / 2, mask.rows());
+          assertEquals(WIDTH / 2, mask.columns());
+          assertEquals(NORTH, mask.north());
+          assertEquals(SOUTH, mask.south(), 1e-9);
+          for (int row = 0; row < mask.rows(); row++) {
+               for (int column = 0; column < mask.columns(); column++) {
+                    assertEquals(flooded(column * 2, row * 2), mask.get(row, column), row + "," + column);
+               }
+          }
+     }
+
+     private static byte[] render(int x0, int y0, int width, int height) throws IOException {
+          BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+          for (int y = 0; y < height; y++) {
+               for (int x = 0; x < width; x++) image.setRGB(x, y, flooded(x0 + x, y0 + y) ? 0x1020F0 : 0x808080);
+          }
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          ImageIO.write(image, "png", out);
+          return out.toByteArray();
+     }
+}
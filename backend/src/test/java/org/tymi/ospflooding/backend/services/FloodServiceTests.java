@@ -0,0 +1,60 @@
+package org.tymi.ospflooding.backend.services;
+
+import org.junit.jupiter.api.Test;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FloodServiceTests {
+
+     @Test
+     void streamsFloodedPointsAsGeoJson() throws IOException {
+          FloodMask mask = new FloodMask(50.07, 19.9, 0.0001, 0.0001, 300, 200);
+          mask.setRange(3, 60, 70);
+          mask.set(250, 199);
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+          FloodService.writeFloodedPoints(mask, out);
+
+          try (JsonParser reader = new JsonFactory().createParser(ObjectReadContext.empty(), out.toByteArray())) {
+               assertEquals(JsonToken.START_OBJECT, reader.nextToken());
+               assertEquals("type", reader.nextName());
+               assertEquals("FeatureCollection", reader.nextStringValue());
+               assertEquals("features", reader.nextName());
+               assertEquals(JsonToken.START_ARRAY, reader.nextToken());
+               int features = 0;
+               while (reader.nextToken() == JsonToken.START_OBJECT) {
+                    assertEquals("type", reader.nextName());
+                    assertEquals("Feature", reader.nextStringValue());
+                    assertEquals("geometry", reader.nextName());
+                    assertEquals(JsonToken.START_OBJECT, reader.nextToken());
+                    assertEquals("type", reader.nextName());
+                    assertEquals("Point", reader.nextStringValue());
+                    assertEquals("coordinates", reader.nextName());
+                    assertEquals(JsonToken.START_ARRAY, reader.nextToken());
+                    reader.nextToken();
+                    double lon = reader.getDoubleValue();
+                    reader.nextToken();
+                    double lat = reader.getDoubleValue();
+                    assertEquals(JsonToken.END_ARRAY, reader.nextToken());
+                    assertEquals(JsonToken.END_OBJECT, reader.nextToken());
+                    assertTrue(mask.contains(lat - 1e-9, lon + 1e-9), lat + "," + lon);
+                    assertEquals("properties", reader.nextName());
+                    reader.nextToken();
+                    reader.skipChildren();
+                    assertEquals(JsonToken.END_OBJECT, reader.nextToken());
+                    features++;
+               }
+               assertEquals(JsonToken.END_ARRAY, reader.currentToken());
+               assertEquals(JsonToken.END_OBJECT, reader.nextToken());
+               assertEquals(11, features);
+          }
+     }
+}
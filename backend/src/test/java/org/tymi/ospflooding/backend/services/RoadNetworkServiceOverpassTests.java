@@ -0,0 +1,176 @@
+package org.tymi.ospflooding.backend.services;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.tymi.ospflooding.backend.graph.RoadGraph;
+import org.tymi.ospflooding.backend.repositories.RoadSegmentBulkWriter;
+import org.tymi.ospflooding.backend.repositories.RoadSegmentFingerprints;
+import org.tymi.ospflooding.backend.repositories.RoadSegmentRepository;
+import org.tymi.ospflooding.backend.utilities.FloodMask;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Loads the road network from a local stand-in for the Overpass API serving recorded responses.
+ */
+class RoadNetworkServiceOverpassTests {
+     private static final Pattern BBOX = Pattern.compile("\\(([-0-9.]+),([-0-9.]+),([-0-9.]+),([-0-9.]+)\\)");
+
+     private HttpServer server;
+     private String url;
+     private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+     // per fixture, responses to give before the fixture itself: an HTTP status or another fixture's name
+     private final Map<String, Queue<String>> failures = new ConcurrentHashMap<>();
+
+     private JdbcTemplate jdbcTemplate;
+
+     @BeforeEach
+     void startServer() throws IOException {
+          server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+          server.createContext("/api/interpreter", exchange -> {
+               String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8);
+               queries.add(query);
+
+               String fixture = fixtureFor(query);
+               String failure = failures.getOrDefault(fixture, new ConcurrentLinkedQueue<>()).poll();
+               int status = 200;
+               if (failure != null && failure.chars().allMatch(Character::isDigit)) {
+                    status = Integer.parseInt(failure);
+               } else if (failure != null) {
+                    fixture = failure;
+               }
+
+               byte[] body = status == 200 ? fixture(fixture) : "<html>Too Many Requests</html>".getBytes();
+               exchange.getResponseHeaders().add("Content-Type", "application/json");
+               exchange.sendResponseHeaders(status, body.length);
+               try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+               }
+          });
+          server.start();
+          url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/interpreter";
+          jdbcTemplate = mock(JdbcTemplate.class);
+     }
+
+     @AfterEach
+     void stopServer() {
+          server.stop(0);
+     }
+
+     @Test
+     void loadsWaysFromStreamedResponse() throws Exception {
+          RoadNetworkService service = service(0.1);
+          service.loadOSMRoads(50.05, 19.93, 50.06, 19.94);
+
+          assertEquals(1, queries.size());
+          assertTrue(queries.getFirst().contains("out geom"));
+
+          RoadGraph graph = service.getSnapshot().graph();
+          // 2 + 1 + 2 segments; the clipped way is split at its gap, the single-point way has none
+          assertEquals(5, graph.edgeCount());
+          // the second way starts where the first one ends
+          assertEquals(8, graph.nodeCount());
+
+          // all five rows in one multi-row insert
+          ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+          ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+          verify(jdbcTemplate).update(sql.capture(), args.capture(), any(int[].class));
+          assertTrue(sql.getValue().startsWith("INSERT INTO road_segment (id, length, coordinates) VALUES"));
+          Object[] rows = args.getValue();
+          assertEquals(15, rows.length);
+          assertEquals("[[50.0553651,19.9349873],[50.055731,19.9355632]]", rows[2]);
+          for (int i = 1; i < rows.length; i += 3) assertTrue((Double) rows[i] > 0);
+
+          int first = graph.edgeOf((Integer) rows[0]);
+          assertEquals(23769133, graph.wayId(first));
+          assertEquals(50.0553651, graph.latitude(graph.source(first)));
+          assertEquals(19.9349873, graph.longitude(graph.source(first)));
+     }
+
+     @Test
+     void rejectsFailedResponse() {
+          failures.put("ways", new ConcurrentLinkedQueue<>(List.of("429", "429", "429")));
+          RoadNetworkService service = service(0.1);
+
+          assertThrows(IOException.class, () -> service.loadOSMRoads(50.05, 19.93, 50.06, 19.94));
+          assertEquals(3, queries.size());
+          assertTrue(service.getSnapshot().graph().isEmpty());
+          verifyNoInteractions(jdbcTemplate);
+     }
+
+     @Test
+     void doesNotRetryClientErrors() {
+          failures.put("ways", new ConcurrentLinkedQueue<>(List.of("400")));
+          RoadNetworkService service = service(0.1);
+
+          assertThrows(IOException.class, () -> service.loadOSMRoads(50.05, 19.93, 50.06, 19.94));
+          assertEquals(1, queries.size());
+     }
+
+     @Test
+     void stitchesTilesAndRetriesFailedOnes() throws Exception {
+          // the east tile is first rate limited, then times out on the server, then succeeds
+          failures.put("tile-east", new ConcurrentLinkedQueue<>(List.of("503", "timeout")));
+          RoadNetworkService service = service(0.02);
+          service.loadOSMRoads(50.00, 19.90, 50.02, 19.94);
+
+          assertEquals(4, queries.size());
+
+          RoadGraph graph = service.getSnapshot().graph();
+          // way 101 crosses the border and comes with both tiles, but is only added once
+          assertEquals(2 + 1 + 1, graph.edgeCount());
+          // way 103 starts on the border node where way 101 ends
+          assertEquals(5, graph.nodeCount());
+
+          int[] wayEdges = new int[4];
+          for (int e = 0; e < graph.edgeCount(); e++) wayEdges[graph.wayId(e) - 100]++;
+          assertArrayEquals(new int[]{0, 2, 1, 1}, wayEdges);
+
+          // every segment persisted exactly once, with distinct ids
+          ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+          verify(jdbcTemplate).update(anyString(), args.capture(), any(int[].class));
+          Set<Object> ids = new HashSet<>();
+          for (int i = 0; i < args.getValue().length; i += 3) ids.add(args.getValue()[i]);
+          assertEquals(4, ids.size());
+     }
+
+     private RoadNetworkService service(double tileDegrees) {
+          OverpassService overpass = new OverpassService(url, tileDegrees, 2, 3, 1);
+          FloodService floodService = mock(FloodService.class);
+          when(floodService.loadFloodMask(anyDouble(), anyDouble(), anyDouble(), anyDouble())).thenReturn(FloodMask.empty());
+          return new RoadNetworkService(mock(RoadSegmentRepository.class), new RoadSegmentBulkWriter(jdbcTemplate),
+                  new RoadSegmentFingerprints(jdbcTemplate), overpass, floodService, "dijkstra", 1 << 20, "");
+     }
+
+     private static String fixtureFor(String query) {
+          Matcher bbox = BBOX.matcher(query);
+          assertTrue(bbox.find(), query);
+          double south = Double.parseDouble(bbox.group(1));
+          double west = Double.parseDouble(bbox.group(2));
+          if (south >= 50.05) return "ways";
+          return west < 19.91 ? "tile-west" : "tile-east";
+     }
+
+     private byte[] fixture(String name) throws IOException {
+          try (InputStream in = getClass().getResourceAsStream("/overpass/" + name + ".json")) {
+               return in.readAllBytes();
+          }
+     }
+}
@@ -0,0 +1,116 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FloodMaskTests {
+
+     @Test
+     void readsEverySecondPixelOfImage() {
+          BufferedImage image = new BufferedImage(131, 70, BufferedImage.TYPE_3BYTE_BGR);
+          Random random = new Random(7);
+          for (int y = 0; y < image.getHeight(); y++) {
+               for (int x = 0; x < image.getWidth(); x++) image.setRGB(x, y, random.nextBoolean() ? 0x0000FF : 0x808080);
+          }
+
+          FloodMask mask = FloodMask.fromImage(image, 50.1, 19.9, 0.00005, 0.00005, 2, rgb -> (rgb & 0xFF) == 0xFF);
+
+          assertEquals(35, mask.rows());
+          assertEquals(66, mask.columns());
+          int flooded = 0;
+          for (int row = 0; row < mask.rows(); row++) {
+               for (int column = 0; column < mask.columns(); column++) {
+                    boolean expected = image.getRGB(column * 2, row * 2) == 0xFF0000FF;
+                    assertEquals(expected, mask.get(row, column), row + "," + column);
+                    if (expected) flooded++;
+               }
+          }
+          assertEquals(flooded, mask.count());
+          assertEquals(mask.get(3, 5), mask.contains(mask.latitude(3) - 0.00001, mask.longitude(5) + 0.00001));
+          assertFalse(mask.contains(50.2, 19.95));
+     }
+
+     @Test
+     void encodingRoundTrips() {
+          Random random = new Random(11);
+          for (int i = 0; i < 200; i++) {
+               FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, random.nextInt(30), random.nextInt(150));
+               for (int row = 0; row < mask.rows(); row++) {
+                    int from = random.nextInt(mask.columns() + 1);
+                    mask.setRange(row, from, from + random.nextInt(mask.columns() - from + 1));
+                    if (mask.columns() > 0 && random.nextBoolean()) mask.set(row, random.nextInt(mask.columns()));
+               }
+
+               FloodMask decoded = FloodMask.decode(mask.encode());
+               assertEquals(mask.rows(), decoded.rows());
+               assertEquals(mask.columns(), decoded.columns());
+               assertEquals(mask.north(), decoded.north());
+               assertEquals(mask.cellWidth(), decoded.cellWidth());
+               for (int row = 0; row < mask.rows(); row++) {
+                    for (int column = 0; column < mask.columns(); column++) {
+                         assertEquals(mask.get(row, column), decoded.get(row, column));
+                    }
+               }
+          }
+     }
+
+     @Test
+     void encodesLargeFloodsCompactly() {
+          FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 2000, 2000);
+          for (int row = 500; row < 1500; row++) mask.setRange(row, 200, 1800);
+
+          byte[] encoded = mask.encode();
+          assertTrue(encoded.length < 8 * 1024, "encoded to " + encoded.length + " bytes");
+          assertThrows(IllegalArgumentException.class, () -> FloodMask.decode(Arrays.copyOf(encoded, encoded.length - 2)));
+     }
+
+     @Test
+     void pastesTileAtOffset() {
+          FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 40, 200);
+          FloodMask tile = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 10, 70);
+          tile.setRange(0, 0, 70);
+          tile.set(9, 3);
+
+          mask.paste(tile, 30, 100);
+
+          assertEquals(71, mask.count());
+          assertTrue(mask.get(30, 100) && mask.get(30, 169) && mask.get(39, 103));
+          assertFalse(mask.get(30, 99) || mask.get(30, 170));
+          assertThrows(IllegalArgumentException.class, () -> mask.paste(tile, 31, 0));
+     }
+
+     @Test
+     void deltaListsChangedCells() {
+          FloodMask previous = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 300, 200);
+          previous.setRange(10, 20, 150);
+          previous.set(250, 199);
+          FloodMask current = FloodMask.decode(previous.encode());
+          current.setRange(11, 20, 30);
+          FloodMask dried = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 300, 200);
+          dried.setRange(10, 20, 150);
+          dried.setRange(11, 20, 30);
+
+          FloodMaskDelta grown = FloodMaskDelta.between(previous, current);
+          assertEquals(10, grown.floodedCount());
+          assertEquals(0, grown.driedCount());
+          assertEquals(1, grown.changedTiles());
+          grown.forEachFlooded((row, column) -> assertTrue(row == 11 && column >= 20 && column < 30));
+
+          FloodMaskDelta shrunk = FloodMaskDelta.between(current, dried);
+          assertEquals(0, shrunk.floodedCount());
+          assertEquals(1, shrunk.driedCount());
+          shrunk.forEachDried((row, column) -> assertEquals(250 * 1000 + 199, row * 1000 + column));
+
+          assertTrue(FloodMaskDelta.between(dried, FloodMask.decode(dried.encode())).isEmpty());
+          assertTrue(dried.sameCellsAs(FloodMask.decode(dried.encode())));
+          assertFalse(dried.sameCellsAs(current));
+          assertFalse(dried.sameCellsAs(FloodMask.empty()));
+          assertThrows(IllegalArgumentException.class,
+                  () -> FloodMaskDelta.between(previous, new FloodMask(50.1, 19.9, 0.0001, 0.0001, 300, 201)));
+     }
+}
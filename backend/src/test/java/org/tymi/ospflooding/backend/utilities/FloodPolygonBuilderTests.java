@@ -0,0 +1,130 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FloodPolygonBuilderTests {
+
+     @Test
+     void keepsHoles() {
+          FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 20, 20);
+          for (int row = 2; row < 12; row++) mask.setRange(row, 2, 12);
+          // the holes, each one cell wide
+          FloodMask holes = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 20, 20);
+          holes.set(4, 4);
+          holes.set(9, 9);
+          FloodMask flood = subtract(mask, holes);
+
+          List<FloodPolygonBuilder.Polygon> polygons = FloodPolygonBuilder.build(flood, 0);
+
+          assertEquals(1, polygons.size());
+          FloodPolygonBuilder.Polygon polygon = polygons.getFirst();
+          assertEquals(3, polygon.rings().size());
+          assertEquals(98, polygon.cellCount());
+          assertTrue(signedArea(polygon.rings().get(0)) > 0, "exterior counterclockwise");
+          assertTrue(signedArea(polygon.rings().get(1)) < 0, "hole clockwise");
+          assertEquals(100 * 1e-8, signedArea(polygon.rings().get(0)), 1e-12);
+          assertEquals(-1e-8, signedArea(polygon.rings().get(1)), 1e-12);
+     }
+
+     @Test
+     void separatesCellsTouchingAtACorner() {
+          FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 4, 4);
+          mask.set(1, 1);
+          mask.set(2, 2);
+          mask.set(1, 3);
+
+          List<FloodPolygonBuilder.Polygon> polygons = FloodPolygonBuilder.build(mask, 0);
+
+          assertEquals(3, polygons.size());
+          for (FloodPolygonBuilder.Polygon polygon : polygons) {
+               assertEquals(1, polygon.cellCount());
+               assertEquals(10, polygon.rings().getFirst().length);
+          }
+     }
+
+     @Test
+     void outlinesMatchTheMask() {
+          Random random = new Random(5);
+          for (int iteration = 0; iteration < 30; iteration++) {
+               // taller than a stripe, so areas are joined across stripe borders
+               FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 150, 90);
+               for (int blob = 0; blob < 25; blob++) {
+                    int centerRow = random.nextInt(150), centerColumn = random.nextInt(90), radius = 1 + random.nextInt(15);
+                    for (int row = Math.max(0, centerRow - radius); row < Math.min(150, centerRow + radius); row++) {
+                         int width = (int) Math.sqrt(radius * radius - (row - centerRow) * (row - centerRow));
+                         mask.setRange(row, Math.max(0, centerColumn - width), Math.min(90, centerColumn + width));
+                    }
+               }
+               for (int i = 0; i < 300; i++) mask.set(random.nextInt(150), random.nextInt(90));
+
+               List<FloodPolygonBuilder.Polygon> polygons = FloodPolygonBuilder.build(mask, 0);
+
+               int cells = 0;
+               for (FloodPolygonBuilder.Polygon polygon : polygons) cells += polygon.cellCount();
+               assertEquals(mask.count(), cells);
+               for (int row = 0; row < mask.rows(); row++) {
+                    for (int column = 0; column < mask.columns(); column++) {
+                         double lat = mask.latitude(row) - mask.cellHeight() / 2;
+                         double lon = mask.longitude(column) + mask.cellWidth() / 2;
+                         int inside = 0;
+                         for (FloodPolygonBuilder.Polygon polygon : polygons) {
+                              if (contains(polygon, lat, lon)) inside++;
+                         }
+                         assertEquals(mask.get(row, column) ? 1 : 0, inside, row + "," + column);
+                    }
+               }
+          }
+     }
+
+     @Test
+     void simplifiesForCoarserZoom() {
+          FloodMask mask = new FloodMask(50.1, 19.9, 0.0001, 0.0001, 200, 200);
+          // a staircase diagonal, a corner every cell
+          for (int row = 0; row < 200; row++) mask.setRange(row, 0, 200 - row);
+          mask.set(199, 199);
+
+          List<FloodPolygonBuilder.Polygon> exact = FloodPolygonBuilder.build(mask, 0);
+          List<FloodPolygonBuilder.Polygon> simplified = FloodPolygonBuilder.build(mask, 0.0002);
+
+          assertEquals(2, exact.size());
+          assertTrue(exact.getFirst().rings().getFirst().length > 800);
+          // the lone cell is smaller than the tolerance
+          assertEquals(1, simplified.size());
+          assertTrue(simplified.getFirst().rings().getFirst().length <= 10);
+          assertEquals(signedArea(exact.getFirst().rings().getFirst()),
+                  signedArea(simplified.getFirst().rings().getFirst()), 0.02 * 0.02 * 0.01);
+     }
+
+     private static FloodMask subtract(FloodMask mask, FloodMask holes) {
+          FloodMask result = new FloodMask(mask.north(), mask.west(), mask.cellHeight(), mask.cellWidth(), mask.rows(), mask.columns());
+          mask.forEachFlooded((row, column) -> {
+               if (!holes.get(row, column)) result.set(row, column);
+          });
+          return result;
+     }
+
+     /**
+      * @return area of the ring in square degrees, positive if counterclockwise
+      */
+     private static double signedArea(double[] ring) {
+          double area = 0;
+          for (int i = 0; i + 3 < ring.length; i += 2) area += ring[i] * ring[i + 3] - ring[i + 2] * ring[i + 1];
+          return area / 2;
+     }
+
+     private static boolean contains(FloodPolygonBuilder.Polygon polygon, double lat, double lon) {
+          boolean inside = false;
+          for (double[] ring : polygon.rings()) {
+               for (int i = 0; i + 3 < ring.length; i += 2) {
+                    double x1 = ring[i], y1 = ring[i + 1], x2 = ring[i + 2], y2 = ring[i + 3];
+                    if ((y1 > lat) != (y2 > lat) && lon < x1 + (lat - y1) / (y2 - y1) * (x2 - x1)) inside = !inside;
+               }
+          }
+          return inside;
+     }
+}
@@ -0,0 +1,51 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.junit.jupiter.api.Test;
+import org.tymi.ospflooding.backend.records.Bounds;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FloodRasterReaderTests {
+     private static final IntPredicate BLUE = rgb -> (rgb & 0xFF) > 128 && (rgb >> 16 & 0xFF) < 100;
+
+     @Test
+     void decodesSubsampledImageFromStream() throws IOException {
+          BufferedImage image = floodImage(301, 203);
+          Bounds bounds = new Bounds(50.0, 19.9, 50.0 + 203 * 0.00005, 19.9 + 301 * 0.00005);
+
+          FloodMask mask = FloodRasterReader.read(new ByteArrayInputStream(png(image)), bounds, 2, BLUE);
+          FloodMask expected = FloodMask.fromImage(image, bounds.north(), bounds.west(),
+                  (bounds.north() - bounds.south()) / 203, (bounds.east() - bounds.west()) / 301, 2, BLUE);
+
+          assertTrue(expected.sameGridAs(mask));
+          assertTrue(FloodMaskDelta.between(expected, mask).isEmpty());
+     }
+
+     @Test
+     void rejectsNonImageResponse() {
+          byte[] body = "<ServiceExceptionReport>Error</ServiceExceptionReport>".getBytes();
+          assertThrows(IOException.class, () -> FloodRasterReader.read(new ByteArrayInputStream(body),
+                  new Bounds(50.0, 19.9, 50.01, 19.91), 2, BLUE));
+     }
+
+     private static BufferedImage floodImage(int width, int height) {
+          BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+          for (int y = 0; y < height; y++) {
+               for (int x = 0; x < width; x++) image.setRGB(x, y, (x / 7 + y / 5) % 3 == 0 ? 0x1020F0 : 0x808080);
+          }
+          return image;
+     }
+
+     private static byte[] png(BufferedImage image) throws IOException {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          ImageIO.write(image, "png", out);
+          return out.toByteArray();
+     }
+}
@@ -0,0 +1,47 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FloodTileCacheTests {
+     // zoom 14 tile over the middle of the mask below
+     private static final int Z = 14, X = 9098, Y = 5552;
+
+     @Test
+     void keepsTilesTheChangeDoesNotShowOn() {
+          FloodMask previous = mask();
+          previous.setRange(120, 100, 160);
+          FloodMask current = FloodMask.decode(previous.encode());
+          current.set(121, 130);
+          FloodMaskDelta delta = FloodMaskDelta.between(previous, current);
+
+          FloodTileCache cache = new FloodTileCache(1 << 20);
+          FloodTileCache.Tile changed = new FloodTileCache.Tile(FloodTileRenderer.render(previous, Z, X, Y), "\"a\"");
+          FloodTileCache.Tile unchanged = new FloodTileCache.Tile(new byte[0], "\"b\"");
+          cache.put(Z, X, Y, previous, changed);
+          cache.put(Z, X + 3, Y, previous, unchanged);
+          cache.put(Z + 1, 2 * X, 2 * Y, FloodMask.empty(), unchanged);
+
+          assertEquals(2, cache.apply(delta));
+          assertNull(cache.get(Z, X, Y, current));
+          assertNull(cache.get(Z, X + 3, Y, previous));
+          assertSame(unchanged, cache.get(Z, X + 3, Y, current));
+          assertEquals(1, cache.size());
+     }
+
+     @Test
+     void evictsLeastRecentlyUsedTiles() {
+          FloodTileCache cache = new FloodTileCache(1000);
+          FloodMask mask = mask();
+          for (int x = 0; x < 4; x++) cache.put(Z, x, Y, mask, new FloodTileCache.Tile(new byte[300], "\"" + x + "\""));
+
+          assertNull(cache.get(Z, 0, Y, mask));
+          assertNotNull(cache.get(Z, 3, Y, mask));
+          assertTrue(cache.bytes() <= 1000);
+     }
+
+     private static FloodMask mask() {
+          return new FloodMask(50.07, 19.9, 0.0001, 0.0001, 250, 600);
+     }
+}
@@ -0,0 +1,139 @@
+package org.tymi.ospflooding.backend.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FloodTileRendererTests {
+     // zoom 14 tile over the middle of the mask below
+     private static final int Z = 14, X = 9098, Y = 5552;
+
+     @Test
+     void rendersFloodedBlockAsOneRectangle() {
+          FloodMask mask = mask();
+          for (int row = 100; row < 150; row++) mask.setRange(row, 100, 160);
+
+          List<int[]> rectangles = decode(FloodTileRenderer.render(mask, Z, X, Y));
+
+          assertEquals(1, rectangles.size());
+          int[] rectangle = rectangles.getFirst();
+          assertEquals(tileX(mask.longitude(100)), rectangle[0], 16);
+          assertEquals(tileY(mask.latitude(100)), rectangle[1], 16);
+          assertEquals(tileX(mask.longitude(160)), rectangle[2], 16);
+          assertEquals(tileY(mask.latitude(150)), rectangle[3], 16);
+     }
+
+     @Test
+     void mergesRunsOfEqualRows() {
+          FloodMask mask = mask();
+          // an L, the vertical bar ending in a wider foot
+          for (int row = 100; row < 150; row++) mask.setRange(row, 100, 120);
+          for (int row = 150; row < 160; row++) mask.setRange(row, 100, 200);
+          // in the tile to the west
+          mask.set(10, 10);
+
+          List<int[]> rectangles = decode(FloodTileRenderer.render(mask, Z, X, Y));
+
+          assertEquals(2, rectangles.size());
+          for (int[] rectangle : rectangles) assertTrue(rectangle[0] < rectangle[2] && rectangle[1] < rectangle[3]);
+     }
+
+     @Test
+     void leavesTilesWithoutFloodEmpty() {
+          FloodMask mask = mask();
+          for (int row = 100; row < 150; row++) mask.setRange(row, 100, 160);
+
+          assertEquals(0, FloodTileRenderer.render(mask, Z, X + 3, Y).length);
+          assertEquals(0, FloodTileRenderer.render(FloodMask.empty(), Z, X, Y).length);
+          assertEquals(1, decode(FloodTileRenderer.render(mask, 3, 4, 2)).size());
+     }
+
+     private static FloodMask mask() {
+          return new FloodMask(50.07, 19.9, 0.0001, 0.0001, 250, 600);
+     }
+
+     private static double tileX(double lon) {
+          return ((lon + 180) / 360 * (1 << Z) - X) * VectorTileWriter.EXTENT;
+     }
+
+     private static double tileY(double lat) {
+          double sin = Math.sin(Math.toRadians(lat));
+          return ((0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * (1 << Z) - Y) * VectorTileWriter.EXTENT;
+     }
+
+     /**
+      * @return bounds of every ring of the tile as left, top, right, bottom
+      */
+     private static List<int[]> decode(byte[] tile) {
+          List<int[]> rings = new ArrayList<>();
+          ByteBuffer tileBuffer = ByteBuffer.wrap(tile);
+          while (tileBuffer.hasRemaining()) {
+               assertEquals(3 << 3 | 2, varint(tileBuffer));
+               ByteBuffer layer = field(tileBuffer);
+               while (layer.hasRemaining()) {
+                    int tag = (int) varint(layer);
+                    if ((tag & 7) == 0) {
+                         varint(layer);
+                    } else if (tag >>> 3 == 2) {
+                         ByteBuffer feature = field(layer);
+                         while (feature.hasRemaining()) {
+                              int featureTag = (int) varint(feature);
+                              if ((featureTag & 7) == 0) varint(feature);
+                              else if (featureTag >>> 3 == 4) rings.addAll(rings(field(feature)));
+                              else field(feature);
+                         }
+                    } else {
+                         field(layer);
+                    }
+               }
+          }
+          return rings;
+     }
+
+     private static List<int[]> rings(ByteBuffer geometry) {
+          List<int[]> rings = new ArrayList<>();
+          int x = 0, y = 0;
+          int[] ring = null;
+          while (geometry.hasRemaining()) {
+               int command = (int) varint(geometry);
+               if ((command & 7) == 7) {
+                    rings.add(ring);
+                    continue;
+               }
+               for (int i = 0; i < command >>> 3; i++) {
+                    x += zigZag(varint(geometry));
+                    y += zigZag(varint(geometry));
+                    if ((command & 7) == 1) ring = new int[]{x, y, x, y};
+                    ring[0] = Math.min(ring[0], x);
+                    ring[1] = Math.min(ring[1], y);
+                    ring[2] = Math.max(ring[2], x);
+                    ring[3] = Math.max(ring[3], y);
+               }
+          }
+          return rings;
+     }
+
+     private static ByteBuffer field(ByteBuffer buffer) {
+          int length = (int) varint(buffer);
+          ByteBuffer field = buffer.slice(buffer.position(), length);
+          buffer.position(buffer.position() + length);
+          return field;
+     }
+
+     private static long varint(ByteBuffer buffer) {
+          long value = 0;
+          for (int shift = 0; ; shift += 7) {
+               byte b = buffer.get();
+               value |= (long) (b & 0x7F) << shift;
+               if (b >= 0) return value;
+          }
+     }
+
+     private static int zigZag(long value) {
+          return (int) (value >>> 1) ^ -(int) (value & 1);
+     }
+}